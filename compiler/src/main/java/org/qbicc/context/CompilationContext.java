@@ -1,10 +1,14 @@
 package org.qbicc.context;
 
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.Node;
@@ -15,7 +19,6 @@ import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.interpreter.Vm;
 import org.qbicc.interpreter.VmClassLoader;
 import org.qbicc.machine.arch.Platform;
-import org.qbicc.object.Function;
 import org.qbicc.object.ProgramModule;
 import org.qbicc.object.ModuleSection;
 import org.qbicc.object.Section;
@@ -123,9 +126,9 @@ public interface CompilationContext extends DiagnosticContext {
      */
     Section getImplicitSection();
 
-    Function getExactFunction(ExecutableElement element);
+    org.qbicc.object.Function getExactFunction(ExecutableElement element);
 
-    Function getExactFunctionIfExists(ExecutableElement element);
+    org.qbicc.object.Function getExactFunctionIfExists(ExecutableElement element);
 
     FunctionElement establishExactFunction(ExecutableElement element, FunctionElement function);
 
@@ -158,6 +161,27 @@ public interface CompilationContext extends DiagnosticContext {
      */
     void runParallelTask(Consumer<CompilationContext> task) throws IllegalStateException;
 
+    /**
+     * Submit a single task to be run on a compiler thread, using the current task runner.  Unlike
+     * {@link #runParallelTask}, this method does not wait for any other compiler thread and may be called from any
+     * thread, including a compiler thread.
+     *
+     * @param task the task to run (must not be {@code null})
+     * @return the future result of the task (not {@code null})
+     * @param <R> the task result type
+     * @throws IllegalStateException if the compiler threads are not running
+     */
+    <R> CompletableFuture<R> submitTask(Function<CompilationContext, R> task) throws IllegalStateException;
+
+    /**
+     * Wait for every one of the given submitted tasks to complete.  Any task which has completed exceptionally is
+     * reported as an error.  If this method is called from a compiler thread, the calling thread will run other
+     * submitted tasks while it waits.
+     *
+     * @param tasks the tasks to wait for (must not be {@code null})
+     */
+    void joinTasks(Collection<? extends Future<?>> tasks);
+
     /**
      * Get the copier for the current phase.
      *
@@ -13,6 +13,7 @@ public final class If extends AbstractTerminator implements Terminator {
     private final BlockLabel trueBranchLabel;
     private final BlockLabel falseBranchLabel;
     private final BasicBlock terminatedBlock;
+    private float trueProbability = Float.NaN;
 
     If(final Node callSite, final ExecutableElement element, final int line, final int bci, final BlockEntry blockEntry, final Node dependency, final Value condition, final BlockLabel trueBranchLabel, final BlockLabel falseBranchLabel) {
         super(callSite, element, line, bci);
@@ -58,6 +59,41 @@ public final class If extends AbstractTerminator implements Terminator {
         return BlockLabel.getTargetOf(falseBranchLabel);
     }
 
+    /**
+     * Get the estimated probability that the true branch is taken.
+     *
+     * @return the probability, between 0 and 1 inclusive, or {@code NaN} if it is not known
+     */
+    public float getTrueProbability() {
+        return trueProbability;
+    }
+
+    /**
+     * Determine whether the probability of each branch has been estimated.
+     *
+     * @return {@code true} if the branch probability is known, or {@code false} if it is not
+     */
+    public boolean hasProbability() {
+        return ! Float.isNaN(trueProbability);
+    }
+
+    /**
+     * Set the estimated probability that the branch to the given target is taken. Since a block builder may have
+     * swapped the branches of this node, the target is given by label; if the label is neither branch of this node,
+     * the estimate is ignored. The probability is not part of the identity of this node.
+     *
+     * @param target the branch target label (must not be {@code null})
+     * @param probability the probability, between 0 and 1 inclusive
+     */
+    public void setProbability(BlockLabel target, float probability) {
+        float p = Math.max(0, Math.min(1, probability));
+        if (target == trueBranchLabel) {
+            trueProbability = p;
+        } else if (target == falseBranchLabel) {
+            trueProbability = 1 - p;
+        }
+    }
+
     @Override
     public Node getDependency() {
         return dependency;
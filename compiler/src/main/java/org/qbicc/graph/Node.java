@@ -112,6 +112,15 @@ public interface Node {
             return blockBuilder;
         }
 
+        /**
+         * Get the schedule of the program being copied.
+         *
+         * @return the schedule of the original program (not {@code null})
+         */
+        public Schedule getSchedule() {
+            return schedule;
+        }
+
         /**
          * Execute this copier on the subprogram that is entered by the given entry block; returns the block copy.
          *
@@ -371,7 +380,13 @@ public interface Node {
 
             public BasicBlock visit(Copier param, If node) {
                 param.copyNode(node.getDependency());
-                return param.getBlockBuilder().if_(param.copyValue(node.getCondition()), param.copyBlock(node.getTrueBranch()), param.copyBlock(node.getFalseBranch()));
+                Value condition = param.copyValue(node.getCondition());
+                BlockLabel trueTarget = param.copyBlock(node.getTrueBranch());
+                BasicBlock block = param.getBlockBuilder().if_(condition, trueTarget, param.copyBlock(node.getFalseBranch()));
+                if (node.hasProbability() && block.getTerminator() instanceof If copy) {
+                    copy.setProbability(trueTarget, node.getTrueProbability());
+                }
+                return block;
             }
 
             public BasicBlock visit(Copier param, Invoke node) {
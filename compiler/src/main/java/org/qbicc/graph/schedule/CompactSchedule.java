@@ -0,0 +1,132 @@
+package org.qbicc.graph.schedule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Unschedulable;
+import io.smallrye.common.constraint.Assert;
+
+/**
+ * A schedule which is stored in a handful of flat arrays instead of per-node map entries and per-block lists.
+ * <p>
+ * The scheduled nodes are stored in one array, grouped by block in schedule order, with the start of each block's
+ * group and the index of each block's immediate dominator recorded by block index. The block of a node is found in
+ * an open-addressed hash table whose keys and values are parallel arrays, where each value is the index of a block.
+ */
+final class CompactSchedule implements Schedule {
+    private final BasicBlock[] blocks;
+    private final int[] dominators;
+    private final int[] blockStarts;
+    private final Node[] nodes;
+    private final Node[] keys;
+    private final int[] keyBlocks;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param allBlocks the blocks of the method, indexed by one-based block index minus one
+     * @param scheduledNodes the map of scheduled nodes to their blocks, in schedule order
+     */
+    CompactSchedule(final BlockInfo[] allBlocks, final Map<Node, BlockInfo> scheduledNodes) {
+        int blockCnt = allBlocks.length;
+        BasicBlock[] blocks = new BasicBlock[blockCnt];
+        int[] dominators = new int[blockCnt];
+        for (int i = 0; i < blockCnt; i ++) {
+            blocks[i] = allBlocks[i].block;
+            dominators[i] = allBlocks[i].dominator - 1;
+        }
+        int size = scheduledNodes.size();
+        // count the nodes of each block, then turn the counts into start positions
+        int[] blockStarts = new int[blockCnt + 1];
+        for (BlockInfo blockInfo : scheduledNodes.values()) {
+            blockStarts[blockInfo.index] ++;
+        }
+        for (int i = 0; i < blockCnt; i ++) {
+            blockStarts[i + 1] += blockStarts[i];
+        }
+        int[] next = Arrays.copyOf(blockStarts, blockCnt);
+        Node[] nodes = new Node[size];
+        int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1;
+        Node[] keys = new Node[capacity];
+        int[] keyBlocks = new int[capacity];
+        int mask = capacity - 1;
+        for (Map.Entry<Node, BlockInfo> entry : scheduledNodes.entrySet()) {
+            Node node = entry.getKey();
+            int blockIdx = entry.getValue().index - 1;
+            nodes[next[blockIdx] ++] = node;
+            int slot = mix(node.hashCode()) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = node;
+            keyBlocks[slot] = blockIdx;
+        }
+        this.blocks = blocks;
+        this.dominators = dominators;
+        this.blockStarts = blockStarts;
+        this.nodes = nodes;
+        this.keys = keys;
+        this.keyBlocks = keyBlocks;
+    }
+
+    public BasicBlock getBlockForNode(final Node node) {
+        Assert.assertFalse(node instanceof Unschedulable);
+        Assert.checkNotNullParam("node", node);
+        Node[] keys = this.keys;
+        int mask = keys.length - 1;
+        int slot = mix(node.hashCode()) & mask;
+        Node key;
+        while ((key = keys[slot]) != null) {
+            if (key == node || key.equals(node)) {
+                return blocks[keyBlocks[slot]];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public List<Node> getNodesForBlock(final BasicBlock block) {
+        int blockIdx = indexOf(block);
+        if (blockIdx == -1) {
+            return List.of();
+        }
+        int start = blockStarts[blockIdx];
+        int end = blockStarts[blockIdx + 1];
+        if (start == end) {
+            return List.of();
+        }
+        return Collections.unmodifiableList(Arrays.asList(nodes).subList(start, end));
+    }
+
+    public BasicBlock getImmediateDominator(final BasicBlock block) {
+        int blockIdx = indexOf(block);
+        if (blockIdx == -1) {
+            return null;
+        }
+        int dominatorIdx = dominators[blockIdx];
+        return dominatorIdx == -1 ? null : blocks[dominatorIdx];
+    }
+
+    private int indexOf(final BasicBlock block) {
+        // the index is assigned when the schedule is computed, but it is not owned by any one schedule
+        int idx = block.getIndex() - 1;
+        BasicBlock[] blocks = this.blocks;
+        if (idx >= 0 && idx < blocks.length && blocks[idx] == block) {
+            return idx;
+        }
+        for (int i = 0; i < blocks.length; i ++) {
+            if (blocks[i] == block) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int mix(int hashCode) {
+        return hashCode ^ hashCode >>> 16;
+    }
+}
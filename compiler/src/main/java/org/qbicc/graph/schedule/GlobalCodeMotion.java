@@ -0,0 +1,144 @@
+package org.qbicc.graph.schedule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.PinnedNode;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Unschedulable;
+import org.qbicc.graph.Value;
+
+// This follows "Global Code Motion / Global Value Numbering" by Cliff Click.  The early schedule is computed
+//    by the caller; here each floating node is scheduled late, to the lowest common dominator of its uses, and
+//    then placed in the block with the shallowest loop nesting on the dominator tree path between its early
+//    and late blocks, preferring the latest such block.  The loop nesting of each block is the one which was
+//    computed when the block was built.
+//
+// Only values which are neither pinned nor ordered may float.  Every other node keeps its early block, which
+//    is the block that it was built in.
+final class GlobalCodeMotion {
+    private final BlockInfo[] allBlocks;
+    private final Map<Node, BlockInfo> scheduledNodes;
+    private final Map<Node, BlockInfo> lateBlocks;
+    // the block of the last use that was added through each unschedulable node, so that shared subgraphs are
+    //    only walked once per use
+    private final Map<Node, BlockInfo> unschedulableUses = new HashMap<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param allBlocks the blocks of the method, with their dominators and dominator tree depths computed
+     * @param scheduledNodes the early schedule, in the order that the nodes were scheduled
+     */
+    GlobalCodeMotion(final BlockInfo[] allBlocks, final Map<Node, BlockInfo> scheduledNodes) {
+        this.allBlocks = allBlocks;
+        this.scheduledNodes = scheduledNodes;
+        lateBlocks = new HashMap<>(scheduledNodes.size());
+    }
+
+    void main() {
+        List<Map.Entry<Node, BlockInfo>> entries = new ArrayList<>(scheduledNodes.entrySet());
+        // the uses of fixed nodes are at known blocks
+        for (Map.Entry<Node, BlockInfo> entry : entries) {
+            Node node = entry.getKey();
+            if (! isFloating(node)) {
+                addUses(node, entry.getValue());
+            }
+        }
+        // a floating node is always scheduled early after its dependencies, so visiting in reverse order
+        // visits every floating use of a node before the node itself
+        for (int i = entries.size() - 1; i >= 0; i --) {
+            Map.Entry<Node, BlockInfo> entry = entries.get(i);
+            Node node = entry.getKey();
+            if (isFloating(node)) {
+                BlockInfo selected = select(entry.getValue(), lateBlocks.get(node));
+                entry.setValue(selected);
+                addUses(node, selected);
+            }
+        }
+    }
+
+    private static boolean isFloating(Node node) {
+        return node instanceof Value && ! (node instanceof OrderedNode || node instanceof PinnedNode || node instanceof Terminator || node instanceof Unschedulable);
+    }
+
+    private BlockInfo select(BlockInfo early, BlockInfo late) {
+        if (late == null || ! dominates(early, late)) {
+            // unused, or not a valid placement
+            return early;
+        }
+        BlockInfo best = late;
+        BlockInfo current = late;
+        while (current != early) {
+            current = idom(current);
+            if (loopDepth(current) < loopDepth(best)) {
+                best = current;
+            }
+        }
+        return best;
+    }
+
+    private void addUses(Node user, BlockInfo block) {
+        if (user.hasValueHandleDependency()) {
+            addUse(user.getValueHandle(), block);
+        }
+        int cnt = user.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            addUse(user.getValueDependency(i), block);
+        }
+        if (user instanceof OrderedNode on) {
+            addUse(on.getDependency(), block);
+        }
+        if (user instanceof Terminator terminator) {
+            // outbound values are used at the end of the incoming block, not in the block of the phi
+            for (PhiValue phiValue : terminator.getOutboundValues().keySet()) {
+                addUse(terminator.getOutboundValue(phiValue), block);
+            }
+        }
+    }
+
+    private void addUse(Node dependency, BlockInfo block) {
+        if (dependency instanceof Unschedulable) {
+            // these are materialized at each use, so their dependencies are used there
+            if (unschedulableUses.put(dependency, block) != block) {
+                addUses(dependency, block);
+            }
+        } else if (isFloating(dependency) && scheduledNodes.containsKey(dependency)) {
+            lateBlocks.merge(dependency, block, this::lca);
+        }
+    }
+
+    private static int loopDepth(BlockInfo block) {
+        return block.block.getLoops().size();
+    }
+
+    private BlockInfo idom(BlockInfo block) {
+        return allBlocks[block.dominator - 1];
+    }
+
+    private BlockInfo lca(BlockInfo a, BlockInfo b) {
+        while (a.domDepth > b.domDepth) {
+            a = idom(a);
+        }
+        while (b.domDepth > a.domDepth) {
+            b = idom(b);
+        }
+        while (a != b) {
+            a = idom(a);
+            b = idom(b);
+        }
+        return a;
+    }
+
+    private boolean dominates(BlockInfo a, BlockInfo b) {
+        while (b.domDepth > a.domDepth) {
+            b = idom(b);
+        }
+        return a == b;
+    }
+}
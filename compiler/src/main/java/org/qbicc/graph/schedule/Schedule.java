@@ -1,7 +1,5 @@
 package org.qbicc.graph.schedule;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -18,7 +16,6 @@ import org.qbicc.graph.PinnedNode;
 import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
-import io.smallrye.common.constraint.Assert;
 
 /**
  * A linear schedule for basic block instructions.
@@ -41,6 +38,14 @@ public interface Schedule {
      */
     List<Node> getNodesForBlock(BasicBlock block);
 
+    /**
+     * Get the immediate dominator of the given basic block.
+     *
+     * @param block the basic block to look up (must not be {@code null})
+     * @return the immediate dominator, or {@code null} if the block is the entry block or is not part of this schedule
+     */
+    BasicBlock getImmediateDominator(BasicBlock block);
+
     /**
      * Create a schedule for the method whose entry block is the given block.
      *
@@ -48,9 +53,6 @@ public interface Schedule {
      * @return a schedule for the entry block of the method
      */
     static Schedule forMethod(BasicBlock entryBlock) {
-        // Simplified algorithm which simply finds *any* valid schedule.
-        // todo: Find an optimized schedule.
-
         int[] indexHolder = new int[] { 2 };
         Map<BasicBlock, BlockInfo> blockInfos = new HashMap<>();
         // 1. First, assign numeric indices for each block
@@ -71,28 +73,12 @@ public interface Schedule {
             block.findDomDepths(allBlocks);
         }
 
-        // now, use the dominator depths to calculate the simplest possible schedule.
+        // 4. Use the dominator depths to schedule every node as early as possible.
         Map<Node, BlockInfo> scheduledNodes = new LinkedHashMap<>();
         scheduleEarly(root, blockInfos, scheduledNodes, entryBlock);
-        Map<Node, BasicBlock> finalMapping = new HashMap<>(scheduledNodes.size());
-        Map<BasicBlock, List<Node>> blockToNodesMap = new HashMap<>(allBlocks.length);
-        for (Map.Entry<Node, BlockInfo> entry : scheduledNodes.entrySet()) {
-            finalMapping.put(entry.getKey(), entry.getValue().block);
-            blockToNodesMap.computeIfAbsent(entry.getValue().block, k -> new ArrayList<>()).add(entry.getKey());
-        }
-        return new Schedule() {
-            public BasicBlock getBlockForNode(final Node node) {
-                Assert.assertFalse(node instanceof Unschedulable);
-                return finalMapping.get(Assert.checkNotNullParam("node", node));
-            }
-            public List<Node> getNodesForBlock(final BasicBlock block) {
-                List<Node> nodes = blockToNodesMap.get(block);
-                if (nodes == null) {
-                    return List.of();
-                }
-                return Collections.unmodifiableList(blockToNodesMap.get(block));
-            }
-        };
+        // 5. Move floating nodes as late as possible without entering more deeply nested loops.
+        new GlobalCodeMotion(allBlocks, scheduledNodes).main();
+        return new CompactSchedule(allBlocks, scheduledNodes);
     }
 
     private static void scheduleEarly(BlockInfo root, Map<BasicBlock, BlockInfo> blockInfos, Map<Node, BlockInfo> scheduledNodes, BasicBlock block) {
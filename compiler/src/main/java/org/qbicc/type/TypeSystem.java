@@ -353,7 +353,7 @@ public final class TypeSystem {
     public ArrayType getArrayType(ValueType memberType, long elements) {
         Assert.checkNotNullParam("memberType", memberType);
         Assert.checkMinimumParameter("elements", 0, elements);
-        return new ArrayType(this, memberType, elements);
+        return memberType.getArrayType(elements);
     }
 
     /**
@@ -514,6 +514,10 @@ public final class TypeSystem {
         return new PrimitiveArrayObjectType(this, objectClass, elementType);
     }
 
+    ArrayType createArrayType(final ValueType memberType, final long elements) {
+        return new ArrayType(this, memberType, elements);
+    }
+
     TypeType createTypeType(final ValueType upperBound) {
         return new TypeType(this, upperBound);
     }
@@ -3,15 +3,20 @@ package org.qbicc.type;
 import java.lang.invoke.ConstantBootstraps;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An "object" in memory, which consists of word types and structured types.
  */
 public abstract class ValueType extends Type {
     private static final VarHandle typeTypeHandle = ConstantBootstraps.fieldVarHandle(MethodHandles.lookup(), "typeType", VarHandle.class, ValueType.class, TypeType.class);
+    private static final VarHandle arrayTypesHandle = ConstantBootstraps.fieldVarHandle(MethodHandles.lookup(), "arrayTypes", VarHandle.class, ValueType.class, Map.class);
 
     @SuppressWarnings("unused") // VarHandle
     private volatile TypeType typeType;
+    @SuppressWarnings("unused") // VarHandle
+    private volatile Map<Long, ArrayType> arrayTypes;
 
     ValueType(final TypeSystem typeSystem, final int hashCode) {
         super(typeSystem, hashCode);
@@ -48,6 +53,25 @@ public abstract class ValueType extends Type {
         return newTypeType;
     }
 
+    /**
+     * Get the canonical array type with this element type and the given number of elements.
+     *
+     * @param elements the number of elements
+     * @return the array type (not {@code null})
+     */
+    @SuppressWarnings("unchecked")
+    final ArrayType getArrayType(long elements) {
+        Map<Long, ArrayType> arrayTypes = this.arrayTypes;
+        if (arrayTypes == null) {
+            Map<Long, ArrayType> newArrayTypes = new ConcurrentHashMap<>();
+            arrayTypes = (Map<Long, ArrayType>) arrayTypesHandle.compareAndExchange(this, null, newArrayTypes);
+            if (arrayTypes == null) {
+                arrayTypes = newArrayTypes;
+            }
+        }
+        return arrayTypes.computeIfAbsent(Long.valueOf(elements), e -> typeSystem.createArrayType(this, e.longValue()));
+    }
+
     public final boolean equals(final Type other) {
         return other instanceof ValueType && equals((ValueType) other);
     }
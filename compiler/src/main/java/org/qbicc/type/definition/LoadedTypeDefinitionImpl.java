@@ -5,12 +5,15 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.graph.Value;
@@ -60,6 +63,10 @@ final class LoadedTypeDefinitionImpl extends DelegatingDefinedTypeDefinition imp
     private LoadedTypeDefinition enclosingMethodClass;
     private MethodElement enclosingMethod;
     private volatile Map<MethodElement, Map<MethodDescriptor, MethodElement>> sigPolyMethods = null;
+    private volatile Map<String, int[]> methodIndexesByName;
+    private volatile Map<String, int[]> fieldIndexesByName;
+    private final Map<ResolutionKey, MethodElement> virtualResolutions = new ConcurrentHashMap<>();
+    private final Map<ResolutionKey, MethodElement> interfaceResolutions = new ConcurrentHashMap<>();
 
     LoadedTypeDefinitionImpl(final DefinedTypeDefinitionImpl delegate, final LoadedTypeDefinition superType, final LoadedTypeDefinition[] interfaces, final ArrayList<FieldElement> fields, final MethodElement[] methods, final MethodElement[] instanceMethods, final ConstructorElement[] ctors, final InitializerElement init, final NestedClassElement enclosingClass, final NestedClassElement[] enclosedClasses, DefinedTypeDefinition nestHost, DefinedTypeDefinition[] nestMembers) {
         this.delegate = delegate;
@@ -205,7 +212,38 @@ final class LoadedTypeDefinitionImpl extends DelegatingDefinedTypeDefinition imp
         if ((field.getModifiers() & ClassFile.I_ACC_NO_RESOLVE) == 0) {
             throw new IllegalArgumentException("Injected fields must be unresolvable");
         }
-        fields.add(field);
+        // invalidate under the same lock that builds the index, so that an index of the old fields is never published
+        synchronized (this) {
+            fields.add(field);
+            fieldIndexesByName = null;
+        }
+    }
+
+    @Override
+    public int getFieldIndex(String name, boolean includeNoResolve) {
+        int[] candidates = getFieldIndexesByName().get(name);
+        if (candidates != null) {
+            for (int i : candidates) {
+                if (includeNoResolve || fields.get(i).hasNoModifiersOf(ClassFile.I_ACC_NO_RESOLVE)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, int[]> getFieldIndexesByName() {
+        Map<String, int[]> fieldIndexesByName = this.fieldIndexesByName;
+        if (fieldIndexesByName == null) {
+            // fields may be injected concurrently
+            synchronized (this) {
+                fieldIndexesByName = this.fieldIndexesByName;
+                if (fieldIndexesByName == null) {
+                    this.fieldIndexesByName = fieldIndexesByName = indexByName(fields.size(), i -> fields.get(i).getName());
+                }
+            }
+        }
+        return fieldIndexesByName;
     }
 
     public Value getInitialValue(FieldElement field) {
@@ -220,6 +258,75 @@ final class LoadedTypeDefinitionImpl extends DelegatingDefinedTypeDefinition imp
         return methods[index];
     }
 
+    @Override
+    public int findMethodIndex(String name, MethodDescriptor descriptor, boolean includePrivate) {
+        int[] candidates = getMethodIndexesByName().get(name);
+        if (candidates != null) {
+            for (int i : candidates) {
+                MethodElement method = methods[i];
+                if (method.hasAllModifiersOf(ClassFile.I_ACC_NO_RESOLVE) || method.hasAllModifiersOf(ClassFile.ACC_PRIVATE) && ! includePrivate) {
+                    continue;
+                }
+                if ((method.getModifiers() & ClassFile.I_ACC_SIGNATURE_POLYMORPHIC) != 0) {
+                    return i;
+                } else if (method.getDescriptor().equals(descriptor)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, int[]> getMethodIndexesByName() {
+        Map<String, int[]> methodIndexesByName = this.methodIndexesByName;
+        if (methodIndexesByName == null) {
+            // benign race: every thread computes the same index
+            this.methodIndexesByName = methodIndexesByName = indexByName(methods.length, i -> methods[i].getName());
+        }
+        return methodIndexesByName;
+    }
+
+    /**
+     * Map each member name to the indexes of the members with that name, in declaration order.
+     */
+    private static Map<String, int[]> indexByName(int cnt, IntFunction<String> nameOf) {
+        Map<String, int[]> index = new HashMap<>(cnt * 2);
+        for (int i = 0; i < cnt; i ++) {
+            int idx = i;
+            index.merge(nameOf.apply(i), new int[] { i }, (a, b) -> {
+                int[] c = Arrays.copyOf(a, a.length + 1);
+                c[a.length] = idx;
+                return c;
+            });
+        }
+        return index;
+    }
+
+    @Override
+    public MethodElement resolveMethodElementVirtual(String name, MethodDescriptor descriptor, boolean includePrivate) {
+        // the type hierarchy and members of a loaded type never change, so resolutions can be remembered
+        ResolutionKey key = new ResolutionKey(name, descriptor, includePrivate);
+        MethodElement result = virtualResolutions.get(key);
+        if (result == null) {
+            result = LoadedTypeDefinition.super.resolveMethodElementVirtual(name, descriptor, includePrivate);
+            virtualResolutions.putIfAbsent(key, result == null ? MethodElement.NOT_FOUND : result);
+        }
+        return result == MethodElement.NOT_FOUND ? null : result;
+    }
+
+    @Override
+    public MethodElement resolveMethodElementInterface(boolean virtualOnly, String name, MethodDescriptor descriptor) {
+        ResolutionKey key = new ResolutionKey(name, descriptor, virtualOnly);
+        MethodElement result = interfaceResolutions.get(key);
+        if (result == null) {
+            result = LoadedTypeDefinition.super.resolveMethodElementInterface(virtualOnly, name, descriptor);
+            interfaceResolutions.putIfAbsent(key, result == null ? MethodElement.NOT_FOUND : result);
+        }
+        return result == MethodElement.NOT_FOUND ? null : result;
+    }
+
+    record ResolutionKey(String name, MethodDescriptor descriptor, boolean flag) {}
+
     @Override
     public MethodElement expandSigPolyMethod(MethodElement original, MethodDescriptor descriptor) {
         if (original.isSignaturePolymorphic()) {
@@ -23,6 +23,49 @@ public interface MethodBody {
 
     ParameterValue getThisValue();
 
+    /**
+     * Get a view of this body which does not retain its schedule.  Such a body can still be traversed and copied
+     * from its entry block, but calling {@link #getSchedule()} on it throws an exception.  This is used for superseded
+     * bodies, whose schedules are typically much larger than the information that is still needed from them.
+     *
+     * @return the unscheduled body (not {@code null})
+     */
+    default MethodBody withoutSchedule() {
+        MethodBody body = this;
+        BasicBlock entryBlock = body.getEntryBlock();
+        ParameterValue thisValue = body.getThisValue();
+        List<ParameterValue> paramValues = body.getParameterValues();
+        return new MethodBody() {
+            public int getParameterCount() {
+                return paramValues.size();
+            }
+
+            public ParameterValue getParameterValue(final int index) throws IndexOutOfBoundsException {
+                return paramValues.get(index);
+            }
+
+            public List<ParameterValue> getParameterValues() {
+                return paramValues;
+            }
+
+            public BasicBlock getEntryBlock() {
+                return entryBlock;
+            }
+
+            public Schedule getSchedule() {
+                throw new IllegalStateException("The schedule of a superseded method body was released");
+            }
+
+            public ParameterValue getThisValue() {
+                return thisValue;
+            }
+
+            public MethodBody withoutSchedule() {
+                return this;
+            }
+        };
+    }
+
     static MethodBody of(BasicBlock entryBlock, Schedule schedule, ParameterValue thisValue, ParameterValue... parameterValues) {
         return of(entryBlock, schedule, thisValue, List.of(parameterValues));
     }
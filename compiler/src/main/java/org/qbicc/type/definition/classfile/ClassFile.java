@@ -704,9 +704,29 @@ public interface ClassFile extends FieldResolver,
      */
     void accept(DefinedTypeDefinition.Builder builder) throws ClassFormatException;
 
+    /**
+     * Get the structural layout of this class file, which may be used to define the same class file again without
+     * scanning it.
+     *
+     * @return the layout (not {@code null})
+     */
+    ClassFileLayout getLayout();
+
     static ClassFile of(final ClassContext ctxt, ByteBuffer orig) {
+        return of(ctxt, orig, null);
+    }
+
+    /**
+     * Get a class file for the given bytes, using a previously computed layout if one is available.
+     *
+     * @param ctxt the class context (must not be {@code null})
+     * @param orig the class file bytes (must not be {@code null})
+     * @param layout the layout previously computed from exactly the same bytes, or {@code null} to scan the bytes
+     * @return the class file (not {@code null})
+     */
+    static ClassFile of(final ClassContext ctxt, ByteBuffer orig, ClassFileLayout layout) {
         orig.order(ByteOrder.BIG_ENDIAN);
         ByteBuffer buffer = orig.duplicate();
-        return new ClassFileImpl(ctxt, buffer);
+        return new ClassFileImpl(ctxt, buffer, layout);
     }
 }
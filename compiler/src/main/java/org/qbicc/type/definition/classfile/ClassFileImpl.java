@@ -90,7 +90,7 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
     private final ClassContext ctxt;
     private final String sourceFile;
 
-    ClassFileImpl(final ClassContext ctxt, final ByteBuffer buffer) {
+    ClassFileImpl(final ClassContext ctxt, final ByteBuffer buffer, final ClassFileLayout cachedLayout) {
         super(buffer);
         this.ctxt = ctxt;
         literalFactory = ctxt.getLiteralFactory();
@@ -111,6 +111,54 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
             throw new DefineFailedException("Unsupported class version " + major + "." + minor);
         }
         int cpCount = (scanBuf.getShort() & 0xffff);
+        ClassFileLayout layout;
+        if (cachedLayout == null) {
+            layout = scan(scanBuf, cpCount);
+        } else if (cachedLayout.cpOffsets.length == cpCount) {
+            layout = cachedLayout;
+        } else {
+            throw new DefineFailedException("Class file layout does not match the class file");
+        }
+
+        this.interfacesOffset = layout.interfacesOffset;
+        this.fieldOffsets = layout.fieldOffsets;
+        this.fieldAttributeOffsets = layout.fieldAttributeOffsets;
+        this.methodOffsets = layout.methodOffsets;
+        this.methodAttributeOffsets = layout.methodAttributeOffsets;
+        this.attributeOffsets = layout.attributeOffsets;
+        this.cpOffsets = layout.cpOffsets;
+        strings = new String[cpOffsets.length];
+        literals = new Literal[cpOffsets.length];
+        descriptors = new Descriptor[cpOffsets.length];
+        // read globally-relevant attributes
+        String sourceFile = null;
+        int cnt = getAttributeCount();
+        int[] bootstrapMethodOffsets = NO_INTS;
+        for (int i = 0; i < cnt; i ++) {
+            if (attributeNameEquals(i, "SourceFile")) {
+                sourceFile = getUtf8Constant(getRawAttributeShort(i, 0));
+            } else if (attributeNameEquals(i, "BootstrapMethods")) {
+                int pos = attributeOffsets[i] + 8;
+                int bmCnt = getShort(pos - 2);
+                bootstrapMethodOffsets = new int[bmCnt];
+                for (int j = 0; j < bmCnt; j ++) {
+                    bootstrapMethodOffsets[j] = pos;
+                    pos += (getShort(pos + 2) << 1) + 4;
+                }
+            }
+        }
+        this.bootstrapMethodOffsets = bootstrapMethodOffsets;
+        this.sourceFile = sourceFile;
+    }
+
+    /**
+     * Scan the class file to build up its offset tables.
+     *
+     * @param scanBuf the buffer, positioned just after the constant pool count
+     * @param cpCount the constant pool count
+     * @return the class file layout
+     */
+    private static ClassFileLayout scan(final ByteBuffer scanBuf, final int cpCount) {
         // one extra slot because the constant pool is one-based, so just leave a hole at the beginning
         int[] cpOffsets = new int[cpCount];
         for (int i = 1; i < cpCount; i ++) {
@@ -212,36 +260,11 @@ final class ClassFileImpl extends AbstractBufferBacked implements ClassFile, Enc
         if (scanBuf.hasRemaining()) {
             throw new DefineFailedException("Extra data at end of class file");
         }
+        return new ClassFileLayout(cpOffsets, interfacesOffset, fieldOffsets, fieldAttributeOffsets, methodOffsets, methodAttributeOffsets, attributeOffsets);
+    }
 
-        this.interfacesOffset = interfacesOffset;
-        this.fieldOffsets = fieldOffsets;
-        this.fieldAttributeOffsets = fieldAttributeOffsets;
-        this.methodOffsets = methodOffsets;
-        this.methodAttributeOffsets = methodAttributeOffsets;
-        this.attributeOffsets = attributeOffsets;
-        this.cpOffsets = cpOffsets;
-        strings = new String[cpOffsets.length];
-        literals = new Literal[cpOffsets.length];
-        descriptors = new Descriptor[cpOffsets.length];
-        // read globally-relevant attributes
-        String sourceFile = null;
-        int cnt = getAttributeCount();
-        int[] bootstrapMethodOffsets = NO_INTS;
-        for (int i = 0; i < cnt; i ++) {
-            if (attributeNameEquals(i, "SourceFile")) {
-                sourceFile = getUtf8Constant(getRawAttributeShort(i, 0));
-            } else if (attributeNameEquals(i, "BootstrapMethods")) {
-                int pos = attributeOffsets[i] + 8;
-                int bmCnt = getShort(pos - 2);
-                bootstrapMethodOffsets = new int[bmCnt];
-                for (int j = 0; j < bmCnt; j ++) {
-                    bootstrapMethodOffsets[j] = pos;
-                    pos += (getShort(pos + 2) << 1) + 4;
-                }
-            }
-        }
-        this.bootstrapMethodOffsets = bootstrapMethodOffsets;
-        this.sourceFile = sourceFile;
+    public ClassFileLayout getLayout() {
+        return new ClassFileLayout(cpOffsets, interfacesOffset, fieldOffsets, fieldAttributeOffsets, methodOffsets, methodAttributeOffsets, attributeOffsets);
     }
 
     public ClassFile getClassFile() {
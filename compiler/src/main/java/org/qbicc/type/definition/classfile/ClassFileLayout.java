@@ -0,0 +1,104 @@
+package org.qbicc.type.definition.classfile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The structural layout of a class file: the offsets of its constant pool entries, fields, methods, and attributes.
+ * Computing the layout requires a full scan of the class file, so a layout may be saved and reused to define
+ * the same class file again without scanning it.
+ * <p>
+ * A layout is only valid for the exact class file bytes that it was computed from.
+ */
+public final class ClassFileLayout {
+    private static final int[] NO_INTS = new int[0];
+
+    final int[] cpOffsets;
+    final int interfacesOffset;
+    final int[] fieldOffsets;
+    final int[][] fieldAttributeOffsets;
+    final int[] methodOffsets;
+    final int[][] methodAttributeOffsets;
+    final int[] attributeOffsets;
+
+    ClassFileLayout(final int[] cpOffsets, final int interfacesOffset, final int[] fieldOffsets, final int[][] fieldAttributeOffsets, final int[] methodOffsets, final int[][] methodAttributeOffsets, final int[] attributeOffsets) {
+        this.cpOffsets = cpOffsets;
+        this.interfacesOffset = interfacesOffset;
+        this.fieldOffsets = fieldOffsets;
+        this.fieldAttributeOffsets = fieldAttributeOffsets;
+        this.methodOffsets = methodOffsets;
+        this.methodAttributeOffsets = methodAttributeOffsets;
+        this.attributeOffsets = attributeOffsets;
+    }
+
+    /**
+     * Write this layout to the given output.
+     *
+     * @param output the output (must not be {@code null})
+     * @throws IOException if writing failed
+     */
+    public void writeTo(DataOutput output) throws IOException {
+        writeInts(output, cpOffsets);
+        output.writeInt(interfacesOffset);
+        writeMembers(output, fieldOffsets, fieldAttributeOffsets);
+        writeMembers(output, methodOffsets, methodAttributeOffsets);
+        writeInts(output, attributeOffsets);
+    }
+
+    /**
+     * Read a layout which was previously written with {@link #writeTo(DataOutput)}.
+     *
+     * @param input the input (must not be {@code null})
+     * @return the layout (not {@code null})
+     * @throws IOException if reading failed
+     */
+    public static ClassFileLayout readFrom(DataInput input) throws IOException {
+        int[] cpOffsets = readInts(input);
+        int interfacesOffset = input.readInt();
+        int fieldsCnt = input.readInt();
+        int[] fieldOffsets = new int[fieldsCnt];
+        int[][] fieldAttributeOffsets = new int[fieldsCnt][];
+        readMembers(input, fieldOffsets, fieldAttributeOffsets);
+        int methodsCnt = input.readInt();
+        int[] methodOffsets = new int[methodsCnt];
+        int[][] methodAttributeOffsets = new int[methodsCnt][];
+        readMembers(input, methodOffsets, methodAttributeOffsets);
+        int[] attributeOffsets = readInts(input);
+        return new ClassFileLayout(cpOffsets, interfacesOffset, fieldOffsets, fieldAttributeOffsets, methodOffsets, methodAttributeOffsets, attributeOffsets);
+    }
+
+    private static void writeMembers(DataOutput output, int[] offsets, int[][] attributeOffsets) throws IOException {
+        output.writeInt(offsets.length);
+        for (int i = 0; i < offsets.length; i ++) {
+            output.writeInt(offsets[i]);
+            writeInts(output, attributeOffsets[i]);
+        }
+    }
+
+    private static void readMembers(DataInput input, int[] offsets, int[][] attributeOffsets) throws IOException {
+        for (int i = 0; i < offsets.length; i ++) {
+            offsets[i] = input.readInt();
+            attributeOffsets[i] = readInts(input);
+        }
+    }
+
+    private static void writeInts(DataOutput output, int[] ints) throws IOException {
+        output.writeInt(ints.length);
+        for (int val : ints) {
+            output.writeInt(val);
+        }
+    }
+
+    private static int[] readInts(DataInput input) throws IOException {
+        int cnt = input.readInt();
+        if (cnt == 0) {
+            return NO_INTS;
+        }
+        int[] ints = new int[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            ints[i] = input.readInt();
+        }
+        return ints;
+    }
+}
@@ -25,6 +25,12 @@ public interface ExecutableElement extends MemberElement {
      */
     boolean hasMethodBody();
 
+    /**
+     * Get the body which was most recently superseded by {@link #replaceMethodBody(MethodBody)}, if any.  The schedule
+     * of a superseded body is not retained.
+     *
+     * @return the previous body, or {@code null} if there is none or it was released
+     */
     MethodBody getPreviousMethodBody();
 
     /**
@@ -45,6 +51,12 @@ public interface ExecutableElement extends MemberElement {
 
     void replaceMethodBody(MethodBody replacement);
 
+    /**
+     * Release the previous method body, so that its graph can be reclaimed once nothing else refers to it.
+     * This should be called as soon as the previous body is no longer needed by any later stage.
+     */
+    void releasePreviousMethodBody();
+
     InvokableType getType();
 
     default <T extends InvokableType> T getType(Class<T> expected) {
@@ -91,11 +91,15 @@ public final class InitializerElement extends BasicElement implements Executable
     public void replaceMethodBody(final MethodBody replacement) {
         MethodBody existing = this.methodBody;
         if (existing != null) {
-            previousMethodBody = existing;
+            previousMethodBody = existing.withoutSchedule();
         }
         this.methodBody = replacement;
     }
 
+    public void releasePreviousMethodBody() {
+        previousMethodBody = null;
+    }
+
     public StaticMethodType getType() {
         ClassContext classContext = getEnclosingType().getContext();
         TypeSystem ts = classContext.getTypeSystem();
@@ -156,11 +156,15 @@ public abstract class InvokableElement extends AnnotatedElement implements Execu
     public void replaceMethodBody(final MethodBody replacement) {
         MethodBody existing = this.methodBody;
         if (existing != null) {
-            previousMethodBody = existing;
+            previousMethodBody = existing.withoutSchedule();
         }
         this.methodBody = replacement;
     }
 
+    public void releasePreviousMethodBody() {
+        previousMethodBody = null;
+    }
+
     public MethodDescriptor getDescriptor() {
         return descriptor;
     }
@@ -24,7 +24,7 @@ public final class ArrayTypeDescriptor extends TypeDescriptor {
     }
 
     public boolean equals(final ArrayTypeDescriptor other) {
-        return super.equals(other) && elementTypeDescriptor.equals(other.elementTypeDescriptor);
+        return this == other || super.equals(other) && elementTypeDescriptor.equals(other.elementTypeDescriptor);
     }
 
     public StringBuilder toString(final StringBuilder target) {
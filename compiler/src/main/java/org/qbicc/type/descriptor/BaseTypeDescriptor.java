@@ -48,7 +48,7 @@ public final class BaseTypeDescriptor extends TypeDescriptor {
     }
 
     public boolean equals(final BaseTypeDescriptor other) {
-        return super.equals(other) && shortName == other.shortName && fullName.equals(other.fullName);
+        return this == other || super.equals(other) && shortName == other.shortName && fullName.equals(other.fullName);
     }
 
     public StringBuilder toString(final StringBuilder target) {
@@ -1,5 +1,6 @@
 package org.qbicc.type.descriptor;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -17,8 +18,14 @@ final class Cache {
     private final Map<String, Map<String, ClassTypeDescriptor>> classTypes = new ConcurrentHashMap<>();
     private final Map<TypeDescriptor, ArrayTypeDescriptor> arrayTypes = new ConcurrentHashMap<>();
     private final Map<TypeDescriptor, Map<List<TypeDescriptor>, MethodDescriptor>> methods = new ConcurrentHashMap<>();
+    // keyed by the raw bytes of the descriptor so that repeated parses neither decode nor allocate
+    private final Map<ByteBuffer, Descriptor> descriptorsByBytes = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, TypeDescriptor> classConstantsByBytes = new ConcurrentHashMap<>();
 
-    private Cache() {}
+    private Cache() {
+        // the constant must be the canonical instance
+        methods.computeIfAbsent(BaseTypeDescriptor.V, Cache::newMap).put(List.of(), MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+    }
 
     static Cache get(ClassContext classContext) {
         return get(classContext.getCompilationContext());
@@ -44,6 +51,28 @@ final class Cache {
             .computeIfAbsent(parameterTypes, p -> new MethodDescriptor(p, returnType));
     }
 
+    Descriptor getParsedDescriptor(final ByteBuffer bytes) {
+        return descriptorsByBytes.get(bytes);
+    }
+
+    void putParsedDescriptor(final ByteBuffer bytes, final Descriptor descriptor) {
+        descriptorsByBytes.putIfAbsent(copyOf(bytes), descriptor);
+    }
+
+    TypeDescriptor getParsedClassConstant(final ByteBuffer bytes) {
+        return classConstantsByBytes.get(bytes);
+    }
+
+    void putParsedClassConstant(final ByteBuffer bytes, final TypeDescriptor descriptor) {
+        classConstantsByBytes.putIfAbsent(copyOf(bytes), descriptor);
+    }
+
+    private static ByteBuffer copyOf(final ByteBuffer bytes) {
+        byte[] array = new byte[bytes.remaining()];
+        bytes.duplicate().get(array);
+        return ByteBuffer.wrap(array);
+    }
+
     private static <K, V> Map<K, V> newMap(final Object key) {
         return new ConcurrentHashMap<>();
     }
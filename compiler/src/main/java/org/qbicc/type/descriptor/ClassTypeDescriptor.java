@@ -35,7 +35,7 @@ public final class ClassTypeDescriptor extends TypeDescriptor {
     }
 
     public boolean equals(final ClassTypeDescriptor other) {
-        return super.equals(other) && packageName.equals(other.packageName) && className.equals(other.className);
+        return this == other || super.equals(other) && packageName.equals(other.packageName) && className.equals(other.className);
     }
 
     public StringBuilder toString(final StringBuilder target) {
@@ -31,13 +31,32 @@ public abstract class Descriptor {
         return hashCode;
     }
 
+    /**
+     * Parse a descriptor.  If the buffer holds exactly one descriptor, the result is remembered by its bytes, so
+     * parsing the same bytes again returns the canonical descriptor without decoding them.
+     *
+     * @param classContext the class context (must not be {@code null})
+     * @param buf the buffer holding the descriptor (must not be {@code null})
+     * @return the descriptor (not {@code null})
+     */
     public static Descriptor parse(final ClassContext classContext, final ByteBuffer buf) {
+        Cache cache = Cache.get(classContext);
+        Descriptor descriptor = cache.getParsedDescriptor(buf);
+        if (descriptor != null) {
+            buf.position(buf.limit());
+            return descriptor;
+        }
+        ByteBuffer start = buf.duplicate();
         int i = peek(buf);
         if (i == '(') {
-            return MethodDescriptor.parse(classContext, buf);
+            descriptor = MethodDescriptor.parse(classContext, buf);
         } else {
-            return TypeDescriptor.parse(classContext, buf);
+            descriptor = TypeDescriptor.parse(classContext, buf);
+        }
+        if (! buf.hasRemaining()) {
+            cache.putParsedDescriptor(start, descriptor);
         }
+        return descriptor;
     }
 
     static int next(ByteBuffer buf) {
@@ -34,7 +34,8 @@ public final class MethodDescriptor extends Descriptor {
     }
 
     public boolean equals(final MethodDescriptor other) {
-        return super.equals(other) && returnType.equals(other.returnType) && parameterTypes.equals(other.parameterTypes);
+        // descriptors are canonical within a compilation, so this is almost always decided by identity
+        return this == other || super.equals(other) && returnType.equals(other.returnType) && parameterTypes.equals(other.parameterTypes);
     }
 
     public StringBuilder toString(final StringBuilder target) {
@@ -29,15 +29,26 @@ public abstract class TypeDescriptor extends Descriptor {
     }
 
     public static TypeDescriptor parseClassConstant(final ClassContext classContext, final ByteBuffer buf) {
+        Cache cache = Cache.get(classContext);
+        TypeDescriptor descriptor = cache.getParsedClassConstant(buf);
+        if (descriptor != null) {
+            buf.position(buf.limit());
+            return descriptor;
+        }
+        ByteBuffer start = buf.duplicate();
         int i = peek(buf);
         if (i == '[') {
             // regular array type
-            return ArrayTypeDescriptor.parse(classContext, buf);
+            descriptor = ArrayTypeDescriptor.parse(classContext, buf);
         } else if (buf.remaining() == 1) {
-            return BaseTypeDescriptor.parse(buf);
+            descriptor = BaseTypeDescriptor.parse(buf);
         } else {
-            return ClassTypeDescriptor.parseClassConstant(classContext, buf);
+            descriptor = ClassTypeDescriptor.parseClassConstant(classContext, buf);
+        }
+        if (! buf.hasRemaining()) {
+            cache.putParsedClassConstant(start, descriptor);
         }
+        return descriptor;
     }
 
     public static TypeDescriptor parse(final ClassContext classContext, final ByteBuffer buf) {
@@ -0,0 +1,139 @@
+package org.qbicc.graph.schedule;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.ClassContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+import org.qbicc.type.generic.TestClassContext;
+
+/**
+ * Tests for the placement of floating values by the global code motion pass of the scheduler.
+ */
+public class GlobalCodeMotionTest {
+    private final ClassContext classContext = new TestClassContext();
+    private final TypeSystem ts = TypeSystem.builder().build();
+    private final LiteralFactory lf = LiteralFactory.create(ts);
+    private final SignedIntegerType s32 = ts.getSignedInteger32Type();
+    private MethodElement element;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(classContext);
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(classContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(classContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        final DefinedTypeDefinition enclosingType = typeBuilder.build();
+        final MethodElement.Builder builder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        element = builder.build();
+    }
+
+    @Test
+    public void testHoistOutOfLoop() {
+        BasicBlockBuilder bbb = newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32, "p", 0);
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        // entry: goto header
+        BasicBlock entry = bbb.goto_(header);
+        // header: i = phi(0, i + x); if (i < p) goto body else goto exit
+        bbb.begin(header);
+        PhiValue i = bbb.phi(s32, header);
+        bbb.if_(bbb.isLt(i, p), body, exit);
+        // body: x = p * 3 is only used in the loop body, but does not depend on the loop
+        bbb.begin(body);
+        Value x = bbb.multiply(p, lf.literalOf(s32, 3));
+        Value next = bbb.add(i, x);
+        BasicBlock bodyBlock = bbb.goto_(header);
+        bbb.begin(exit);
+        bbb.return_(i);
+        bbb.finish();
+        i.setValueForBlock(classContext.getCompilationContext(), element, entry, lf.literalOf(s32, 0));
+        i.setValueForBlock(classContext.getCompilationContext(), element, bodyBlock, next);
+
+        Schedule schedule = Schedule.forMethod(entry);
+        assertSame(entry, schedule.getBlockForNode(x));
+        // the sum depends on the loop, so it stays at its use
+        assertSame(bodyBlock, schedule.getBlockForNode(next));
+    }
+
+    @Test
+    public void testSinkIntoBranch() {
+        BasicBlockBuilder bbb = newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32, "p", 0);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        // x is built in the entry block, but only used on one branch
+        Value x = bbb.multiply(p, lf.literalOf(s32, 3));
+        BasicBlock entry = bbb.if_(bbb.isLt(p, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        bbb.begin(trueLabel);
+        BasicBlock trueBlock = bbb.return_(x);
+        bbb.begin(falseLabel);
+        bbb.return_(p);
+        bbb.finish();
+
+        Schedule schedule = Schedule.forMethod(entry);
+        assertSame(trueBlock, schedule.getBlockForNode(x));
+    }
+
+    @Test
+    public void testPinnedNodeStays() {
+        BasicBlockBuilder bbb = newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32, "p", 0);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        BasicBlock entry = bbb.if_(bbb.isLt(p, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        bbb.begin(trueLabel);
+        BasicBlock trueBlock = bbb.goto_(merge);
+        bbb.begin(falseLabel);
+        BasicBlock falseBlock = bbb.goto_(merge);
+        bbb.begin(merge);
+        PhiValue phi = bbb.phi(s32, merge);
+        // the sum is only used on the true branch, so it sinks to the end of that branch
+        Value sum = bbb.add(p, lf.literalOf(s32, 1));
+        BasicBlock mergeBlock = bbb.return_(phi);
+        bbb.finish();
+        phi.setValueForBlock(classContext.getCompilationContext(), element, trueBlock, sum);
+        phi.setValueForBlock(classContext.getCompilationContext(), element, falseBlock, p);
+
+        Schedule schedule = Schedule.forMethod(entry);
+        assertSame(mergeBlock, schedule.getBlockForNode(phi));
+        assertTrue(schedule.getNodesForBlock(mergeBlock).contains(phi));
+        assertSame(trueBlock, schedule.getBlockForNode(sum));
+    }
+
+    private BasicBlockBuilder newBlockBuilder() {
+        BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+}
@@ -3,9 +3,12 @@ package org.qbicc.type.generic;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -197,6 +200,13 @@ public class TestClassContext implements ClassContext {
         public void runParallelTask(Consumer<CompilationContext> task) throws IllegalStateException {
         }
 
+        public <R> CompletableFuture<R> submitTask(java.util.function.Function<CompilationContext, R> task) throws IllegalStateException {
+            return CompletableFuture.completedFuture(task.apply(this));
+        }
+
+        public void joinTasks(Collection<? extends Future<?>> tasks) {
+        }
+
         public BiFunction<CompilationContext, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>> getCopier() {
             return null;
         }
@@ -0,0 +1,128 @@
+package org.qbicc.driver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.logging.Logger;
+import org.qbicc.type.definition.classfile.ClassFileLayout;
+
+/**
+ * A persistent cache of the layouts of the class files of a single class library artifact. The cache file name
+ * is derived from a hash of the artifact, so a changed artifact never sees stale layouts. Each layout is also keyed
+ * by the CRC which the artifact records for its class file; the CRC is already checked when the class file is read,
+ * so the class bytes are never hashed again here.
+ */
+final class ClassFileLayoutCache {
+    private static final Logger log = Logger.getLogger("org.qbicc.driver.cache");
+    private static final int MAGIC = 0x71636c66;
+    private static final int VERSION = 3;
+
+    private final Path cacheFile;
+    private final Map<String, Entry> layouts;
+    private volatile boolean dirty;
+
+    private ClassFileLayoutCache(final Path cacheFile, final Map<String, Entry> layouts) {
+        this.cacheFile = cacheFile;
+        this.layouts = layouts;
+    }
+
+    /**
+     * Open the cache file for an artifact, loading any layouts that it already holds. Failures are ignored
+     * because the cache is only an optimization.
+     *
+     * @param cacheDirectory the cache directory (must not be {@code null})
+     * @param key the artifact hash (must not be {@code null})
+     * @return the cache (not {@code null})
+     */
+    static ClassFileLayoutCache open(Path cacheDirectory, String key) {
+        Path cacheFile = cacheDirectory.resolve(key + ".layouts");
+        Map<String, Entry> layouts = new ConcurrentHashMap<>();
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (is.readInt() == MAGIC && is.readInt() == VERSION) {
+                int cnt = is.readInt();
+                for (int i = 0; i < cnt; i ++) {
+                    String name = is.readUTF();
+                    long crc = is.readLong();
+                    layouts.put(name, new Entry(crc, ClassFileLayout.readFrom(is)));
+                }
+                log.debugf("Loaded %d class file layouts from %s", Integer.valueOf(cnt), cacheFile);
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            log.debugf(e, "Failed to load class file layouts from %s", cacheFile);
+            layouts.clear();
+        }
+        return new ClassFileLayoutCache(cacheFile, layouts);
+    }
+
+    /**
+     * Get the cached layout of a class file.
+     *
+     * @param name the class file name (must not be {@code null})
+     * @param crc the CRC of the class file
+     * @return the layout, or {@code null} if there is none for a class file with this CRC
+     */
+    ClassFileLayout get(String name, long crc) {
+        Entry entry = layouts.get(name);
+        return entry == null || entry.crc() != crc ? null : entry.layout();
+    }
+
+    /**
+     * Cache the layout of a class file, replacing any layout which was computed from a class file with another CRC.
+     *
+     * @param name the class file name (must not be {@code null})
+     * @param crc the CRC of the class file
+     * @param layout the layout computed from the class file bytes (must not be {@code null})
+     */
+    void put(String name, long crc, ClassFileLayout layout) {
+        Entry existing = layouts.put(name, new Entry(crc, layout));
+        if (existing == null || existing.crc() != crc) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the cache file if any layouts were added since it was loaded.
+     */
+    void save() {
+        if (! dirty) {
+            return;
+        }
+        dirty = false;
+        // write to a unique temporary file first so that concurrent builds never see a partial cache file
+        Path tmpFile = cacheFile.resolveSibling(cacheFile.getFileName() + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ".tmp");
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                Map<String, Entry> snapshot = Map.copyOf(layouts);
+                os.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                    os.writeUTF(entry.getKey());
+                    os.writeLong(entry.getValue().crc());
+                    entry.getValue().layout().writeTo(os);
+                }
+            }
+            Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debugf(e, "Failed to store class file layouts in %s", cacheFile);
+            try {
+                Files.deleteIfExists(tmpFile);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    record Entry(long crc, ClassFileLayout layout) {}
+}
@@ -9,12 +9,14 @@ import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.function.Consumer;
 import java.util.jar.JarFile;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.machine.vfs.VirtualFileSystem;
 import org.qbicc.machine.vfs.VirtualPath;
 import org.qbicc.type.definition.ByteBufferInputStream;
+import org.qbicc.type.definition.classfile.ClassFileLayout;
 
 /**
  * A class path element that the driver can consume.  Class path elements must be closed.
@@ -40,6 +42,23 @@ public abstract class ClassPathElement implements Closeable {
      */
     public abstract Resource getResource(String name) throws IOException;
 
+    /**
+     * Pass the name of every resource in this element to the given action.  Directories are not included.
+     *
+     * @param action the action (must not be {@code null})
+     * @throws IOException if reading the element failed
+     */
+    abstract void forEachResourceName(Consumer<String> action) throws IOException;
+
+    /**
+     * Enable the persistent caching of class file layouts for this element, if this element is an immutable
+     * artifact.  The default implementation does nothing.
+     *
+     * @param cacheDirectory the cache directory (must not be {@code null})
+     */
+    void enableClassFileLayoutCache(Path cacheDirectory) {
+    }
+
     /**
      * Mount this class path element onto the virtual file system at the given point.
      * The individual files will be mounted in, replacing any files that exist at the same locations.
@@ -69,7 +88,7 @@ public abstract class ClassPathElement implements Closeable {
      */
     public static ClassPathElement forJarFile(Path path) throws IOException {
         Assert.checkNotNullParam("path", path);
-        return new JarFileClassPathElement(new JarFile(path.toFile()));
+        return new JarFileClassPathElement(path, new JarFile(path.toFile()));
     }
 
     /**
@@ -105,6 +124,23 @@ public abstract class ClassPathElement implements Closeable {
         public final BufferedReader openBufferedReader() throws IOException {
             return new BufferedReader(new InputStreamReader(openStream(), StandardCharsets.UTF_8));
         }
+
+        /**
+         * Get the cached layout of this class file resource.
+         *
+         * @return the cached layout, or {@code null} if there is none for the content of this resource
+         */
+        ClassFileLayout getClassFileLayout() {
+            return null;
+        }
+
+        /**
+         * Cache the layout of this class file resource.  The default implementation does nothing.
+         *
+         * @param layout the layout computed from the content of this resource (must not be {@code null})
+         */
+        void putClassFileLayout(ClassFileLayout layout) {
+        }
     }
 
     /**
@@ -0,0 +1,88 @@
+package org.qbicc.driver;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+
+/**
+ * An index of the resources of a class path, which maps each resource name to the first class path item that contains
+ * it. The index is built once, on first use, so that each lookup is a single hash probe rather than a probe of every
+ * item in turn.
+ */
+final class ClassPathIndex {
+    private static final Logger log = Logger.getLogger("org.qbicc.driver");
+    // marks a class path which could not be indexed and must be searched item by item
+    private static final Map<String, ClassPathItem> UNINDEXED = new HashMap<>();
+
+    private final List<ClassPathItem> items;
+    private volatile Map<String, ClassPathItem> index;
+
+    ClassPathIndex(final List<ClassPathItem> items) {
+        this.items = items;
+    }
+
+    List<ClassPathItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Get the names of all of the resources on this class path.
+     *
+     * @return the resource names, or an empty set if the class path could not be indexed (not {@code null})
+     */
+    Set<String> getResourceNames() {
+        Map<String, ClassPathItem> index = getIndex();
+        return index == UNINDEXED ? Set.of() : index.keySet();
+    }
+
+    /**
+     * Find a resource on this class path.
+     *
+     * @param name the resource name (must not be {@code null})
+     * @return the resource or {@link ClassPathElement#NON_EXISTENT} if no resource is found (not {@code null})
+     * @throws IOException if an error occurs while loading the resource
+     */
+    ClassPathElement.Resource findResource(String name) throws IOException {
+        Map<String, ClassPathItem> index = getIndex();
+        if (index != UNINDEXED) {
+            ClassPathItem item = index.get(name);
+            return item == null ? ClassPathElement.NON_EXISTENT : item.findResource(name);
+        }
+        for (ClassPathItem item : items) {
+            ClassPathElement.Resource resource = item.findResource(name);
+            if (resource != ClassPathElement.NON_EXISTENT) {
+                return resource;
+            }
+        }
+        return ClassPathElement.NON_EXISTENT;
+    }
+
+    private Map<String, ClassPathItem> getIndex() {
+        Map<String, ClassPathItem> index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = new HashMap<>();
+                    try {
+                        for (ClassPathItem item : items) {
+                            for (ClassPathElement classRoot : item.classRoots()) {
+                                Map<String, ClassPathItem> finalIndex = index;
+                                classRoot.forEachResourceName(name -> finalIndex.putIfAbsent(name, item));
+                            }
+                        }
+                    } catch (IOException e) {
+                        log.debugf(e, "Failed to index the class path; falling back to searching each item");
+                        index = UNINDEXED;
+                    }
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,122 @@
+package org.qbicc.driver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.ClassContext;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+
+/**
+ * A stage which eagerly defines the bootstrap classes of selected packages on every compiler thread before the
+ * {@code ADD} phase starts.
+ * <p>
+ * Classes are only defined, which reads and parses their class files. They are not loaded, because loading resolves
+ * members, which has side effects such as injecting fields and reporting errors; that still happens in the usual
+ * order during {@code ADD}, and only for the classes which are actually used. A class which cannot be defined is
+ * logged at debug level and skipped without recording its absence, so that the problem is reported as usual if and
+ * when the class is actually used, and never for a class which was only preloaded.
+ */
+final class ClassPreloader {
+    private static final Logger log = Logger.getLogger("org.qbicc.driver.preload");
+
+    private final ClassContext classContext;
+    private final ClassPathIndex classPath;
+    private final List<String> packagePrefixes;
+    private final Definer definer;
+    private final Consumer<Runnable> parallelRunner;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param classContext the bootstrap class context (must not be {@code null})
+     * @param classPath the bootstrap class path (must not be {@code null})
+     * @param packages the names of the packages to load, in internal form; each includes its subpackages, and
+     *      {@code *} selects every package
+     * @param definer the definer which defines a class from the class path without reporting problems (must not be
+     *      {@code null})
+     * @param parallelRunner the runner which runs a task once on each compiler thread and waits for every copy (must
+     *      not be {@code null})
+     */
+    ClassPreloader(final ClassContext classContext, final ClassPathIndex classPath, final List<String> packages, final Definer definer, final Consumer<Runnable> parallelRunner) {
+        this.classContext = classContext;
+        this.classPath = classPath;
+        List<String> packagePrefixes = new ArrayList<>(packages.size());
+        for (String pkg : packages) {
+            packagePrefixes.add(pkg.equals("*") ? "" : pkg.endsWith("/") ? pkg : pkg + "/");
+        }
+        this.packagePrefixes = packagePrefixes;
+        this.definer = definer;
+        this.parallelRunner = parallelRunner;
+    }
+
+    /**
+     * Define the selected classes.
+     *
+     * @return the number of classes which were defined
+     */
+    int run() {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<>();
+        for (String resourceName : classPath.getResourceNames()) {
+            if (resourceName.endsWith(".class") && ! resourceName.startsWith("META-INF/") && isSelected(resourceName)) {
+                String name = resourceName.substring(0, resourceName.length() - 6);
+                // skip module-info, package-info, and the like
+                if (name.indexOf('-') == -1) {
+                    names.add(name);
+                }
+            }
+        }
+        AtomicInteger defined = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        forEachInParallel(names, name -> {
+            try {
+                if (definer.define(classContext, name) != null) {
+                    defined.getAndIncrement();
+                }
+            } catch (Exception e) {
+                log.debugf(e, "Failed to preload class \"%s\"", name);
+                failed.getAndIncrement();
+            }
+        });
+        log.debugf("Preloaded %d of %d classes (%d failed) in %d ms", Integer.valueOf(defined.get()), Integer.valueOf(names.size()),
+            Integer.valueOf(failed.get()), Long.valueOf((System.nanoTime() - start) / 1_000_000L));
+        return defined.get();
+    }
+
+    private boolean isSelected(String resourceName) {
+        for (String prefix : packagePrefixes) {
+            if (resourceName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> void forEachInParallel(List<T> items, Consumer<T> action) {
+        AtomicInteger next = new AtomicInteger();
+        parallelRunner.accept(() -> {
+            int idx;
+            while ((idx = next.getAndIncrement()) < items.size()) {
+                action.accept(items.get(idx));
+            }
+        });
+    }
+
+    /**
+     * A definer of classes from the class path.
+     */
+    interface Definer {
+        /**
+         * Define a class in the given class context, without reporting any problem.
+         *
+         * @param classContext the class context (must not be {@code null})
+         * @param name the internal name of the class (must not be {@code null})
+         * @return the definition, or {@code null} if there is no class file for the class
+         * @throws Exception if the class could not be defined
+         */
+        DefinedTypeDefinition define(ClassContext classContext, String name) throws Exception;
+    }
+}
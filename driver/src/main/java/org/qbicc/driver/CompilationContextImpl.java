@@ -2,11 +2,14 @@ package org.qbicc.driver;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
@@ -72,7 +75,7 @@ final class CompilationContextImpl implements CompilationContext {
     private final ConcurrentMap<VmClassLoader, ClassContext> classLoaderContexts = new ConcurrentHashMap<>();
     volatile Set<ExecutableElement> allowedSet = null;
     final Set<ExecutableElement> queued = ConcurrentHashMap.newKeySet();
-    final Queue<ExecutableElement> queue = new ArrayDeque<>();
+    final ElementQueue queue = new ElementQueue();
     final Set<ExecutableElement> entryPoints = ConcurrentHashMap.newKeySet();
     final ClassContext bootstrapClassContext;
     final Function<VmClassLoader, ClassContext> appClassContextFactory;
@@ -287,10 +290,7 @@ final class CompilationContextImpl implements CompilationContext {
             error(element, "Element was unreachable in the previous phase but became reachable in this phase");
         }
         if (queued.add(element)) {
-            synchronized (queue) {
-                queue.add(element);
-                queue.notify();
-            }
+            queue.add(element);
         }
     }
 
@@ -309,9 +309,7 @@ final class CompilationContextImpl implements CompilationContext {
     }
 
     public ExecutableElement dequeue() {
-        synchronized (queue) {
-            return queue.poll();
-        }
+        return queue.poll();
     }
 
     void lockEnqueuedSet() {
@@ -635,143 +633,72 @@ final class CompilationContextImpl implements CompilationContext {
         this.copier = copier;
     }
 
-    private int state;
-    private int activeThreads;
-    private int threadAcks;
-    private Consumer<CompilationContext> task;
+    private final TaskExecutor executor = new TaskExecutor();
     private volatile BiConsumer<Consumer<CompilationContext>, CompilationContext> taskRunner = Consumer::accept;
 
-    private static final int ST_WAITING = 0; // waiting -> task | exit
-    private static final int ST_TASK = 1; // task -> join
-    private static final int ST_JOIN = 2; // join -> waiting
-    private static final int ST_EXIT = 3; // exit -> .
-
-    private final Runnable threadTask = new Runnable() {
-        public void run() {
-            CompilationContextImpl lock = CompilationContextImpl.this;
-            synchronized (lock) {
-                activeThreads ++;
-            }
-            Consumer<CompilationContext> task;
-            boolean needsJoin = false;
-            int state;
-            for (;;) {
-                synchronized (lock) {
-                    inner: for (;;) {
-                        state = CompilationContextImpl.this.state;
-                        switch (state) {
-                            case ST_WAITING: {
-                                try {
-                                    lock.wait();
-                                } catch (InterruptedException ignored) {
-                                    // consume interruption on root task
-                                }
-                                continue inner;
-                            }
-                            case ST_TASK: {
-                                if (needsJoin) {
-                                    try {
-                                        lock.wait();
-                                    } catch (InterruptedException ignored) {
-                                        // consume interruption on root task
-                                    }
-                                    continue inner;
-                                }
-                                needsJoin = true;
-                                // exit lock to run task
-                                task = CompilationContextImpl.this.task;
-                                // acknowledge
-                                if (++ threadAcks == activeThreads) {
-                                    lock.notifyAll();
-                                }
-                                break inner;
-                            }
-                            case ST_JOIN: {
-                                needsJoin = false;
-                                if (++ threadAcks == activeThreads) {
-                                    lock.notifyAll();
-                                }
-                                try {
-                                    lock.wait();
-                                } catch (InterruptedException ignored) {
-                                    // consume interruption on root task
-                                }
-                                continue inner;
-                            }
-                            case ST_EXIT: {
-                                if (--activeThreads == 0) {
-                                    lock.notifyAll();
-                                }
-                                return;
-                            }
-                            default: {
-                                throw Assert.impossibleSwitchCase(state);
-                            }
-                        }
-                    }
-                }
-                assert state == ST_TASK;
-                try {
-                    taskRunner.accept(task, lock);
-                } catch (Throwable t) {
-                    log.error("An exception was thrown from a parallel task", t);
-                    error(t, "A task threw an uncaught exception");
-                }
-            }
-        }
-    };
-
     @Override
     public void setTaskRunner(BiConsumer<Consumer<CompilationContext>, CompilationContext> taskRunner) throws IllegalStateException {
         Assert.checkNotNullParam("taskRunner", taskRunner);
-        synchronized (this) {
-            if (state != ST_WAITING) {
-                throw new IllegalStateException("Invalid thread state");
-            }
-            this.taskRunner = taskRunner;
+        if (executor.isCompilerThread()) {
+            throw new IllegalStateException("Invalid thread state");
         }
+        this.taskRunner = taskRunner;
     }
 
     @Override
     public void runParallelTask(Consumer<CompilationContext> task) throws IllegalStateException {
         Assert.checkNotNullParam("task", task);
-        boolean intr = false;
-        try {
-            synchronized (this) {
-                if (state != ST_WAITING) {
-                    throw new IllegalStateException("Invalid thread state");
-                }
-                // submit task
-                this.task = task;
-                threadAcks = 0;
-                state = ST_TASK;
-                notifyAll();
-                // wait for acks
-                while (threadAcks < activeThreads) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        intr = true;
-                    }
-                }
-                // all threads have ack'd the task, now join
-                threadAcks = 0;
-                state = ST_JOIN;
-                notifyAll();
-                // wait for acks
-                while (threadAcks < activeThreads) {
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        intr = true;
-                    }
-                }
-                threadAcks = 0;
-                state = ST_WAITING;
+        BiConsumer<Consumer<CompilationContext>, CompilationContext> taskRunner = this.taskRunner;
+        executor.broadcast(() -> {
+            try {
+                taskRunner.accept(task, this);
+            } catch (Throwable t) {
+                log.error("An exception was thrown from a parallel task", t);
+                error(t, "A task threw an uncaught exception");
+            }
+        });
+    }
+
+    @Override
+    public <R> CompletableFuture<R> submitTask(Function<CompilationContext, R> task) throws IllegalStateException {
+        Assert.checkNotNullParam("task", task);
+        if (executor.getThreadCount() == 0) {
+            throw new IllegalStateException("Compiler threads are not running");
+        }
+        BiConsumer<Consumer<CompilationContext>, CompilationContext> taskRunner = this.taskRunner;
+        CompletableFuture<R> future = new CompletableFuture<>();
+        executor.submit(() -> {
+            try {
+                taskRunner.accept(ctxt -> future.complete(task.apply(ctxt)), this);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
             }
-        } finally {
-            if (intr) {
-                Thread.currentThread().interrupt();
+            if (! future.isDone()) {
+                // the task runner did not run the task
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void joinTasks(Collection<? extends Future<?>> tasks) {
+        Assert.checkNotNullParam("tasks", tasks);
+        for (Future<?> task : tasks) {
+            executor.await(task);
+            if (task.isCancelled()) {
+                error("A submitted task was cancelled");
+            } else {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    log.error("An exception was thrown from a submitted task", cause);
+                    error(cause, "A task threw an uncaught exception");
+                } catch (InterruptedException e) {
+                    // not possible once the task is done
+                    Thread.currentThread().interrupt();
+                }
             }
         }
     }
@@ -785,98 +712,36 @@ final class CompilationContextImpl implements CompilationContext {
         return copier;
     }
 
-    int waiting;
-
     void processQueue(Consumer<ExecutableElement> consumer) {
-        synchronized (this) {
-            waiting = 0;
-        }
-        runParallelTask(ctxt -> {
-            ExecutableElement element;
-            for (;;) {
-                synchronized (queue) {
-                    element = queue.poll();
-                    if (element == null) {
-                        waiting++;
-                        if (waiting == activeThreads) {
-                            // no elements left! let everyone know
-                            queue.notifyAll();
-                            return;
-                        }
-                        for (;;) {
-                            try {
-                                queue.wait();
-                            } catch (InterruptedException ignored) {
-                                // safe to ignore
-                            }
-                            element = queue.poll();
-                            if (element != null) {
-                                break;
-                            }
-                            if (waiting == activeThreads) {
-                                // awoken from sleep to exit
-                                return;
-                            }
-                        }
-                        waiting--;
-                    }
-                }
-                try {
-                    consumer.accept(element);
-                } catch (Throwable e) {
-                    log.error("An exception was thrown from a queue processing task", e);
-                    error(element, "Exception while processing queue task for element: %s", e);
-                }
-            }
-        });
+        queue.prepare(executor.getThreadCount());
+        runParallelTask(ctxt -> queue.process(consumer, (element, e) -> {
+            log.error("An exception was thrown from a queue processing task", e);
+            error(element, "Exception while processing queue task for element: %s", e);
+        }));
+        ElementQueue.Statistics statistics = queue.getStatistics();
+        log.debugf("Phase %s: processed %d elements on %d threads with %d steals and %d ms total idle time",
+            Phase.getCurrent(this), Long.valueOf(statistics.processed()), Integer.valueOf(statistics.threads()), Long.valueOf(statistics.steals()),
+            Long.valueOf(TimeUnit.NANOSECONDS.toMillis(statistics.idleNanos())));
     }
 
     void startThreads(final int threadCnt, final long stackSize) {
         ThreadGroup threadGroup = new ThreadGroup("qbicc compiler thread group");
         Thread[] threads = new Thread[threadCnt];
         for (int i = 0; i < threadCnt; i ++) {
-            threads[i] = new Thread(threadGroup, threadTask, "qbicc compiler thread " + (i + 1) + "/" + threadCnt, stackSize, false);
+            threads[i] = new Thread(threadGroup, executor::runThread, "qbicc compiler thread " + (i + 1) + "/" + threadCnt, stackSize, false);
         }
         // now start them all
-        for (int i = 0; i < threadCnt; i ++) {
-            try {
-                threads[i].start();
-            } catch (Exception e) {
-                // failed to start thread
-                error("Failed to start a compiler thread: %s", e);
-                exitThreads();
-                return;
-            }
+        try {
+            executor.start(threads);
+        } catch (Exception e) {
+            // failed to start thread
+            error("Failed to start a compiler thread: %s", e);
+            exitThreads();
         }
     }
 
     void exitThreads() {
-        boolean intr = false;
-        try {
-            int state;
-            synchronized (this) {
-                state = this.state;
-                if (state != ST_WAITING) {
-                    throw new IllegalStateException("Unexpected thread state");
-                }
-                this.state = ST_EXIT;
-                notifyAll();
-                for (;;) {
-                    if (activeThreads == 0) {
-                        return;
-                    }
-                    try {
-                        wait();
-                    } catch (InterruptedException e) {
-                        intr = true;
-                    }
-                }
-            }
-        } finally {
-            if (intr) {
-                Thread.currentThread().interrupt();
-            }
-        }
+        executor.exit();
     }
 
     List<BiFunction<? super ClassContext, DefinedTypeDefinition.Builder, DefinedTypeDefinition.Builder>> getTypeBuilderFactories() {
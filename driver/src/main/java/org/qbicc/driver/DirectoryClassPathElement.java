@@ -9,7 +9,11 @@ import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import io.smallrye.common.os.OS;
 import org.qbicc.machine.vfs.VirtualFileSystem;
@@ -31,6 +35,23 @@ final class DirectoryClassPathElement extends ClassPathElement {
         return ! Files.exists(resourcePath) ? NON_EXISTENT : new Resource(FileChannel.open(resourcePath, Set.of(StandardOpenOption.READ)));
     }
 
+    @Override
+    void forEachResourceName(Consumer<String> action) throws IOException {
+        try (Stream<Path> stream = Files.walk(baseDir)) {
+            Iterator<Path> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (Files.isRegularFile(path)) {
+                    StringJoiner joiner = new StringJoiner("/");
+                    for (Path segment : baseDir.relativize(path)) {
+                        joiner.add(segment.toString());
+                    }
+                    action.accept(joiner.toString());
+                }
+            }
+        }
+    }
+
     public void close() {
         // no operation
     }
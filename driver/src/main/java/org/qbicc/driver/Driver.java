@@ -44,6 +44,7 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.ModuleDefinition;
 import org.qbicc.type.definition.NativeMethodConfigurator;
 import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.classfile.ClassFileLayout;
 import org.qbicc.type.definition.element.ExecutableElement;
 
 /**
@@ -89,7 +90,10 @@ public class Driver implements Closeable {
     final Map<String, BootModule> bootModules;
     final List<ClassPathItem> bootClassPath;
     final List<ClassPathItem> appClassPath;
+    final ClassPathIndex bootClassPathIndex;
+    final ClassPathIndex appClassPathIndex;
     final Path outputDir;
+    final List<String> preloadPackages;
     final float threadsPerCpu;
     final long stackSize;
     final Consumer<ClassContext> classContextListener;
@@ -109,6 +113,13 @@ public class Driver implements Closeable {
         Map<String, BootModule> bootModules = new HashMap<>();
 
         this.bootClassPath = List.copyOf(builder.bootClassPath);
+        if (builder.classFileCacheDirectory != null) {
+            for (ClassPathItem item : bootClassPath) {
+                for (ClassPathElement classRoot : item.classRoots()) {
+                    classRoot.enableClassFileLayoutCache(builder.classFileCacheDirectory);
+                }
+            }
+        }
         for (ClassPathItem item : bootClassPath) {
             // open all bootstrap JARs (MR bootstrap JARs not supported)
             try (ClassPathElement.Resource moduleInfo = item.findResource(MODULE_INFO)) {
@@ -129,6 +140,9 @@ public class Driver implements Closeable {
         }
         this.bootModules = bootModules;
         this.appClassPath = List.copyOf(builder.appClassPath);
+        bootClassPathIndex = new ClassPathIndex(bootClassPath);
+        appClassPathIndex = new ClassPathIndex(appClassPath);
+        preloadPackages = List.copyOf(builder.preloadPackages);
 
         // ADD phase
         addTaskWrapperFactories = List.copyOf(builder.taskWrapperFactories.getOrDefault(Phase.ADD, List.of()));
@@ -257,82 +271,94 @@ public class Driver implements Closeable {
     }
 
     private DefinedTypeDefinition defaultFinder(ClassContext classContext, String name) {
-        return findClassDefinition(classContext, name, bootClassPath);
+        return findClassDefinition(classContext, name, bootClassPathIndex);
     }
 
     private byte[] defaultResourceFinder(ClassContext classContext, String name) {
-        return findResource(classContext, name, bootClassPath);
+        return findResource(classContext, name, bootClassPathIndex);
     }
 
     private List<byte[]> defaultResourcesFinder(final ClassContext classContext, final String name) {
-        return findResources(classContext, name, bootClassPath);
+        return findResources(classContext, name, bootClassPathIndex);
     }
 
     private DefinedTypeDefinition appFinder(ClassContext classContext, String name) {
         DefinedTypeDefinition found;
         found = getCompilationContext().getBootstrapClassContext().findDefinedType(name);
         if (found == null) {
-            found = findClassDefinition(classContext, name, appClassPath);
+            found = findClassDefinition(classContext, name, appClassPathIndex);
         }
         return found;
     }
 
     private byte[] appResourceFinder(ClassContext classContext, String name) {
-        return findResource(classContext, name, appClassPath);
+        return findResource(classContext, name, appClassPathIndex);
     }
 
     private List<byte[]> appResourcesFinder(final ClassContext classContext, final String name) {
-        return findResources(classContext, name, appClassPath);
+        return findResources(classContext, name, appClassPathIndex);
+    }
+
+    private DefinedTypeDefinition findClassDefinition(final ClassContext classContext, final String name, final ClassPathIndex classPath) {
+        try {
+            return defineClass(classContext, name, classPath);
+        } catch (Exception e) {
+            log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
+            classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+            return null;
+        }
     }
 
-    private DefinedTypeDefinition findClassDefinition(final ClassContext classContext, final String name, final List<ClassPathItem> classPath) {
+    /**
+     * Define a class from its class file on the given class path, leaving any problem to the caller to report.
+     *
+     * @param classContext the class context to define the class in (must not be {@code null})
+     * @param name the internal name of the class (must not be {@code null})
+     * @param classPath the class path to search (must not be {@code null})
+     * @return the definition, or {@code null} if there is no class file for the class
+     * @throws Exception if the class file could not be read, parsed, or defined
+     */
+    private static DefinedTypeDefinition defineClass(final ClassContext classContext, final String name, final ClassPathIndex classPath) throws Exception {
         String fileName = name + ".class";
-        ByteBuffer buffer;
-        for (ClassPathItem item : classPath) {
-            try (ClassPathElement.Resource resource = item.findResource(fileName)) {
-                if (resource == ClassPathElement.NON_EXISTENT) {
-                    continue;
-                }
-                buffer = resource.getBuffer();
-                ClassFile classFile = ClassFile.of(classContext, buffer);
-                DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
-                classFile.accept(builder);
-                DefinedTypeDefinition def = builder.build();
-                classContext.defineClass(name, def);
-                return def;
-            } catch (Exception e) {
-                log.warnf(e, "An exception was thrown while loading class \"%s\" from the bootstrap loader", name);
-                classContext.getCompilationContext().warning("Failed to load class \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+        try (ClassPathElement.Resource resource = classPath.findResource(fileName)) {
+            if (resource == ClassPathElement.NON_EXISTENT) {
                 return null;
             }
+            ByteBuffer buffer = resource.getBuffer();
+            ClassFileLayout layout = resource.getClassFileLayout();
+            ClassFile classFile = ClassFile.of(classContext, buffer, layout);
+            if (layout == null) {
+                resource.putClassFileLayout(classFile.getLayout());
+            }
+            DefinedTypeDefinition.Builder builder = classContext.newTypeBuilder();
+            classFile.accept(builder);
+            DefinedTypeDefinition def = builder.build();
+            classContext.defineClass(name, def);
+            return def;
         }
-        return null;
     }
 
-    private byte[] findResource(final ClassContext classContext, final String name, final List<ClassPathItem> classPath) {
+    private byte[] findResource(final ClassContext classContext, final String name, final ClassPathIndex classPath) {
         ByteBuffer buffer;
-        for (ClassPathItem item : classPath) {
-            try (ClassPathElement.Resource resource = item.findResource(name)) {
-                if (resource == ClassPathElement.NON_EXISTENT) {
-                    continue;
-                }
-                buffer = resource.getBuffer();
-                byte[] bytes = new byte[buffer.remaining()];
-                buffer.get(bytes);
-                return bytes;
-            } catch (Exception e) {
-                log.warnf(e, "An exception was thrown while loading resource \"%s\" from the bootstrap loader", name);
-                classContext.getCompilationContext().warning("Failed to load resource \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+        try (ClassPathElement.Resource resource = classPath.findResource(name)) {
+            if (resource == ClassPathElement.NON_EXISTENT) {
                 return null;
             }
+            buffer = resource.getBuffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        } catch (Exception e) {
+            log.warnf(e, "An exception was thrown while loading resource \"%s\" from the bootstrap loader", name);
+            classContext.getCompilationContext().warning("Failed to load resource \"%s\" from the bootstrap loader due to an exception: %s", name, e);
+            return null;
         }
-        return null;
     }
 
-    private List<byte[]> findResources(final ClassContext classContext, final String name, final List<ClassPathItem> classPath) {
+    private List<byte[]> findResources(final ClassContext classContext, final String name, final ClassPathIndex classPath) {
         ByteBuffer buffer;
         ArrayList<byte[]> list = new ArrayList<>();
-        for (ClassPathItem item : classPath) {
+        for (ClassPathItem item : classPath.getItems()) {
             try (ClassPathElement.Resource resource = item.findResource(name)) {
                 if (resource == ClassPathElement.NON_EXISTENT) {
                     continue;
@@ -429,6 +455,12 @@ public class Driver implements Closeable {
                 return false;
             }
         }
+        if (! preloadPackages.isEmpty()) {
+            ClassPreloader preloader = new ClassPreloader(compilationContext.getBootstrapClassContext(), bootClassPathIndex, preloadPackages,
+                (classContext, name) -> defineClass(classContext, name, bootClassPathIndex),
+                task -> compilationContext.runParallelTask(ignored -> task.run()));
+            preloader.run();
+        }
         LoadedTypeDefinition stringClass = loadBootstrapClass("java/lang/String");
         if (stringClass == null) {
             return false;
@@ -697,6 +729,8 @@ public class Driver implements Closeable {
         final List<UnaryOperator<NativeMethodConfigurator>> nativeMethodConfiguratorFactories = new ArrayList<>();
 
         Path outputDirectory = Path.of(".");
+        Path classFileCacheDirectory;
+        final List<String> preloadPackages = new ArrayList<>();
         BaseDiagnosticContext initialContext;
         Platform targetPlatform;
         TypeSystem typeSystem;
@@ -821,10 +855,39 @@ public class Driver implements Closeable {
             return this;
         }
 
+        public Path getClassFileCacheDirectory() {
+            return classFileCacheDirectory;
+        }
+
+        /**
+         * Set the directory in which the layouts of the bootstrap class library's class files are cached between builds.
+         *
+         * @param classFileCacheDirectory the cache directory, or {@code null} to disable the cache
+         * @return this builder
+         */
+        public Builder setClassFileCacheDirectory(final Path classFileCacheDirectory) {
+            this.classFileCacheDirectory = classFileCacheDirectory;
+            return this;
+        }
+
         public Platform getTargetPlatform() {
             return targetPlatform;
         }
 
+        /**
+         * Add a package of the bootstrap class path whose classes should be defined in parallel before the {@code ADD}
+         * phase begins.
+         *
+         * @param packageName the package name, in internal form, which includes its subpackages; or {@code *} for
+         *      every package
+         * @return this builder
+         */
+        public Builder addPreloadPackage(final String packageName) {
+            Assert.checkNotNullParam("packageName", packageName);
+            preloadPackages.add(packageName);
+            return this;
+        }
+
         public Builder setTargetPlatform(final Platform targetPlatform) {
             this.targetPlatform = targetPlatform;
             return this;
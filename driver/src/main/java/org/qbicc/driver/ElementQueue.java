@@ -0,0 +1,207 @@
+package org.qbicc.driver;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * A work-stealing queue of executable elements.
+ * <p>
+ * Each compiler thread which participates in {@linkplain #process processing} owns a private deque. Elements which are
+ * enqueued from a participating thread are pushed on to the head of that thread's deque and are taken back off of the
+ * head, so that a thread tends to process the elements that it discovered itself. When a thread runs out of work, it
+ * takes elements from the tail of the deques of the other threads. Elements which are enqueued from any other thread
+ * (for example, entry points which are registered before the queue is processed) go to a shared injection queue.
+ * <p>
+ * Termination is detected using a count of elements which have been enqueued but not yet fully processed. Since an
+ * element can only be enqueued by an external thread while the queue is not being processed, or by a thread which
+ * is itself processing an element, a count of zero means that no more work can arrive.
+ */
+final class ElementQueue {
+    private static final int SPINS = 64;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrentLinkedQueue<ExecutableElement> injected = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder steals = new LongAdder();
+    private final LongAdder idleNanos = new LongAdder();
+    private volatile AtomicReferenceArray<Worker> workers = new AtomicReferenceArray<>(0);
+
+    ElementQueue() {}
+
+    /**
+     * Add an element to the queue. The caller is responsible for ensuring that each element is only added once.
+     *
+     * @param element the element to add (must not be {@code null})
+     */
+    void add(ExecutableElement element) {
+        pending.getAndIncrement();
+        Worker worker = currentWorker.get();
+        if (worker != null) {
+            worker.deque.addFirst(element);
+        } else {
+            injected.add(element);
+        }
+    }
+
+    /**
+     * Remove an element from the queue without processing it.
+     *
+     * @return the removed element, or {@code null} if there is none
+     */
+    ExecutableElement poll() {
+        Worker worker = currentWorker.get();
+        ExecutableElement element = worker == null ? injected.poll() : take(worker);
+        if (element != null) {
+            pending.getAndDecrement();
+        }
+        return element;
+    }
+
+    /**
+     * Prepare for a round of processing on the given number of threads.
+     *
+     * @param threadCnt the maximum number of threads which will participate
+     */
+    void prepare(int threadCnt) {
+        workers = new AtomicReferenceArray<>(threadCnt);
+        workerCount.set(0);
+        processed.reset();
+        steals.reset();
+        idleNanos.reset();
+    }
+
+    /**
+     * Process elements from the calling thread until all the elements in the queue, including elements that are
+     * enqueued during processing, have been processed.
+     *
+     * @param consumer the element consumer (must not be {@code null})
+     * @param exceptionHandler the handler for exceptions thrown by the consumer (must not be {@code null})
+     */
+    void process(Consumer<ExecutableElement> consumer, ExceptionHandler exceptionHandler) {
+        AtomicReferenceArray<Worker> workers = this.workers;
+        int idx = workerCount.getAndIncrement();
+        if (idx >= workers.length()) {
+            throw new IllegalStateException("Too many queue processing threads");
+        }
+        Worker worker = new Worker(idx);
+        workers.set(idx, worker);
+        currentWorker.set(worker);
+        try {
+            for (;;) {
+                ExecutableElement element = take(worker);
+                if (element == null) {
+                    element = awaitWork(worker);
+                    if (element == null) {
+                        return;
+                    }
+                }
+                try {
+                    consumer.accept(element);
+                } catch (Throwable t) {
+                    exceptionHandler.handle(element, t);
+                } finally {
+                    processed.increment();
+                    pending.getAndDecrement();
+                }
+            }
+        } finally {
+            currentWorker.remove();
+        }
+    }
+
+    private ExecutableElement awaitWork(Worker worker) {
+        long start = System.nanoTime();
+        try {
+            int spins = 0;
+            long parkNanos = 1_000;
+            for (;;) {
+                if (pending.get() == 0) {
+                    return null;
+                }
+                ExecutableElement element = take(worker);
+                if (element != null) {
+                    return element;
+                }
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, parkNanos);
+                    parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+                }
+            }
+        } finally {
+            idleNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private ExecutableElement take(Worker worker) {
+        ExecutableElement element = worker.deque.pollFirst();
+        if (element != null) {
+            return element;
+        }
+        element = injected.poll();
+        if (element != null) {
+            return element;
+        }
+        // steal from the other workers, starting with our neighbor so that thieves tend to spread out
+        AtomicReferenceArray<Worker> workers = this.workers;
+        int cnt = Math.min(workerCount.get(), workers.length());
+        for (int i = 1; i < cnt; i++) {
+            Worker victim = workers.get((worker.index + i) % cnt);
+            if (victim != null) {
+                element = victim.deque.pollLast();
+                if (element != null) {
+                    steals.increment();
+                    return element;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the statistics for the most recent round of processing.
+     *
+     * @return the statistics (not {@code null})
+     */
+    Statistics getStatistics() {
+        return new Statistics(workerCount.get(), processed.sum(), steals.sum(), idleNanos.sum());
+    }
+
+    /**
+     * Statistics for one round of queue processing.
+     *
+     * @param threads the number of participating threads
+     * @param processed the number of elements processed
+     * @param steals the number of elements taken from the deque of another thread
+     * @param idleNanos the total time spent by all threads waiting for work, in nanoseconds
+     */
+    record Statistics(int threads, long processed, long steals, long idleNanos) {
+    }
+
+    interface ExceptionHandler {
+        void handle(ExecutableElement element, Throwable t);
+    }
+
+    static final class Worker {
+        final int index;
+        final ConcurrentLinkedDeque<ExecutableElement> deque = new ConcurrentLinkedDeque<>();
+
+        Worker(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -3,17 +3,56 @@ package org.qbicc.driver;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
 
+import io.smallrye.common.os.OS;
 import org.qbicc.machine.vfs.VirtualFileSystem;
 import org.qbicc.machine.vfs.VirtualPath;
+import org.qbicc.type.definition.classfile.ClassFileLayout;
 
+/**
+ * A class path element backed by a JAR file.
+ * <p>
+ * Where possible, the JAR file is mapped into memory and its central directory is indexed once, so that stored entries
+ * can be returned as slices of the mapping without copying, and deflated entries can be inflated straight from the
+ * mapping into a buffer of exactly the right size. Either way, the content is checked against the CRC recorded in the
+ * central directory. JAR files which cannot be mapped or indexed (for example, ZIP64 files) are read through
+ * {@link JarFile} instead.
+ * <p>
+ * Indexed JAR files may also cache the layouts of their class files between builds, keyed by a hash of the central
+ * directory (which includes the size and CRC of every entry) and by the CRC of each class file.
+ */
 final class JarFileClassPathElement extends ClassPathElement {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_HEADER_SIG = 0x06054b50;
+    private static final int END_HEADER_SIZE = 22;
+
     private final JarFile jarFile;
+    private final Path path;
+    private volatile Index index;
+    private volatile Path layoutCacheDirectory;
+    private volatile ClassFileLayoutCache layoutCache;
 
-    JarFileClassPathElement(final JarFile jarFile) {
+    JarFileClassPathElement(final Path path, final JarFile jarFile) {
+        this.path = path;
         this.jarFile = jarFile;
     }
 
@@ -21,11 +60,37 @@ final class JarFileClassPathElement extends ClassPathElement {
         return jarFile.getName();
     }
 
-    public ClassPathElement.Resource getResource(final String name) {
+    public ClassPathElement.Resource getResource(final String name) throws IOException {
+        Index index = getIndex();
+        if (index.buffer != null) {
+            Entry entry = index.entries.get(name);
+            if (entry == null) {
+                return NON_EXISTENT;
+            }
+            if (entry.method == ZipEntry.STORED || entry.method == ZipEntry.DEFLATED) {
+                return new MappedResource(name, index.buffer, entry);
+            }
+        }
         JarEntry jarEntry = jarFile.getJarEntry(name);
         return jarEntry == null ? NON_EXISTENT : new Resource(jarEntry);
     }
 
+    @Override
+    void forEachResourceName(Consumer<String> action) throws IOException {
+        Index index = getIndex();
+        if (index.buffer != null) {
+            index.entries.keySet().forEach(action);
+        } else {
+            Iterator<JarEntry> iterator = jarFile.entries().asIterator();
+            while (iterator.hasNext()) {
+                JarEntry entry = iterator.next();
+                if (! entry.isDirectory()) {
+                    action.accept(entry.getName());
+                }
+            }
+        }
+    }
+
     @Override
     public void mount(VirtualFileSystem vfs, VirtualPath mountPoint) throws IOException {
         Iterator<JarEntry> iterator = jarFile.entries().asIterator();
@@ -44,10 +109,199 @@ final class JarFileClassPathElement extends ClassPathElement {
         }
     }
 
+    @Override
+    void enableClassFileLayoutCache(Path cacheDirectory) {
+        layoutCacheDirectory = cacheDirectory;
+    }
+
     public void close() throws IOException {
+        ClassFileLayoutCache layoutCache = this.layoutCache;
+        if (layoutCache != null) {
+            layoutCache.save();
+        }
         jarFile.close();
     }
 
+    private ClassFileLayoutCache getLayoutCache(Index index) {
+        Path cacheDirectory = layoutCacheDirectory;
+        if (cacheDirectory == null) {
+            return null;
+        }
+        ClassFileLayoutCache layoutCache = this.layoutCache;
+        if (layoutCache == null) {
+            synchronized (this) {
+                layoutCache = this.layoutCache;
+                if (layoutCache == null) {
+                    MessageDigest digest;
+                    try {
+                        digest = MessageDigest.getInstance("SHA-256");
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    digest.update(index.buffer.slice(index.directoryOffset, index.buffer.capacity() - index.directoryOffset));
+                    layoutCache = this.layoutCache = ClassFileLayoutCache.open(cacheDirectory, HexFormat.of().formatHex(digest.digest()));
+                }
+            }
+        }
+        return layoutCache;
+    }
+
+    private Index getIndex() throws IOException {
+        Index index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = this.index = createIndex();
+                }
+            }
+        }
+        return index;
+    }
+
+    private Index createIndex() throws IOException {
+        if (OS.current() == OS.WINDOWS) {
+            // mapped files cannot be deleted or replaced on Windows while the mapping is live
+            return Index.NONE;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || size < END_HEADER_SIZE) {
+                return Index.NONE;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        // find the end of central directory record, which is followed by a comment of up to 64K
+        int end = -1;
+        int limit = Math.max(0, buffer.capacity() - END_HEADER_SIZE - 0xffff);
+        for (int i = buffer.capacity() - END_HEADER_SIZE; i >= limit; i --) {
+            if (buffer.getInt(i) == END_HEADER_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            return Index.NONE;
+        }
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long cdOffset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        if (count == 0xffff || cdOffset == 0xffffffffL) {
+            // ZIP64
+            return Index.NONE;
+        }
+        Map<String, Entry> entries = new HashMap<>(count * 2);
+        int pos = (int) cdOffset;
+        for (int i = 0; i < count; i ++) {
+            if (pos + 46 > buffer.capacity() || buffer.getInt(pos) != CENTRAL_HEADER_SIG) {
+                return Index.NONE;
+            }
+            int flags = Short.toUnsignedInt(buffer.getShort(pos + 8));
+            int method = Short.toUnsignedInt(buffer.getShort(pos + 10));
+            long crc = Integer.toUnsignedLong(buffer.getInt(pos + 16));
+            long compressedSize = Integer.toUnsignedLong(buffer.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(pos + 24));
+            int nameLen = Short.toUnsignedInt(buffer.getShort(pos + 28));
+            int extraLen = Short.toUnsignedInt(buffer.getShort(pos + 30));
+            int commentLen = Short.toUnsignedInt(buffer.getShort(pos + 32));
+            long localOffset = Integer.toUnsignedLong(buffer.getInt(pos + 42));
+            byte[] nameBytes = new byte[nameLen];
+            buffer.get(pos + 46, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if ((flags & 1) != 0 || compressedSize == 0xffffffffL || size == 0xffffffffL || localOffset == 0xffffffffL) {
+                // encrypted or ZIP64
+                return Index.NONE;
+            }
+            if (! name.endsWith("/")) {
+                // the last entry wins, like ZipFile
+                entries.put(name, new Entry(method, localOffset, compressedSize, size, crc));
+            }
+            pos += 46 + nameLen + extraLen + commentLen;
+        }
+        return new Index(buffer, (int) cdOffset, entries);
+    }
+
+    record Entry(int method, long localOffset, long compressedSize, long size, long crc) {}
+
+    record Index(ByteBuffer buffer, int directoryOffset, Map<String, Entry> entries) {
+        static final Index NONE = new Index(null, 0, Map.of());
+    }
+
+    final class MappedResource extends ClassPathElement.Resource {
+        private final String name;
+        private final ByteBuffer mapped;
+        private final Entry entry;
+
+        MappedResource(final String name, final ByteBuffer mapped, final Entry entry) {
+            this.name = name;
+            this.mapped = mapped;
+            this.entry = entry;
+        }
+
+        public ByteBuffer getBuffer() throws IOException {
+            int pos = (int) entry.localOffset();
+            if (mapped.getInt(pos) != LOCAL_HEADER_SIG) {
+                throw new IOException("Invalid local file header");
+            }
+            int nameLen = Short.toUnsignedInt(mapped.getShort(pos + 26));
+            int extraLen = Short.toUnsignedInt(mapped.getShort(pos + 28));
+            ByteBuffer data = mapped.slice(pos + 30 + nameLen + extraLen, (int) entry.compressedSize()).order(ByteOrder.BIG_ENDIAN);
+            if (entry.method() == ZipEntry.STORED) {
+                checkCrc(data.duplicate());
+                return data;
+            }
+            byte[] bytes = new byte[(int) entry.size()];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                int cnt = 0;
+                while (cnt < bytes.length && ! inflater.finished()) {
+                    int res = inflater.inflate(bytes, cnt, bytes.length - cnt);
+                    if (res == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed entry");
+                    }
+                    cnt += res;
+                }
+                if (cnt < bytes.length) {
+                    throw new IOException("Compressed entry is shorter than its recorded size");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            checkCrc(buffer.duplicate());
+            return buffer;
+        }
+
+        private void checkCrc(ByteBuffer data) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (crc.getValue() != entry.crc()) {
+                throw new IOException("Invalid CRC for entry " + name);
+            }
+        }
+
+        @Override
+        ClassFileLayout getClassFileLayout() {
+            ClassFileLayoutCache layoutCache = getLayoutCache(index);
+            return layoutCache == null ? null : layoutCache.get(name, entry.crc());
+        }
+
+        @Override
+        void putClassFileLayout(ClassFileLayout layout) {
+            ClassFileLayoutCache layoutCache = getLayoutCache(index);
+            if (layoutCache != null) {
+                layoutCache.put(name, entry.crc(), layout);
+            }
+        }
+
+        public void close() {
+            // no operation
+        }
+    }
+
     final class Resource extends ClassPathElement.Resource {
         private final JarEntry entry;
 
@@ -1,5 +1,9 @@
 package org.qbicc.driver;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
 import org.jboss.logging.Logger;
 import org.jboss.logging.MDC;
 import org.qbicc.context.CompilationContext;
@@ -72,7 +76,22 @@ public enum Phase {
 
     static void complete(CompilationContext ctxt) {
         if (ctxt.getPreviousPhaseAttachment(KEY) != null) {
-            log.info("Phase complete");
+            long used = 0;
+            // the pools peak at different times, so this is an upper bound on the true heap peak
+            long sumOfPeaks = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    used += pool.getUsage().getUsed();
+                    sumOfPeaks += pool.getPeakUsage().getUsed();
+                }
+            }
+            log.infof("Phase complete (heap used: %d MiB, sum of per-pool peaks: %d MiB)", Long.valueOf(used >> 20), Long.valueOf(sumOfPeaks >> 20));
+        }
+        // restart the peak measurement for the next phase
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
         }
         MDC.remove("phase");
     }
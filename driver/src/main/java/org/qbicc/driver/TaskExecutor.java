@@ -0,0 +1,280 @@
+package org.qbicc.driver;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The executor which runs tasks on the compiler threads.
+ * <p>
+ * Submitted tasks are taken from a single shared deque by every compiler thread. Broadcast tasks (those which should
+ * be run once per compiler thread) are instead placed in a mailbox which is private to each compiler thread, so that
+ * every thread runs exactly one copy; the copies are joined using a {@link Phaser} which is private to the broadcast,
+ * so that independent tasks may be submitted and joined without requiring a rendezvous of every compiler thread. A
+ * compiler thread which waits for a submitted task helps to run other submitted tasks while it waits, so that waiting
+ * on a compiler thread cannot starve the pool.
+ */
+final class TaskExecutor {
+    private static final Runnable EXIT = () -> {};
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taskAvailable = lock.newCondition();
+    // all guarded by lock
+    private final ArrayDeque<SubmittedTask> tasks = new ArrayDeque<>();
+    private final Map<Thread, ArrayDeque<Runnable>> mailboxes = new HashMap<>();
+
+    private final ThreadLocal<TaskExecutor> currentExecutor = new ThreadLocal<>();
+    private final Phaser exitPhaser = new Phaser(1);
+    private volatile int threadCnt;
+
+    TaskExecutor() {}
+
+    /**
+     * Start the compiler threads.
+     *
+     * @param threads the unstarted threads, each of which must run {@link #runThread()}
+     * @throws RuntimeException if a thread fails to start
+     */
+    void start(Thread[] threads) {
+        for (Thread thread : threads) {
+            lock.lock();
+            try {
+                mailboxes.put(thread, new ArrayDeque<>());
+            } finally {
+                lock.unlock();
+            }
+            exitPhaser.register();
+            try {
+                thread.start();
+            } catch (RuntimeException | Error e) {
+                exitPhaser.arriveAndDeregister();
+                lock.lock();
+                try {
+                    mailboxes.remove(thread);
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            threadCnt++;
+        }
+    }
+
+    /**
+     * The body of each compiler thread.
+     */
+    void runThread() {
+        currentExecutor.set(this);
+        try {
+            for (;;) {
+                Runnable task = take();
+                if (task == EXIT) {
+                    return;
+                }
+                task.run();
+            }
+        } finally {
+            lock.lock();
+            try {
+                mailboxes.remove(Thread.currentThread());
+            } finally {
+                lock.unlock();
+            }
+            currentExecutor.remove();
+            exitPhaser.arriveAndDeregister();
+        }
+    }
+
+    private Runnable take() {
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> mailbox = mailboxes.get(Thread.currentThread());
+            for (;;) {
+                Runnable task = mailbox.pollFirst();
+                if (task == null) {
+                    task = tasks.pollFirst();
+                }
+                if (task != null) {
+                    return task;
+                }
+                try {
+                    taskAvailable.await();
+                } catch (InterruptedException ignored) {
+                    // consume interruption on root task
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determine whether the current thread is a compiler thread.
+     *
+     * @return {@code true} if the current thread is a compiler thread, or {@code false} otherwise
+     */
+    boolean isCompilerThread() {
+        return currentExecutor.get() == this;
+    }
+
+    int getThreadCount() {
+        return threadCnt;
+    }
+
+    /**
+     * Submit a task to be run on one compiler thread.
+     *
+     * @param task the task (must not be {@code null})
+     */
+    void submit(SubmittedTask task) {
+        lock.lock();
+        try {
+            tasks.addLast(task);
+            taskAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run a task exactly once on each compiler thread and wait for every copy to complete.
+     *
+     * @param task the task (must not be {@code null})
+     */
+    void broadcast(Runnable task) {
+        if (isCompilerThread()) {
+            throw new IllegalStateException("Parallel tasks may not be started from a compiler thread");
+        }
+        Phaser phaser;
+        lock.lock();
+        try {
+            phaser = new Phaser(1 + mailboxes.size());
+            Runnable copy = () -> {
+                try {
+                    task.run();
+                } finally {
+                    phaser.arriveAndDeregister();
+                }
+            };
+            for (ArrayDeque<Runnable> mailbox : mailboxes.values()) {
+                mailbox.addLast(copy);
+            }
+            taskAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean intr = false;
+        try {
+            int phase = phaser.arrive();
+            for (;;) {
+                try {
+                    phaser.awaitAdvanceInterruptibly(phase);
+                    break;
+                } catch (InterruptedException e) {
+                    intr = true;
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for the given future to complete. If the current thread is a compiler thread, other submitted tasks are
+     * run while waiting.
+     *
+     * @param future the future to wait for (must not be {@code null})
+     */
+    void await(Future<?> future) {
+        boolean intr = false;
+        try {
+            if (isCompilerThread()) {
+                while (! future.isDone()) {
+                    // broadcast copies and exit requests are only run from the thread main loop
+                    SubmittedTask task;
+                    lock.lock();
+                    try {
+                        task = tasks.pollFirst();
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (task != null) {
+                        task.run();
+                    } else {
+                        try {
+                            future.get(1, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            intr = true;
+                        } catch (ExecutionException | TimeoutException ignored) {
+                            // just check again
+                        }
+                    }
+                }
+            } else {
+                while (! future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        intr = true;
+                    } catch (ExecutionException ignored) {
+                        // reported by caller
+                    }
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop all the compiler threads and wait for them to exit.
+     */
+    void exit() {
+        if (isCompilerThread()) {
+            throw new IllegalStateException("Compiler threads may not be stopped from a compiler thread");
+        }
+        lock.lock();
+        try {
+            for (ArrayDeque<Runnable> mailbox : mailboxes.values()) {
+                mailbox.addLast(EXIT);
+            }
+            taskAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean intr = false;
+        try {
+            int phase = exitPhaser.arrive();
+            for (;;) {
+                try {
+                    exitPhaser.awaitAdvanceInterruptibly(phase);
+                    break;
+                } catch (InterruptedException e) {
+                    intr = true;
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A task which was submitted individually, and which may be run by a compiler thread while it waits for some
+     * other task.
+     */
+    interface SubmittedTask extends Runnable {
+    }
+}
@@ -0,0 +1,132 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import io.smallrye.common.os.OS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.type.definition.classfile.ClassFileLayout;
+
+/**
+ * Tests for the persistent cache of class file layouts.
+ */
+public class ClassFileLayoutCacheTest {
+    private static final String KEY = "0123456789abcdef";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        ClassFileLayout layout = newLayout(10, 20, 30);
+        ClassFileLayoutCache cache = ClassFileLayoutCache.open(cacheDir, KEY);
+        assertNull(cache.get("a/A.class", 1234));
+        cache.put("a/A.class", 1234, layout);
+        cache.save();
+
+        ClassFileLayoutCache reopened = ClassFileLayoutCache.open(cacheDir, KEY);
+        assertArrayEquals(bytesOf(layout), bytesOf(reopened.get("a/A.class", 1234)));
+        // a class file with another CRC must not see the layout
+        assertNull(reopened.get("a/A.class", 4321));
+        assertNull(reopened.get("a/B.class", 1234));
+        // another artifact has a cache of its own
+        assertNull(ClassFileLayoutCache.open(cacheDir, "fedcba9876543210").get("a/A.class", 1234));
+    }
+
+    @Test
+    public void testCorruptCacheFile() throws IOException {
+        Path cacheDir = tempDir.resolve("cache");
+        ClassFileLayoutCache cache = ClassFileLayoutCache.open(cacheDir, KEY);
+        cache.put("a/A.class", 1234, newLayout(10, 20, 30));
+        cache.put("a/B.class", 5678, newLayout(40, 50));
+        cache.save();
+        Path cacheFile = cacheDir.resolve(KEY + ".layouts");
+        byte[] bytes = Files.readAllBytes(cacheFile);
+
+        // a truncated file loads nothing rather than a partial set of layouts
+        Files.write(cacheFile, Arrays.copyOf(bytes, bytes.length - 3));
+        ClassFileLayoutCache truncated = ClassFileLayoutCache.open(cacheDir, KEY);
+        assertNull(truncated.get("a/A.class", 1234));
+        assertNull(truncated.get("a/B.class", 5678));
+
+        // a file which is not a cache file at all loads nothing
+        Files.writeString(cacheFile, "this is not a layout cache", StandardCharsets.UTF_8);
+        ClassFileLayoutCache garbage = ClassFileLayoutCache.open(cacheDir, KEY);
+        assertNull(garbage.get("a/A.class", 1234));
+
+        // and the cache can be rebuilt over it
+        garbage.put("a/A.class", 1234, newLayout(10, 20, 30));
+        garbage.save();
+        assertNotNull(ClassFileLayoutCache.open(cacheDir, KEY).get("a/A.class", 1234));
+    }
+
+    @Test
+    public void testChangedJarDoesNotSeeStaleLayouts() throws IOException {
+        if (OS.current() == OS.WINDOWS) {
+            // JAR files are not mapped, so there is no layout cache
+            return;
+        }
+        Path cacheDir = tempDir.resolve("cache");
+        Path jar = tempDir.resolve("lib.jar");
+        ClassFileLayout layout = newLayout(10, 20, 30);
+        new ZipFileBuilder().stored("a/A.class", "first".getBytes(StandardCharsets.UTF_8)).writeTo(jar);
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            element.enableClassFileLayoutCache(cacheDir);
+            try (ClassPathElement.Resource resource = element.getResource("a/A.class")) {
+                assertNull(resource.getClassFileLayout());
+                resource.putClassFileLayout(layout);
+            }
+        }
+        // the layouts are saved when the element is closed
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            element.enableClassFileLayoutCache(cacheDir);
+            try (ClassPathElement.Resource resource = element.getResource("a/A.class")) {
+                assertArrayEquals(bytesOf(layout), bytesOf(resource.getClassFileLayout()));
+            }
+        }
+
+        new ZipFileBuilder().stored("a/A.class", "second".getBytes(StandardCharsets.UTF_8)).writeTo(jar);
+        try (ClassPathElement element = ClassPathElement.forJarFile(jar)) {
+            element.enableClassFileLayoutCache(cacheDir);
+            try (ClassPathElement.Resource resource = element.getResource("a/A.class")) {
+                assertNull(resource.getClassFileLayout());
+            }
+        }
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static ClassFileLayout newLayout(int... cpOffsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bytes);
+        os.writeInt(cpOffsets.length);
+        for (int cpOffset : cpOffsets) {
+            os.writeInt(cpOffset);
+        }
+        os.writeInt(100); // interfaces
+        os.writeInt(0); // fields
+        os.writeInt(0); // methods
+        os.writeInt(0); // attributes
+        return ClassFileLayout.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static byte[] bytesOf(ClassFileLayout layout) throws IOException {
+        assertNotNull(layout);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        layout.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
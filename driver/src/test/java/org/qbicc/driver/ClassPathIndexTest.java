@@ -0,0 +1,99 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for looking up resources in a class path index.
+ */
+public class ClassPathIndexTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<ClassPathItem> items = new ArrayList<>();
+
+    @AfterEach
+    public void tearDownEach() throws IOException {
+        for (ClassPathItem item : items) {
+            item.close();
+        }
+    }
+
+    @Test
+    public void testEarlierItemWins() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("classes"));
+        Files.createDirectories(dir.resolve("a"));
+        Files.writeString(dir.resolve("a/x.txt"), "from directory");
+        Path jar = new ZipFileBuilder()
+            .stored("a/x.txt", bytes("from jar"))
+            .deflated("b/y.txt", bytes("only in jar"))
+            .writeTo(tempDir.resolve("lib.jar"));
+        ClassPathIndex index = new ClassPathIndex(List.of(
+            item("classes", ClassPathElement.forDirectory(dir)),
+            item("lib.jar", ClassPathElement.forJarFile(jar))
+        ));
+
+        assertEquals("from directory", contentOf(index.findResource("a/x.txt")));
+        assertEquals("only in jar", contentOf(index.findResource("b/y.txt")));
+        assertSame(ClassPathElement.NON_EXISTENT, index.findResource("c/z.txt"));
+        assertEquals(Set.of("a/x.txt", "b/y.txt"), index.getResourceNames());
+    }
+
+    @Test
+    public void testLayeredRootsInOneItem() throws IOException {
+        Path first = new ZipFileBuilder().stored("a/x.txt", bytes("first")).writeTo(tempDir.resolve("first.jar"));
+        Path second = new ZipFileBuilder()
+            .stored("a/x.txt", bytes("second"))
+            .stored("a/w.txt", bytes("second only"))
+            .writeTo(tempDir.resolve("second.jar"));
+        ClassPathIndex index = new ClassPathIndex(List.of(
+            new ClassPathItem("layered", List.of(ClassPathElement.forJarFile(first), ClassPathElement.forJarFile(second)), List.of())
+        ));
+        items.addAll(index.getItems());
+
+        assertEquals("first", contentOf(index.findResource("a/x.txt")));
+        assertEquals("second only", contentOf(index.findResource("a/w.txt")));
+        assertEquals(Set.of("a/x.txt", "a/w.txt"), index.getResourceNames());
+    }
+
+    @Test
+    public void testForEachResourceNameOfDirectory() throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve("classes"));
+        Files.createDirectories(dir.resolve("a/b"));
+        Files.writeString(dir.resolve("a/b/x.txt"), "x");
+        Files.writeString(dir.resolve("y.txt"), "y");
+        List<String> names = new ArrayList<>();
+        ClassPathElement.forDirectory(dir).forEachResourceName(names::add);
+        assertEquals(Set.of("a/b/x.txt", "y.txt"), Set.copyOf(names));
+        assertEquals(2, names.size());
+    }
+
+    private ClassPathItem item(String name, ClassPathElement element) {
+        ClassPathItem item = new ClassPathItem(name, List.of(element), List.of());
+        items.add(item);
+        return item;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String contentOf(ClassPathElement.Resource resource) throws IOException {
+        ByteBuffer buffer = resource.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
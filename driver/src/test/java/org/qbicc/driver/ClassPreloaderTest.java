@@ -0,0 +1,110 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+
+/**
+ * Tests for selecting and defining the classes to preload.
+ */
+public class ClassPreloaderTest {
+    @TempDir
+    Path tempDir;
+
+    private ClassPathItem item;
+
+    @AfterEach
+    public void tearDownEach() {
+        if (item != null) {
+            item.close();
+        }
+    }
+
+    @Test
+    public void testSelectedPackages() throws IOException {
+        ClassPathIndex classPath = classPath();
+        Set<String> requested = ConcurrentHashMap.newKeySet();
+        new ClassPreloader(null, classPath, List.of("a", "d/e/"), (classContext, name) -> {
+            requested.add(name);
+            return null;
+        }, Runnable::run).run();
+        assertEquals(Set.of("a/A", "a/b/B", "d/e/E"), requested);
+    }
+
+    @Test
+    public void testAllPackages() throws IOException {
+        ClassPathIndex classPath = classPath();
+        Set<String> requested = ConcurrentHashMap.newKeySet();
+        new ClassPreloader(null, classPath, List.of("*"), (classContext, name) -> {
+            requested.add(name);
+            return null;
+        }, Runnable::run).run();
+        // module-info, package-info and multi-release classes are never preloaded
+        assertEquals(Set.of("a/A", "a/b/B", "c/C", "d/e/E"), requested);
+    }
+
+    @Test
+    public void testFailuresAreSkipped() throws IOException {
+        ClassPathIndex classPath = classPath();
+        AtomicInteger attempts = new AtomicInteger();
+        DefinedTypeDefinition defined = (DefinedTypeDefinition) Proxy.newProxyInstance(DefinedTypeDefinition.class.getClassLoader(), new Class<?>[] { DefinedTypeDefinition.class }, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        });
+        int cnt = new ClassPreloader(null, classPath, List.of("*"), (classContext, name) -> {
+            attempts.getAndIncrement();
+            if (name.startsWith("a/")) {
+                throw new IllegalArgumentException("Broken class file " + name);
+            }
+            return defined;
+        }, Runnable::run).run();
+        // the failures do not stop the other classes from being defined
+        assertEquals(4, attempts.get());
+        assertEquals(2, cnt);
+    }
+
+    @Test
+    public void testEveryThreadTakesPart() throws IOException {
+        ClassPathIndex classPath = classPath();
+        Set<String> requested = ConcurrentHashMap.newKeySet();
+        AtomicInteger runs = new AtomicInteger();
+        new ClassPreloader(null, classPath, List.of("*"), (classContext, name) -> {
+            assertTrue(requested.add(name), name);
+            return null;
+        }, task -> {
+            // as if there were three compiler threads; every name must still be defined exactly once
+            for (int i = 0; i < 3; i ++) {
+                runs.getAndIncrement();
+                task.run();
+            }
+        }).run();
+        assertEquals(3, runs.get());
+        assertEquals(4, requested.size());
+    }
+
+    private ClassPathIndex classPath() throws IOException {
+        byte[] content = new byte[] { (byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe };
+        Path jar = new ZipFileBuilder()
+            .stored("a/A.class", content)
+            .stored("a/b/B.class", content)
+            .stored("c/C.class", content)
+            .stored("d/e/E.class", content)
+            .stored("a/package-info.class", content)
+            .stored("module-info.class", content)
+            .stored("META-INF/versions/11/a/A.class", content)
+            .stored("a/readme.txt", content)
+            .writeTo(tempDir.resolve("boot.jar"));
+        item = new ClassPathItem("boot.jar", List.of(ClassPathElement.forJarFile(jar)), List.of());
+        return new ClassPathIndex(List.of(item));
+    }
+}
@@ -0,0 +1,159 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import io.smallrye.common.os.OS;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for reading resources from JAR files, both through the mapped central directory index and through the
+ * {@link JarFile} fallback.
+ */
+public class JarFileClassPathElementTest {
+    private static final byte[] HELLO = "hello, world".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LARGE = "all work and no play makes jack a dull boy\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStoredEntry() throws IOException {
+        Path path = new ZipFileBuilder().stored("a/hello.txt", HELLO).writeTo(tempDir.resolve("stored.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertMapped(element, "a/hello.txt", HELLO);
+        }
+    }
+
+    @Test
+    public void testDeflatedEntry() throws IOException {
+        Path path = new ZipFileBuilder().deflated("a/large.txt", LARGE).writeTo(tempDir.resolve("deflated.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertMapped(element, "a/large.txt", LARGE);
+        }
+    }
+
+    @Test
+    public void testDataDescriptor() throws IOException {
+        // the local headers carry no sizes, so they must come from the central directory
+        Path path = new ZipFileBuilder()
+            .add("a/large.txt", LARGE, ZipEntry.DEFLATED, true)
+            .add("b/hello.txt", HELLO, ZipEntry.DEFLATED, true)
+            .writeTo(tempDir.resolve("descriptor.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertMapped(element, "a/large.txt", LARGE);
+            assertMapped(element, "b/hello.txt", HELLO);
+        }
+    }
+
+    @Test
+    public void testDuplicateNames() throws IOException {
+        byte[] other = "other".getBytes(StandardCharsets.UTF_8);
+        Path path = new ZipFileBuilder()
+            .stored("a/hello.txt", HELLO)
+            .deflated("a/hello.txt", other)
+            .writeTo(tempDir.resolve("duplicate.jar"));
+        byte[] expected;
+        try (JarFile jarFile = new JarFile(path.toFile()); InputStream is = jarFile.getInputStream(jarFile.getJarEntry("a/hello.txt"))) {
+            expected = is.readAllBytes();
+        }
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            // the index must pick the same entry as JarFile does
+            assertMapped(element, "a/hello.txt", expected);
+            assertEquals(List.of("a/hello.txt"), resourceNames(element));
+        }
+    }
+
+    @Test
+    public void testArchiveComment() throws IOException {
+        // the comment contains the end header signature, which must not be mistaken for the real end header
+        String comment = "PK\u0005\u0006 is not the end";
+        Path path = new ZipFileBuilder().stored("a/hello.txt", HELLO).comment(comment).writeTo(tempDir.resolve("comment.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertMapped(element, "a/hello.txt", HELLO);
+        }
+    }
+
+    @Test
+    public void testZip64FallsBackToJarFile() throws IOException {
+        Path path = new ZipFileBuilder()
+            .stored("a/hello.txt", HELLO)
+            .deflated("a/large.txt", LARGE)
+            .zip64()
+            .writeTo(tempDir.resolve("zip64.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            ClassPathElement.Resource resource = element.getResource("a/large.txt");
+            assertInstanceOf(JarFileClassPathElement.Resource.class, resource);
+            assertArrayEquals(LARGE, bytesOf(resource.getBuffer()));
+            assertSame(ClassPathElement.NON_EXISTENT, element.getResource("a/missing.txt"));
+            assertEquals(Set.of("a/hello.txt", "a/large.txt"), Set.copyOf(resourceNames(element)));
+        }
+    }
+
+    @Test
+    public void testMissingEntryAndDirectories() throws IOException {
+        Path path = new ZipFileBuilder()
+            .stored("a/", new byte[0])
+            .stored("a/hello.txt", HELLO)
+            .writeTo(tempDir.resolve("directories.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertSame(ClassPathElement.NON_EXISTENT, element.getResource("a/missing.txt"));
+            assertEquals(List.of("a/hello.txt"), resourceNames(element));
+        }
+    }
+
+    @Test
+    public void testBadCrcIsRejected() throws IOException {
+        long badCrc = ZipFileBuilder.crcOf(HELLO) ^ 1;
+        Path path = new ZipFileBuilder()
+            .add("a/stored.txt", HELLO, ZipEntry.STORED, false, badCrc, HELLO.length)
+            .add("a/deflated.txt", HELLO, ZipEntry.DEFLATED, false, badCrc, HELLO.length)
+            .writeTo(tempDir.resolve("crc.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertThrows(IOException.class, () -> element.getResource("a/stored.txt").getBuffer());
+            assertThrows(IOException.class, () -> element.getResource("a/deflated.txt").getBuffer());
+        }
+    }
+
+    @Test
+    public void testShortDeflatedEntryIsRejected() throws IOException {
+        // the recorded size is larger than the content, which must not be padded with zeros
+        Path path = new ZipFileBuilder()
+            .add("a/hello.txt", HELLO, ZipEntry.DEFLATED, false, ZipFileBuilder.crcOf(HELLO), HELLO.length + 10)
+            .writeTo(tempDir.resolve("short.jar"));
+        try (ClassPathElement element = ClassPathElement.forJarFile(path)) {
+            assertThrows(IOException.class, () -> element.getResource("a/hello.txt").getBuffer());
+        }
+    }
+
+    private static void assertMapped(ClassPathElement element, String name, byte[] expected) throws IOException {
+        ClassPathElement.Resource resource = element.getResource(name);
+        if (OS.current() != OS.WINDOWS) {
+            assertInstanceOf(JarFileClassPathElement.MappedResource.class, resource);
+        }
+        assertArrayEquals(expected, bytesOf(resource.getBuffer()));
+    }
+
+    private static List<String> resourceNames(ClassPathElement element) throws IOException {
+        List<String> names = new ArrayList<>();
+        element.forEachResourceName(names::add);
+        return names;
+    }
+
+    private static byte[] bytesOf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
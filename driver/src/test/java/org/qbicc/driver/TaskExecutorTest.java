@@ -0,0 +1,162 @@
+package org.qbicc.driver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for running broadcast and submitted tasks on the compiler threads.
+ */
+public class TaskExecutorTest {
+    private final TaskExecutor executor = new TaskExecutor();
+    private final List<Thread> threads = new ArrayList<>();
+
+    @AfterEach
+    public void tearDownEach() throws InterruptedException {
+        executor.exit();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    @Test
+    public void testBroadcastRunsOncePerThread() throws InterruptedException {
+        start(4);
+        // keep one thread busy, so that the idle threads would be free to take its copy of the broadcast
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            busy.countDown();
+            awaitUninterruptibly(release);
+        });
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException ignored) {
+            }
+            release.countDown();
+        });
+        releaser.start();
+        Map<Thread, AtomicInteger> runs = new ConcurrentHashMap<>();
+        executor.broadcast(() -> runs.computeIfAbsent(Thread.currentThread(), t -> new AtomicInteger()).incrementAndGet());
+        releaser.join();
+        assertEquals(threads.size(), runs.size());
+        for (Thread thread : threads) {
+            assertEquals(1, runs.get(thread).get(), thread.getName());
+        }
+    }
+
+    @Test
+    public void testBroadcastWaitsForEveryCopy() {
+        start(3);
+        AtomicInteger done = new AtomicInteger();
+        executor.broadcast(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            done.incrementAndGet();
+        });
+        assertEquals(3, done.get());
+    }
+
+    @Test
+    public void testBroadcastFromCompilerThreadFails() {
+        start(1);
+        CompletableFuture<Throwable> result = new CompletableFuture<>();
+        executor.submit(() -> {
+            try {
+                executor.broadcast(() -> {});
+                result.complete(null);
+            } catch (Throwable t) {
+                result.complete(t);
+            }
+        });
+        executor.await(result);
+        assertInstanceOf(IllegalStateException.class, result.join());
+    }
+
+    @Test
+    public void testSubmittedTasksRunOnCompilerThreads() {
+        start(2);
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i ++) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            executor.submit(() -> result.complete(Boolean.valueOf(executor.isCompilerThread())));
+            results.add(result);
+        }
+        for (CompletableFuture<Boolean> result : results) {
+            executor.await(result);
+            assertTrue(result.join().booleanValue());
+        }
+        assertFalse(executor.isCompilerThread());
+    }
+
+    @Test
+    public void testAwaitOnCompilerThreadRunsOtherTasks() {
+        // with a single thread, the nested task can only run if the waiting task runs it
+        start(1);
+        CompletableFuture<String> outer = new CompletableFuture<>();
+        executor.submit(() -> {
+            CompletableFuture<String> inner = new CompletableFuture<>();
+            executor.submit(() -> inner.complete("inner"));
+            executor.await(inner);
+            outer.complete("outer " + inner.join());
+        });
+        executor.await(outer);
+        assertEquals("outer inner", outer.join());
+    }
+
+    @Test
+    public void testBroadcastAfterSubmittedTasks() {
+        start(2);
+        AtomicInteger submitted = new AtomicInteger();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i ++) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            executor.submit(() -> {
+                submitted.incrementAndGet();
+                result.complete(null);
+            });
+            results.add(result);
+        }
+        AtomicInteger broadcast = new AtomicInteger();
+        executor.broadcast(broadcast::incrementAndGet);
+        assertEquals(2, broadcast.get());
+        for (CompletableFuture<Void> result : results) {
+            executor.await(result);
+        }
+        assertEquals(20, submitted.get());
+    }
+
+    private void start(int cnt) {
+        Thread[] array = new Thread[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            array[i] = new Thread(executor::runThread, "test compiler thread " + (i + 1) + "/" + cnt);
+            threads.add(array[i]);
+        }
+        executor.start(array);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        for (;;) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.qbicc.driver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes ZIP files byte by byte, so that tests can produce the archive variants which {@link java.util.zip.ZipOutputStream}
+ * refuses to write or never writes for small archives (duplicate names, forced ZIP64 records, bad checksums).
+ */
+final class ZipFileBuilder {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+    private int count;
+    private String comment = "";
+    private boolean zip64;
+
+    ZipFileBuilder stored(String name, byte[] content) {
+        return add(name, content, ZipEntry.STORED, false);
+    }
+
+    ZipFileBuilder deflated(String name, byte[] content) {
+        return add(name, content, ZipEntry.DEFLATED, false);
+    }
+
+    ZipFileBuilder add(String name, byte[] content, int method, boolean dataDescriptor) {
+        return add(name, content, method, dataDescriptor, crcOf(content), content.length);
+    }
+
+    /**
+     * Add an entry whose recorded CRC and uncompressed size may differ from those of its content.
+     */
+    ZipFileBuilder add(String name, byte[] content, int method, boolean dataDescriptor, long crc, long size) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = method == ZipEntry.DEFLATED ? deflate(content) : content;
+        int flags = dataDescriptor ? 0x0808 : 0x0800;
+        int localOffset = data.size();
+        ByteBuffer local = le(30 + nameBytes.length);
+        local.putInt(0x04034b50).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(0);
+        if (dataDescriptor) {
+            local.putInt(0).putInt(0).putInt(0);
+        } else {
+            local.putInt((int) crc).putInt(compressed.length).putInt((int) size);
+        }
+        local.putShort((short) nameBytes.length).putShort((short) 0).put(nameBytes);
+        data.writeBytes(local.array());
+        data.writeBytes(compressed);
+        if (dataDescriptor) {
+            data.writeBytes(le(16).putInt(0x08074b50).putInt((int) crc).putInt(compressed.length).putInt((int) size).array());
+        }
+        ByteBuffer central = le(46 + nameBytes.length);
+        central.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(0);
+        central.putInt((int) crc).putInt(compressed.length).putInt((int) size);
+        central.putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0);
+        central.putShort((short) 0).putShort((short) 0).putInt(0).putInt(localOffset).put(nameBytes);
+        directory.writeBytes(central.array());
+        count++;
+        return this;
+    }
+
+    ZipFileBuilder comment(String comment) {
+        this.comment = comment;
+        return this;
+    }
+
+    /**
+     * Write the end of the archive using ZIP64 records, as a writer must once there are too many entries for the
+     * classic records.
+     */
+    ZipFileBuilder zip64() {
+        zip64 = true;
+        return this;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(data.toByteArray());
+        int cdOffset = out.size();
+        out.writeBytes(directory.toByteArray());
+        int cdSize = directory.size();
+        if (zip64) {
+            int endOffset = out.size();
+            ByteBuffer end64 = le(56);
+            end64.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0);
+            end64.putLong(count).putLong(count).putLong(cdSize).putLong(cdOffset);
+            out.writeBytes(end64.array());
+            out.writeBytes(le(20).putInt(0x07064b50).putInt(0).putLong(endOffset).putInt(1).array());
+        }
+        byte[] commentBytes = comment.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer end = le(22 + commentBytes.length);
+        end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0);
+        if (zip64) {
+            end.putShort((short) 0xffff).putShort((short) 0xffff).putInt(0xffffffff).putInt(0xffffffff);
+        } else {
+            end.putShort((short) count).putShort((short) count).putInt(cdSize).putInt(cdOffset);
+        }
+        end.putShort((short) commentBytes.length).put(commentBytes);
+        out.writeBytes(end.array());
+        return out.toByteArray();
+    }
+
+    Path writeTo(Path path) throws IOException {
+        return Files.write(path, toByteArray());
+    }
+
+    static long crcOf(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            while (! deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
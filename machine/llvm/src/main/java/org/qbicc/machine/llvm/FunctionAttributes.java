@@ -9,6 +9,7 @@ public final class FunctionAttributes {
     private FunctionAttributes() {}
 
     public static final LLValue alwaysinline = LLVM.flagAttribute("alwaysinline");
+    public static final LLValue cold = LLVM.flagAttribute("cold");
     public static final LLValue gcLeafFunction = LLVM.flagAttribute("\"gc-leaf-function\"");
     public static final LLValue uwtable = LLVM.flagAttribute("uwtable");
     public static final LLValue noreturn = LLVM.flagAttribute("noreturn");
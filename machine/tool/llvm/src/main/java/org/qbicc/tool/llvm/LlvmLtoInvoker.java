@@ -0,0 +1,44 @@
+package org.qbicc.tool.llvm;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An invoker for the {@code llvm-lto} tool which runs a ThinLTO link over a set of summary-bearing bitcode modules,
+ * producing one native object file per module.
+ */
+public interface LlvmLtoInvoker extends LlvmToolInvoker {
+    void addModuleFilePath(Path path);
+
+    /**
+     * Prevent the given symbol from being internalized or discarded.
+     *
+     * @param name the symbol name
+     */
+    void addExportedSymbol(String name);
+
+    /**
+     * Set the file into which the tool arguments are written, to avoid exceeding the command line length limit.
+     *
+     * @param path the response file path
+     */
+    void setResponseFilePath(Path path);
+
+    void setCacheDirectory(Path path);
+
+    void setThreadCount(int threadCount);
+
+    void setRelocationModel(RelocationModel relocationModel);
+
+    void setOptions(List<String> options);
+
+    /**
+     * Get the path of the object file which is produced for the given module.
+     *
+     * @param modulePath the module file path
+     * @return the object file path
+     */
+    default Path getObjectFilePath(Path modulePath) {
+        return modulePath.resolveSibling(modulePath.getFileName() + ".thinlto.o");
+    }
+}
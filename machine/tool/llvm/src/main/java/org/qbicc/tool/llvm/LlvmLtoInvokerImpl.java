@@ -0,0 +1,134 @@
+package org.qbicc.tool.llvm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.machine.tool.ToolMessageHandler;
+import org.qbicc.machine.tool.process.InputSource;
+import org.qbicc.machine.tool.process.OutputDestination;
+
+/**
+ *
+ */
+final class LlvmLtoInvokerImpl implements LlvmLtoInvoker {
+    private final LlvmToolChain toolChain;
+    private final Path execPath;
+    private final List<Path> modulePaths = new ArrayList<>();
+    private final List<String> exportedSymbols = new ArrayList<>();
+    private ToolMessageHandler messageHandler = ToolMessageHandler.DISCARDING;
+    private Path responseFilePath;
+    private Path cacheDirectory;
+    private int threadCount = 1;
+    private RelocationModel relocationModel = RelocationModel.Static;
+    private List<String> options = List.of();
+
+    LlvmLtoInvokerImpl(LlvmToolChain toolChain, Path execPath) {
+        this.toolChain = toolChain;
+        this.execPath = execPath;
+    }
+
+    public void setMessageHandler(ToolMessageHandler messageHandler) {
+        this.messageHandler = Assert.checkNotNullParam("messageHandler", messageHandler);
+    }
+
+    public ToolMessageHandler getMessageHandler() {
+        return messageHandler;
+    }
+
+    public Path getPath() {
+        return execPath;
+    }
+
+    public LlvmToolChain getTool() {
+        return toolChain;
+    }
+
+    public void addModuleFilePath(Path path) {
+        modulePaths.add(Assert.checkNotNullParam("path", path));
+    }
+
+    public void addExportedSymbol(String name) {
+        exportedSymbols.add(Assert.checkNotNullParam("name", name));
+    }
+
+    public void setResponseFilePath(Path path) {
+        responseFilePath = path;
+    }
+
+    public void setCacheDirectory(Path path) {
+        cacheDirectory = path;
+    }
+
+    public void setThreadCount(int threadCount) {
+        Assert.checkMinimumParameter("threadCount", 1, threadCount);
+        this.threadCount = threadCount;
+    }
+
+    public void setRelocationModel(RelocationModel relocationModel) {
+        this.relocationModel = Assert.checkNotNullParam("relocationModel", relocationModel);
+    }
+
+    public void setOptions(List<String> options) {
+        this.options = options;
+    }
+
+    public void invoke() throws IOException {
+        Platform platform = toolChain.getPlatform();
+        List<String> args = new ArrayList<>();
+        args.add("-thinlto-action=run");
+        args.add("-mtriple=" + platform.getCpu().toString() + "-" + platform.getOs().toString() + "-" + platform.getAbi().toString());
+        args.add("--relocation-model=" + relocationModel.value);
+        args.add("-thinlto-threads=" + threadCount);
+        if (cacheDirectory != null) {
+            args.add("-thinlto-cache-dir=" + cacheDirectory);
+        }
+        for (String exportedSymbol : exportedSymbols) {
+            args.add("-exported-symbol=" + exportedSymbol);
+        }
+        args.addAll(options);
+        for (Path modulePath : modulePaths) {
+            args.add(modulePath.toString());
+        }
+        List<String> cmd = new ArrayList<>();
+        cmd.add(execPath.toString());
+        if (responseFilePath != null) {
+            List<String> lines = new ArrayList<>(args.size());
+            for (String arg : args) {
+                lines.add(quote(arg));
+            }
+            Files.write(responseFilePath, lines, StandardCharsets.UTF_8);
+            cmd.add("@" + responseFilePath);
+        } else {
+            cmd.addAll(args);
+        }
+        StringBuilder b = new StringBuilder();
+        OutputDestination errorHandler = OutputDestination.of(b, StandardCharsets.UTF_8);
+        ProcessBuilder pb = new ProcessBuilder();
+        pb.command(cmd);
+        pb.environment().put("LC_ALL", "C");
+        pb.environment().put("LANG", "C");
+        InputSource.empty().transferTo(OutputDestination.of(pb, errorHandler, OutputDestination.discarding(), p -> {
+            int ev = p.exitValue();
+            ToolMessageHandler.Level level = ev == 0 ? ToolMessageHandler.Level.WARNING : ToolMessageHandler.Level.ERROR;
+            if (! b.isEmpty()) {
+                if (ev != 0) {
+                    b.append("\n(exit code = ").append(ev).append(')');
+                }
+                messageHandler.handleMessage(this, level, "<thinlto>", -1, -1, b.toString());
+            } else if (ev != 0) {
+                messageHandler.handleMessage(this, level, "<thinlto>", -1, -1, "Tool execution failed (exit code = " + ev + ")");
+            }
+        }));
+    }
+
+    private static String quote(String arg) {
+        // response files are tokenized like a GNU shell command line
+        return "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
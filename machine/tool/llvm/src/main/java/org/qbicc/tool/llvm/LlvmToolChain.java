@@ -31,6 +31,13 @@ public interface LlvmToolChain extends Tool {
 
     LlvmObjCopyInvoker newLlvmObjCopyInvoker();
 
+    /**
+     * Get a new invoker for the {@code llvm-lto} tool.
+     *
+     * @return the invoker, or {@code null} if the tool chain has no {@code llvm-lto} executable
+     */
+    LlvmLtoInvoker newLlvmLtoInvoker();
+
     static Iterable<LlvmToolChain> findAllLlvmToolChains(Platform platform, Predicate<? super LlvmToolChain> filter, ClassLoader classLoader) {
         Path llcPath = ToolUtil.findExecutable("llc");
         if (llcPath != null) {
@@ -50,7 +57,9 @@ public interface LlvmToolChain extends Tool {
                     Matcher matcher = Llvm.LLVM_VERSION_PATTERN.matcher(stdOut);
                     if (matcher.find()) {
                         String version = matcher.group(1);
-                        return List.of(new LlvmToolChainImpl(llcPath, optPath, objCopyPath, platform, version));
+                        // optional; only needed for ThinLTO
+                        Path ltoPath = ToolUtil.findExecutable("llvm-lto");
+                        return List.of(new LlvmToolChainImpl(llcPath, optPath, objCopyPath, ltoPath, platform, version));
                     }
                     Llvm.log.warn("Failed to identify LLVM version string; skipping");
                 } else {
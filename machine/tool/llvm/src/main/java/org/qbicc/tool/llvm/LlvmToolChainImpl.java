@@ -9,13 +9,15 @@ final class LlvmToolChainImpl implements LlvmToolChain {
     private final Path llcPath;
     private final Path optPath;
     private final Path objCopyPath;
+    private final Path ltoPath;
     private final Platform platform;
     private final String version;
 
-    LlvmToolChainImpl(final Path llcPath, final Path optPath, Path objCopyPath, final Platform platform, final String version) {
+    LlvmToolChainImpl(final Path llcPath, final Path optPath, Path objCopyPath, Path ltoPath, final Platform platform, final String version) {
         this.llcPath = llcPath;
         this.optPath = optPath;
         this.objCopyPath = objCopyPath;
+        this.ltoPath = ltoPath;
         this.platform = platform;
         this.version = version;
     }
@@ -32,6 +34,10 @@ final class LlvmToolChainImpl implements LlvmToolChain {
         return new LlvmObjCopyInvokerImpl(this, objCopyPath);
     }
 
+    public LlvmLtoInvoker newLlvmLtoInvoker() {
+        return ltoPath == null ? null : new LlvmLtoInvokerImpl(this, ltoPath);
+    }
+
     public Platform getPlatform() {
         return platform;
     }
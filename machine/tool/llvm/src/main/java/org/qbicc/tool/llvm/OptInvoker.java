@@ -11,4 +11,11 @@ public interface OptInvoker extends LlvmInvoker {
     void addOptimizationPass(OptPass level);
 
     void setOptions(List<String> cmd);
+
+    /**
+     * Set whether the output should be bitcode carrying a ThinLTO module summary.
+     *
+     * @param thinLto {@code true} to emit ThinLTO bitcode
+     */
+    void setThinLtoBitCode(boolean thinLto);
 }
@@ -13,6 +13,7 @@ import org.qbicc.machine.arch.Platform;
 final class OptInvokerImpl extends AbstractLlvmInvoker implements OptInvoker {
     private List<OptPass> passes = new ArrayList<>();
     private List<String> options = List.of();
+    private boolean thinLto;
 
     OptInvokerImpl(final LlvmToolChainImpl tool, final Path path) {
         super(tool, path);
@@ -28,9 +29,16 @@ final class OptInvokerImpl extends AbstractLlvmInvoker implements OptInvoker {
         for (OptPass pass : passes) {
             cmd.add("-" + pass.name);
         }
+        if (thinLto) {
+            cmd.add("--thinlto-bc");
+        }
         cmd.addAll(options);
     }
 
+    public void setThinLtoBitCode(boolean thinLto) {
+        this.thinLto = thinLto;
+    }
+
     public void setOptions(List<String> options) {
         this.options = options;
     }
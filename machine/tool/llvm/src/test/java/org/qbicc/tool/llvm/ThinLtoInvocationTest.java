@@ -0,0 +1,168 @@
+package org.qbicc.tool.llvm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.machine.tool.ToolInvoker;
+import org.qbicc.machine.tool.ToolMessageHandler;
+import org.qbicc.machine.tool.process.InputSource;
+import org.qbicc.machine.tool.process.OutputDestination;
+
+/**
+ * Smoke tests for the ThinLTO path through the tool chain, using stand-in {@code opt} and {@code llvm-lto} scripts
+ * which record their arguments.
+ */
+@DisabledOnOs(OS.WINDOWS)
+public class ThinLtoInvocationTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<String> messages = new ArrayList<>();
+
+    @Test
+    public void testOptEmitsThinLtoBitCode() throws IOException {
+        LlvmToolChain toolChain = toolChain();
+        Path input = Files.writeString(tempDir.resolve("a.ll"), "; module a", StandardCharsets.UTF_8);
+        Path output = tempDir.resolve("a.bc");
+        OptInvoker optInvoker = toolChain.newOptInvoker();
+        optInvoker.setMessageHandler(this::handleMessage);
+        optInvoker.addOptimizationPass(OptPass.RewriteStatepointsForGc);
+        optInvoker.addOptimizationPass(OptPass.AlwaysInline);
+        optInvoker.setThinLtoBitCode(true);
+        optInvoker.setOptions(List.of("-O2"));
+        optInvoker.setSource(InputSource.from(input));
+        optInvoker.setDestination(OutputDestination.of(output));
+        optInvoker.invoke();
+
+        assertEquals(List.of(), messages);
+        assertEquals("; module a", Files.readString(output, StandardCharsets.UTF_8));
+        List<String> args = Files.readAllLines(tempDir.resolve("opt.args"), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+            "-mtriple=" + triple(toolChain.getPlatform()),
+            "-rewrite-statepoints-for-gc",
+            "-always-inline",
+            "--thinlto-bc",
+            "-O2"
+        ), args);
+    }
+
+    @Test
+    public void testOptWithoutThinLto() throws IOException {
+        OptInvoker optInvoker = toolChain().newOptInvoker();
+        optInvoker.setMessageHandler(this::handleMessage);
+        optInvoker.addOptimizationPass(OptPass.RewriteStatepointsForGc);
+        optInvoker.setSource(InputSource.from("; module a"));
+        optInvoker.invoke();
+
+        assertEquals(List.of(), messages);
+        assertFalse(Files.readAllLines(tempDir.resolve("opt.args"), StandardCharsets.UTF_8).contains("--thinlto-bc"));
+    }
+
+    @Test
+    public void testLtoLinkThroughResponseFile() throws IOException {
+        LlvmToolChain toolChain = toolChain();
+        // a space in the path must survive the response file
+        Path moduleDir = Files.createDirectories(tempDir.resolve("output dir"));
+        Path first = Files.writeString(moduleDir.resolve("first.bc"), "first", StandardCharsets.UTF_8);
+        Path second = Files.writeString(moduleDir.resolve("second.bc"), "second", StandardCharsets.UTF_8);
+        Path responseFile = tempDir.resolve("thinlto.rsp");
+        LlvmLtoInvoker ltoInvoker = toolChain.newLlvmLtoInvoker();
+        assertNotNull(ltoInvoker);
+        ltoInvoker.setMessageHandler(this::handleMessage);
+        ltoInvoker.addModuleFilePath(first);
+        ltoInvoker.addModuleFilePath(second);
+        ltoInvoker.addExportedSymbol("main");
+        ltoInvoker.addExportedSymbol("a \"quoted\" symbol");
+        ltoInvoker.setResponseFilePath(responseFile);
+        ltoInvoker.setCacheDirectory(tempDir.resolve("cache"));
+        ltoInvoker.setThreadCount(4);
+        ltoInvoker.setRelocationModel(RelocationModel.Pic);
+        ltoInvoker.setOptions(List.of("-O2"));
+        ltoInvoker.invoke();
+
+        assertEquals(List.of(), messages);
+        assertTrue(Files.exists(responseFile));
+        List<String> args = Files.readAllLines(tempDir.resolve("llvm-lto.args"), StandardCharsets.UTF_8);
+        assertEquals(List.of(
+            "-thinlto-action=run",
+            "-mtriple=" + triple(toolChain.getPlatform()),
+            "--relocation-model=pic",
+            "-thinlto-threads=4",
+            "-thinlto-cache-dir=" + tempDir.resolve("cache"),
+            "-exported-symbol=main",
+            "-exported-symbol=a \"quoted\" symbol",
+            "-O2",
+            first.toString(),
+            second.toString()
+        ), args);
+        // the objects are found where the tool writes them
+        assertTrue(Files.exists(ltoInvoker.getObjectFilePath(first)));
+        assertTrue(Files.exists(ltoInvoker.getObjectFilePath(second)));
+    }
+
+    @Test
+    public void testLtoFailureIsReported() throws IOException {
+        LlvmLtoInvoker ltoInvoker = toolChain().newLlvmLtoInvoker();
+        ltoInvoker.setMessageHandler(this::handleMessage);
+        ltoInvoker.addModuleFilePath(tempDir.resolve("fail.bc"));
+        ltoInvoker.invoke();
+
+        // the exit is checked while the error output is still being read, so the message need not include it
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).startsWith("ERROR: "), messages.get(0));
+        assertTrue(messages.get(0).contains("exit code = 1"), messages.get(0));
+    }
+
+    @Test
+    public void testNoLlvmLto() {
+        LlvmToolChain toolChain = new LlvmToolChainImpl(tempDir.resolve("llc"), tempDir.resolve("opt"), null, null, Platform.HOST_PLATFORM, "15.0.0");
+        assertNull(toolChain.newLlvmLtoInvoker());
+    }
+
+    private void handleMessage(ToolInvoker invoker, ToolMessageHandler.Level level, String file, int line, int column, String message) {
+        messages.add(level + ": " + message);
+    }
+
+    private LlvmToolChain toolChain() throws IOException {
+        // opt copies its input to its output
+        Path opt = script("opt",
+            "printf '%s\\n' \"$@\" > \"$(dirname \"$0\")/opt.args\"",
+            "cat"
+        );
+        // llvm-lto writes an empty object next to every module, as the real tool does with -thinlto-action=run
+        Path lto = script("llvm-lto",
+            "case \"$1\" in @*) eval \"set -- $(tr '\\n' ' ' < \"${1#@}\")\";; esac",
+            "printf '%s\\n' \"$@\" > \"$(dirname \"$0\")/llvm-lto.args\"",
+            "for arg in \"$@\"; do",
+            "  case \"$arg\" in",
+            "    */fail.bc) printf 'failed to link' >&2; exit 1;;",
+            "    *.bc) : > \"$arg.thinlto.o\";;",
+            "  esac",
+            "done"
+        );
+        return new LlvmToolChainImpl(tempDir.resolve("llc"), opt, null, lto, Platform.HOST_PLATFORM, "15.0.0");
+    }
+
+    private Path script(String name, String... lines) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, "#!/bin/sh\n" + String.join("\n", lines) + "\n", StandardCharsets.UTF_8);
+        Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwxr-xr-x"));
+        return path;
+    }
+
+    private static String triple(Platform platform) {
+        return platform.getCpu().toString() + "-" + platform.getOs().toString() + "-" + platform.getAbi().toString();
+    }
+}
@@ -93,9 +93,11 @@ import org.qbicc.plugin.llvm.LLVMCompilerImpl;
 import org.qbicc.plugin.llvm.LLVMDefaultModuleCompileStage;
 import org.qbicc.plugin.llvm.LLVMEmscriptenCompiler;
 import org.qbicc.plugin.llvm.LLVMGenerator;
+import org.qbicc.plugin.llvm.LLVMObjectCache;
 import org.qbicc.plugin.llvm.LLVMIntrinsics;
 import org.qbicc.plugin.llvm.LLVMReferencePointerFactory;
 import org.qbicc.plugin.llvm.LLVMStripStackMapStage;
+import org.qbicc.plugin.llvm.LLVMThinLtoStage;
 import org.qbicc.plugin.lowering.AbortingThrowLoweringBasicBlockBuilder;
 import org.qbicc.plugin.lowering.BooleanAccessCopier;
 import org.qbicc.plugin.lowering.FunctionLoweringElementHandler;
@@ -126,11 +128,18 @@ import org.qbicc.plugin.native_.PointerTypeResolver;
 import org.qbicc.plugin.native_.StructMemberAccessBasicBlockBuilder;
 import org.qbicc.plugin.nativeimage.FeatureProcessor;
 import org.qbicc.plugin.objectmonitor.ObjectMonitorBasicBlockBuilder;
+import org.qbicc.plugin.opt.BranchProbabilityBasicBlockBuilder;
+import org.qbicc.plugin.opt.ColdPathVisitor;
+import org.qbicc.plugin.opt.ExecutionProfile;
 import org.qbicc.plugin.opt.FinalFieldLoadOptimizer;
+import org.qbicc.plugin.opt.GlobalMemoryTrackingVisitor;
+import org.qbicc.plugin.opt.GlobalValueNumberingVisitor;
 import org.qbicc.plugin.opt.GotoRemovingVisitor;
 import org.qbicc.plugin.opt.InliningBasicBlockBuilder;
+import org.qbicc.plugin.opt.InstrumentingBasicBlockBuilder;
 import org.qbicc.plugin.opt.LocalMemoryTrackingBasicBlockBuilder;
 import org.qbicc.plugin.opt.PhiOptimizerVisitor;
+import org.qbicc.plugin.opt.ProfileCounterTableEmitter;
 import org.qbicc.plugin.opt.SimpleOptBasicBlockBuilder;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotGenerator;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotVisitor;
@@ -189,6 +198,8 @@ public class Main implements Callable<DiagnosticContext> {
     private final boolean optMemoryTracking;
     private final boolean optPhis;
     private final boolean optGotos;
+    private final boolean optGvn;
+    private final boolean optBranchProbabilities;
     private final boolean optInlining;
     private final boolean optEscapeAnalysis;
     private final Platform platform;
@@ -200,6 +211,15 @@ public class Main implements Callable<DiagnosticContext> {
     private final Backend backend;
     private final List<String> optOptions;
     private final List<String> llcOptions;
+    private final Path llvmObjectCachePath;
+    private final Path classFileCachePath;
+    private final List<String> preloadPackages;
+    private final boolean llvmEmitObjectFiles;
+    private final boolean llvmKeepIntermediates;
+    private final int llvmUnitSize;
+    private final boolean llvmThinLto;
+    private final boolean instrument;
+    private final Path profileUsePath;
 
     Main(Builder builder) {
         outputPath = builder.outputPath;
@@ -215,6 +235,8 @@ public class Main implements Callable<DiagnosticContext> {
         optInlining = builder.optInlining;
         optPhis = builder.optPhis;
         optGotos = builder.optGotos;
+        optGvn = builder.optGvn;
+        optBranchProbabilities = builder.optBranchProbabilities;
         optEscapeAnalysis = builder.optEscapeAnalysis;
         platform = builder.platform;
         isWasm = platform.getCpu() == Cpu.WASM32;
@@ -224,6 +246,15 @@ public class Main implements Callable<DiagnosticContext> {
         bootPaths.addAll(builder.bootPathsPrepend);
         optOptions = builder.optOptions;
         llcOptions = builder.llcOptions;
+        llvmObjectCachePath = builder.llvmObjectCachePath;
+        classFileCachePath = builder.classFileCachePath;
+        preloadPackages = builder.preloadPackages;
+        llvmEmitObjectFiles = builder.llvmEmitObjectFiles;
+        llvmKeepIntermediates = builder.llvmKeepIntermediates;
+        llvmUnitSize = builder.llvmUnitSize;
+        instrument = builder.instrument;
+        profileUsePath = builder.profileUsePath;
+        llvmThinLto = builder.llvmThinLto;
         // add core things
         bootPaths.add(getCoreComponent("qbicc-runtime-api"));
         bootPaths.add(getCoreComponent("qbicc-runtime-linux"));
@@ -277,6 +308,10 @@ public class Main implements Callable<DiagnosticContext> {
         int errors = initialContext.errors();
         if (errors == 0) {
             builder.setOutputDirectory(outputPath);
+            builder.setClassFileCacheDirectory(classFileCachePath);
+            for (String preloadPackage : preloadPackages) {
+                builder.addPreloadPackage(preloadPackage.replace('.', '/'));
+            }
             // process the class paths
             try {
                 classPathResolver.resolveClassPath(initialContext, builder::addBootClassPathItem, bootPaths);
@@ -469,6 +504,15 @@ public class Main implements Callable<DiagnosticContext> {
                                     vm.doAttached(initThread, vm::initialize2);
                                 });
                                 builder.addPreHook(Phase.ADD, new AddMainClassHook());
+                                if (profileUsePath != null) {
+                                    builder.addPreHook(Phase.ADD, compilationContext -> {
+                                        try {
+                                            ExecutionProfile.get(compilationContext).load(profileUsePath);
+                                        } catch (IOException e) {
+                                            compilationContext.error("Failed to read profile: %s", e);
+                                        }
+                                    });
+                                }
                                 if (nogc) {
                                     builder.addPreHook(Phase.ADD, new NoGcSetupHook());
                                 }
@@ -499,6 +543,12 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ConstantBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, ArrayLengthBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                                if (optBranchProbabilities) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, BranchProbabilityBasicBlockBuilder::new);
+                                }
+                                if (instrument) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, InstrumentingBasicBlockBuilder::new);
+                                }
                                 if (optMemoryTracking) {
                                     // TODO: breaks addr_of; should only be done in ANALYZE and then only if addr_of wasn't taken (alias)
                                     // builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
@@ -537,6 +587,15 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.ANALYZE, PhiOptimizerVisitor::new);
                                 }
+                                if (optGvn) {
+                                    builder.addCopyFactory(Phase.ANALYZE, GlobalValueNumberingVisitor::new);
+                                }
+                                if (optMemoryTracking) {
+                                    builder.addCopyFactory(Phase.ANALYZE, GlobalMemoryTrackingVisitor::new);
+                                }
+                                if (optBranchProbabilities) {
+                                    builder.addCopyFactory(Phase.ANALYZE, ColdPathVisitor::new);
+                                }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAnalyzePhase);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, FinalFieldLoadOptimizer::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, ThreadLocalBasicBlockBuilder::new);
@@ -574,6 +633,15 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.LOWER, PhiOptimizerVisitor::new);
                                 }
+                                if (optGvn) {
+                                    builder.addCopyFactory(Phase.LOWER, GlobalValueNumberingVisitor::new);
+                                }
+                                if (optMemoryTracking) {
+                                    builder.addCopyFactory(Phase.LOWER, GlobalMemoryTrackingVisitor::new);
+                                }
+                                if (optBranchProbabilities) {
+                                    builder.addCopyFactory(Phase.LOWER, ColdPathVisitor::new);
+                                }
                                 builder.addCopyFactory(Phase.LOWER, BooleanAccessCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, MemberPointerCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, ObjectLiteralSerializingVisitor::new);
@@ -612,26 +680,39 @@ public class Main implements Callable<DiagnosticContext> {
                                 LLVMReferencePointerFactory referencePointerFactory =
                                     isWasm ? LLVMReferencePointerFactory.SIMPLE : LLVMReferencePointerFactory.COLLECTED;
 
+                                LLVMObjectCache llvmObjectCache = llvmObjectCachePath == null ? null : new LLVMObjectCache(llvmObjectCachePath);
                                 LLVMCompiler.Factory llvmCompilerFactory =
-                                    isWasm? LLVMEmscriptenCompiler::new : LLVMCompilerImpl::new;
+                                    isWasm? LLVMEmscriptenCompiler::new : (ctx, pie, opt, llc) -> new LLVMCompilerImpl(ctx, pie, opt, llc, llvmObjectCache, llvmEmitObjectFiles, llvmKeepIntermediates);
 
                                 builder.addPreHook(Phase.GENERATE, new StringInternTableEmitter());
+                                if (instrument) {
+                                    builder.addPreHook(Phase.GENERATE, new ProfileCounterTableEmitter());
+                                }
                                 builder.addPreHook(Phase.GENERATE, new SupersDisplayEmitter());
                                 builder.addPreHook(Phase.GENERATE, new DispatchTableEmitter());
 
+                                // with ThinLTO, only the default module is compiled straight to an object file
+                                boolean thinLto = llvmThinLto && ! isWasm;
+                                LLVMCompiler.Factory llvmModuleCompilerFactory =
+                                    thinLto ? (ctx, pie, opt, llc) -> new LLVMCompilerImpl(ctx, pie, opt, llc, null, llvmEmitObjectFiles, llvmKeepIntermediates, true) : llvmCompilerFactory;
+                                LLVMCompileStage llvmCompileStage = compileOutput ? new LLVMCompileStage(isPie, llvmModuleCompilerFactory, optOptions, llcOptions, ! llvmKeepIntermediates) : null;
+
                                 if (llvm) {
-                                    builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0, referencePointerFactory));
+                                    builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0, referencePointerFactory, llvmCompileStage, llvmUnitSize, optBranchProbabilities));
                                 }
 
                                 builder.addPostHook(Phase.GENERATE, new DotGenerator(Phase.GENERATE, graphGenConfig));
                                 if (compileOutput) {
                                     if (llvm) {
-                                        builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie, llvmCompilerFactory, optOptions, llcOptions));
+                                        builder.addPostHook(Phase.GENERATE, llvmCompileStage);
+                                        if (thinLto) {
+                                            builder.addPostHook(Phase.GENERATE, new LLVMThinLtoStage(isPie, llcOptions, llvmObjectCachePath == null ? null : llvmObjectCachePath.resolve("thinlto")));
+                                        }
                                     }
                                 }
                                 if (llvm) {
                                     builder.addPostHook(Phase.GENERATE, new MethodDataEmitter());
-                                    builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput, referencePointerFactory, llvmCompilerFactory, optOptions, llcOptions));
+                                    builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput, referencePointerFactory, llvmCompilerFactory, optOptions, llcOptions, optBranchProbabilities));
                                     if (! isWasm) {
                                         builder.addPostHook(Phase.GENERATE, new LLVMStripStackMapStage());
                                     }
@@ -795,12 +876,23 @@ public class Main implements Callable<DiagnosticContext> {
             .setOptInlining(optionsProcessor.optArgs.optInlining)
             .setOptGotos(optionsProcessor.optArgs.optGotos)
             .setOptPhis(optionsProcessor.optArgs.optPhis)
+            .setOptGvn(optionsProcessor.optArgs.optGvn)
+            .setOptBranchProbabilities(optionsProcessor.optArgs.optBranchProbabilities)
             .setOptEscapeAnalysis(optionsProcessor.optArgs.optEscapeAnalysis)
             .setSmallTypeIds(optionsProcessor.smallTypeIds)
             .setBackend(optionsProcessor.backend)
             .setGraphGenConfig(optionsProcessor.graphGenConfig)
             .setOptOptions(optionsProcessor.optOptions)
             .setLlcOptions(optionsProcessor.llcOptions)
+            .setLlvmObjectCachePath(optionsProcessor.llvmObjectCachePath)
+            .setClassFileCachePath(optionsProcessor.classFileCachePath)
+            .addPreloadPackages(optionsProcessor.preloadPackages)
+            .setLlvmEmitObjectFiles(optionsProcessor.llvmEmitObjectFiles)
+            .setLlvmKeepIntermediates(optionsProcessor.llvmKeepIntermediates)
+            .setLlvmUnitSize(optionsProcessor.llvmUnitSize)
+            .setLlvmThinLto(optionsProcessor.llvmThinLto)
+            .setInstrument(optionsProcessor.instrument)
+            .setProfileUsePath(optionsProcessor.profileUsePath)
             .addLibrarySearchPaths(splitPathString(System.getenv("LIBRARY_PATH")))
             .addLibrarySearchPaths(optionsProcessor.libSearchPaths);
         Platform platform = optionsProcessor.platform;
@@ -961,6 +1053,33 @@ public class Main implements Callable<DiagnosticContext> {
         @CommandLine.Option(names = "--llvm-llc-option", split = ",", description = "Pass options to the LLVM llc command")
         private List<String> llcOptions = new ArrayList<String>();
 
+        @CommandLine.Option(names = "--llvm-object-cache", description = "Specify a directory in which to cache compiled object files between builds")
+        private Path llvmObjectCachePath;
+
+        @CommandLine.Option(names = "--class-file-cache", description = "Specify a directory in which to cache parsed class library metadata between builds")
+        private Path classFileCachePath;
+
+        @CommandLine.Option(names = "--preload-package", split = ",", description = "Define the classes of the given bootstrap package and its subpackages in parallel before the ADD phase (* for all packages)")
+        private List<String> preloadPackages = new ArrayList<>();
+
+        @CommandLine.Option(names = "--llvm-emit-obj", negatable = true, defaultValue = "false", description = "Enable/disable emission of object files directly from llc instead of assembling its output")
+        private boolean llvmEmitObjectFiles;
+
+        @CommandLine.Option(names = "--llvm-keep-intermediates", negatable = true, defaultValue = "false", description = "Keep the intermediate LLVM IR and opt output files instead of piping them between tools")
+        private boolean llvmKeepIntermediates;
+
+        @CommandLine.Option(names = "--llvm-unit-size", defaultValue = "1", description = "Pack types into LLVM compilation units of about this many functions and data objects each (1 generates one unit per type)")
+        private int llvmUnitSize;
+
+        @CommandLine.Option(names = "--llvm-thin-lto", negatable = true, defaultValue = "false", description = "Enable/disable compiling LLVM modules with a ThinLTO link (requires llvm-lto)")
+        private boolean llvmThinLto;
+
+        @CommandLine.Option(names = "--instrument", negatable = true, defaultValue = "false", description = "Enable/disable counting of call sites, allocation sites, and branches, which the program writes to a profile file on exit")
+        private boolean instrument;
+
+        @CommandLine.Option(names = "--profile-use", description = "Optimize using the execution counts of a profile file written by an instrumented build")
+        private Path profileUsePath;
+
         static class OptArgs {
             @CommandLine.Option(names = "--opt-memory-tracking", negatable = true, defaultValue = "false", description = "Enable/disable redundant store/load tracking and elimination")
             boolean optMemoryTracking;
@@ -970,6 +1089,10 @@ public class Main implements Callable<DiagnosticContext> {
             boolean optPhis;
             @CommandLine.Option(names = "--no-opt-gotos", negatable = true, defaultValue = "true", description = "Enable/disable `goto` elimination")
             boolean optGotos;
+            @CommandLine.Option(names = "--opt-gvn", negatable = true, defaultValue = "false", description = "Enable/disable global value numbering of invariant loads")
+            boolean optGvn;
+            @CommandLine.Option(names = "--no-opt-branch-probabilities", negatable = true, defaultValue = "true", description = "Enable/disable estimation of branch probabilities from hints, profiles, and cold paths")
+            boolean optBranchProbabilities;
             @CommandLine.Option(names = "--escape-analysis", negatable = true, defaultValue = "false", description = "Enable/disable escape analysis")
             boolean optEscapeAnalysis;
         }
@@ -1061,6 +1184,8 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean optInlining = false;
         private boolean optPhis = true;
         private boolean optGotos = true;
+        private boolean optGvn = false;
+        private boolean optBranchProbabilities = true;
         private boolean optEscapeAnalysis = false;
         private GraphGenConfig graphGenConfig;
         private boolean smallTypeIds = false;
@@ -1070,6 +1195,15 @@ public class Main implements Callable<DiagnosticContext> {
         private ClassPathResolver classPathResolver;
         private List<String> optOptions = new ArrayList<>();
         private List<String> llcOptions = new ArrayList<>();
+        private Path llvmObjectCachePath;
+        private Path classFileCachePath;
+        private final List<String> preloadPackages = new ArrayList<>();
+        private boolean llvmEmitObjectFiles = false;
+        private boolean llvmKeepIntermediates = false;
+        private int llvmUnitSize = 1;
+        private boolean llvmThinLto = false;
+        private boolean instrument = false;
+        private Path profileUsePath;
 
         Builder() {}
 
@@ -1217,6 +1351,16 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptGvn(boolean optGvn) {
+            this.optGvn = optGvn;
+            return this;
+        }
+
+        public Builder setOptBranchProbabilities(boolean optBranchProbabilities) {
+            this.optBranchProbabilities = optBranchProbabilities;
+            return this;
+        }
+
         public Builder setOptEscapeAnalysis(boolean optEscapeAnalysis) {
             this.optEscapeAnalysis = optEscapeAnalysis;
             return this;
@@ -1262,6 +1406,51 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setLlvmObjectCachePath(Path llvmObjectCachePath) {
+            this.llvmObjectCachePath = llvmObjectCachePath;
+            return this;
+        }
+
+        public Builder setInstrument(boolean instrument) {
+            this.instrument = instrument;
+            return this;
+        }
+
+        public Builder setProfileUsePath(Path profileUsePath) {
+            this.profileUsePath = profileUsePath;
+            return this;
+        }
+
+        public Builder setClassFileCachePath(Path classFileCachePath) {
+            this.classFileCachePath = classFileCachePath;
+            return this;
+        }
+
+        public Builder addPreloadPackages(List<String> packageNames) {
+            preloadPackages.addAll(packageNames);
+            return this;
+        }
+
+        public Builder setLlvmEmitObjectFiles(boolean llvmEmitObjectFiles) {
+            this.llvmEmitObjectFiles = llvmEmitObjectFiles;
+            return this;
+        }
+
+        public Builder setLlvmKeepIntermediates(boolean llvmKeepIntermediates) {
+            this.llvmKeepIntermediates = llvmKeepIntermediates;
+            return this;
+        }
+
+        public Builder setLlvmUnitSize(int llvmUnitSize) {
+            this.llvmUnitSize = llvmUnitSize;
+            return this;
+        }
+
+        public Builder setLlvmThinLto(boolean llvmThinLto) {
+            this.llvmThinLto = llvmThinLto;
+            return this;
+        }
+
         public Main build() {
             return new Main(this);
         }
@@ -57,12 +57,24 @@ public class QbiccCompileMojo extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private boolean optGotos;
 
+    @Parameter(defaultValue = "false")
+    private boolean optGvn;
+
+    @Parameter(defaultValue = "true")
+    private boolean optBranchProbabilities;
+
     @Parameter(defaultValue = "false")
     private boolean optInlining;
 
     @Parameter(defaultValue = "true")
     private boolean optPhis;
 
+    @Parameter(defaultValue = "false")
+    private boolean instrument;
+
+    @Parameter
+    private File profileUse;
+
     @Parameter(defaultValue = "false", property = "skipNative")
     private boolean skip;
 
@@ -116,8 +128,14 @@ public class QbiccCompileMojo extends AbstractMojo {
         builder.setIsPie(true);
         builder.setOptEscapeAnalysis(optEscapeAnalysis);
         builder.setOptGotos(optGotos);
+        builder.setOptGvn(optGvn);
+        builder.setOptBranchProbabilities(optBranchProbabilities);
         builder.setOptInlining(optInlining);
         builder.setOptPhis(optPhis);
+        builder.setInstrument(instrument);
+        if (profileUse != null) {
+            builder.setProfileUsePath(profileUse.toPath());
+        }
         builder.setClassPathResolver(this::resolveClassPath);
         List<File> librarySearchPaths = this.librarySearchPaths;
         if (librarySearchPaths != null && ! librarySearchPaths.isEmpty()) {
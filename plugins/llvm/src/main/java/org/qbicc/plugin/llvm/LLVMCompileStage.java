@@ -1,12 +1,14 @@
 package org.qbicc.plugin.llvm;
 
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.machine.tool.process.InputSource;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 
 public class LLVMCompileStage implements Consumer<CompilationContext> {
@@ -14,12 +16,34 @@ public class LLVMCompileStage implements Consumer<CompilationContext> {
     private final LLVMCompiler.Factory llvmCompilerFactory;
     private List<String> optOptions;
     private List<String> llcOptions;
+    private final boolean streamModules;
+    // the compiler holds reusable tool invokers, so keep one per compiler thread
+    private final ThreadLocal<LLVMCompiler> compilers = new ThreadLocal<>();
 
     public LLVMCompileStage(final boolean isPie, final LLVMCompiler.Factory llvmCompilerFactory, List<String> optOptions, List<String> llcOptions) {
+        this(isPie, llvmCompilerFactory, optOptions, llcOptions, false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param isPie {@code true} to generate position-independent code
+     * @param llvmCompilerFactory the compiler factory
+     * @param optOptions the extra options to pass to {@code opt}
+     * @param llcOptions the extra options to pass to {@code llc}
+     * @param streamModules {@code true} to stream generated modules directly into the compiler without writing
+     *      them to disk first
+     */
+    public LLVMCompileStage(final boolean isPie, final LLVMCompiler.Factory llvmCompilerFactory, List<String> optOptions, List<String> llcOptions, boolean streamModules) {
         this.isPie = isPie;
         this.llvmCompilerFactory = llvmCompilerFactory;
         this.optOptions = optOptions;
         this.llcOptions = llcOptions;
+        this.streamModules = streamModules;
+    }
+
+    boolean isStreamModules() {
+        return streamModules;
     }
 
     public void accept(final CompilationContext context) {
@@ -29,21 +53,50 @@ public class LLVMCompileStage implements Consumer<CompilationContext> {
             return;
         }
 
-        Iterator<Map.Entry<LoadedTypeDefinition, Path>> iterator = llvmState.getModulePaths().entrySet().iterator();
-        context.runParallelTask(ctxt -> {
-            LLVMCompiler compiler = llvmCompilerFactory.of(context, isPie, optOptions, llcOptions);
-            for (;;) {
-                Map.Entry<LoadedTypeDefinition, Path> entry;
-                synchronized (iterator) {
-                    if (! iterator.hasNext()) {
-                        return;
-                    }
-                    entry = iterator.next();
-                }
-                LoadedTypeDefinition typeDefinition = entry.getKey();
-                Path modulePath = entry.getValue();
-                compiler.compileModule(ctxt, typeDefinition, modulePath);
+        // modules which were compiled as soon as they were generated are skipped here
+        Map<LoadedTypeDefinition, Path> modulePaths = llvmState.getModulePaths();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(modulePaths.size());
+        for (Map.Entry<LoadedTypeDefinition, Path> entry : modulePaths.entrySet()) {
+            LoadedTypeDefinition typeDefinition = entry.getKey();
+            Path modulePath = entry.getValue();
+            if (! llvmState.isCompiled(typeDefinition)) {
+                tasks.add(context.submitTask(ctxt -> {
+                    compileModule(ctxt, typeDefinition, modulePath);
+                    return null;
+                }));
             }
-        });
+        }
+        context.joinTasks(tasks);
+    }
+
+    /**
+     * Compile a single generated module on the current thread.
+     *
+     * @param context the compilation context
+     * @param typeDefinition the type of the module
+     * @param modulePath the path of the generated module
+     */
+    void compileModule(final CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath) {
+        compileModule(context, typeDefinition, modulePath, InputSource.from(modulePath));
+    }
+
+    /**
+     * Compile a single generated module from the given source on the current thread.
+     *
+     * @param context the compilation context
+     * @param typeDefinition the type of the module
+     * @param modulePath the nominal path of the generated module
+     * @param moduleSource the source of the module text
+     */
+    void compileModule(final CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath, InputSource moduleSource) {
+        LLVMState llvmState = context.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new);
+        if (llvmState.markCompiled(typeDefinition)) {
+            LLVMCompiler compiler = compilers.get();
+            if (compiler == null) {
+                compiler = llvmCompilerFactory.of(context, isPie, optOptions, llcOptions);
+                compilers.set(compiler);
+            }
+            compiler.compileModule(context, typeDefinition, modulePath, moduleSource);
+        }
     }
 }
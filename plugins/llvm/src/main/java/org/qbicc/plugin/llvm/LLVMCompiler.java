@@ -1,8 +1,13 @@
 package org.qbicc.plugin.llvm;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.context.Location;
+import org.qbicc.machine.tool.process.InputSource;
+import org.qbicc.machine.tool.process.OutputDestination;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -11,4 +16,25 @@ public interface LLVMCompiler {
         LLVMCompiler of(CompilationContext ctx, boolean isPie, List<String> optOptions, List<String> llcOptions);
     }
     void compileModule(CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath);
+
+    /**
+     * Compile a module whose text is provided by the given source rather than by the module file.  The module path
+     * is still used to name the output files.  By default, the module text is written to the module path and then
+     * compiled from there.
+     *
+     * @param context the compilation context
+     * @param typeDefinition the type of the module
+     * @param modulePath the nominal path of the module file
+     * @param moduleSource the source of the module text
+     */
+    default void compileModule(CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath, InputSource moduleSource) {
+        try {
+            Files.createDirectories(modulePath.getParent());
+            moduleSource.transferTo(OutputDestination.of(modulePath));
+        } catch (IOException e) {
+            context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "Failed to write module: %s", e.toString());
+            return;
+        }
+        compileModule(context, typeDefinition, modulePath);
+    }
 }
@@ -10,6 +10,7 @@ import org.qbicc.machine.tool.process.InputSource;
 import org.qbicc.machine.tool.process.OutputDestination;
 import org.qbicc.plugin.linker.Linker;
 import org.qbicc.tool.llvm.LlcInvoker;
+import org.qbicc.tool.llvm.LlvmInvoker;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.tool.llvm.OptInvoker;
 import org.qbicc.tool.llvm.OptPass;
@@ -17,23 +18,87 @@ import org.qbicc.tool.llvm.OutputFormat;
 import org.qbicc.tool.llvm.RelocationModel;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
 public class LLVMCompilerImpl implements LLVMCompiler {
     private final LlcInvoker llcInvoker;
     private final OptInvoker optInvoker;
     private final CCompilerInvoker ccInvoker;
+    private final LLVMObjectCache objectCache;
+    private final List<String> cacheKeyParameters;
+    private final boolean emitObjectFiles;
+    private final boolean keepIntermediates;
+    private final boolean thinLto;
 
     public LLVMCompilerImpl(CompilationContext context, boolean isPie, List<String> optOptions, List<String> llcOptions) {
-        llcInvoker = createLlcInvoker(context, isPie, llcOptions);
+        this(context, isPie, optOptions, llcOptions, null, false, true);
+    }
+
+    public LLVMCompilerImpl(CompilationContext context, boolean isPie, List<String> optOptions, List<String> llcOptions, LLVMObjectCache objectCache) {
+        this(context, isPie, optOptions, llcOptions, objectCache, false, true);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param context the compilation context
+     * @param isPie {@code true} to generate position-independent code
+     * @param optOptions the extra options to pass to {@code opt}
+     * @param llcOptions the extra options to pass to {@code llc}
+     * @param objectCache the object file cache, or {@code null} to always compile
+     * @param emitObjectFiles {@code true} to have {@code llc} emit object files directly, or {@code false} to emit
+     *      assembly which is then assembled by the C compiler
+     * @param keepIntermediates {@code true} to write the output of {@code opt} to a file, or {@code false} to pipe it
+     *      straight into {@code llc}
+     */
+    public LLVMCompilerImpl(CompilationContext context, boolean isPie, List<String> optOptions, List<String> llcOptions, LLVMObjectCache objectCache, boolean emitObjectFiles, boolean keepIntermediates) {
+        this(context, isPie, optOptions, llcOptions, objectCache, emitObjectFiles, keepIntermediates, false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param context the compilation context
+     * @param isPie {@code true} to generate position-independent code
+     * @param optOptions the extra options to pass to {@code opt}
+     * @param llcOptions the extra options to pass to {@code llc}
+     * @param objectCache the object file cache, or {@code null} to always compile
+     * @param emitObjectFiles {@code true} to have {@code llc} emit object files directly, or {@code false} to emit
+     *      assembly which is then assembled by the C compiler
+     * @param keepIntermediates {@code true} to write the output of {@code opt} to a file, or {@code false} to pipe it
+     *      straight into {@code llc}
+     * @param thinLto {@code true} to stop after {@code opt} with ThinLTO bitcode which is later compiled by
+     *      {@link LLVMThinLtoStage}, or {@code false} to produce an object file for each module
+     */
+    public LLVMCompilerImpl(CompilationContext context, boolean isPie, List<String> optOptions, List<String> llcOptions, LLVMObjectCache objectCache, boolean emitObjectFiles, boolean keepIntermediates, boolean thinLto) {
+        // with ThinLTO, code generation is done by the ThinLTO stage
+        llcInvoker = thinLto ? null : createLlcInvoker(context, isPie, llcOptions, emitObjectFiles ? OutputFormat.OBJ : OutputFormat.ASM);
         optInvoker = createOptInvoker(context, optOptions);
-        ccInvoker = createCCompilerInvoker(context);
+        if (optInvoker != null) {
+            optInvoker.setThinLtoBitCode(thinLto);
+        }
+        ccInvoker = emitObjectFiles || thinLto ? null : createCCompilerInvoker(context);
+        // the ThinLTO stage has a cache of its own
+        this.objectCache = thinLto ? null : objectCache;
+        this.thinLto = thinLto;
+        this.emitObjectFiles = emitObjectFiles;
+        this.keepIntermediates = keepIntermediates;
+        cacheKeyParameters = this.objectCache == null ? List.of() : createCacheKeyParameters(context, isPie, optOptions, llcOptions, emitObjectFiles);
     }
 
     @Override
     public void compileModule(final CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath) {
+        compileModule(context, typeDefinition, modulePath, InputSource.from(modulePath));
+    }
+
+    @Override
+    public void compileModule(final CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath, InputSource moduleSource) {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
 
         String moduleName = modulePath.getFileName().toString();
@@ -47,40 +112,71 @@ public class LLVMCompilerImpl implements LLVMCompiler {
             Path assemblyPath = modulePath.resolveSibling(assemblyName);
             Path objectPath = modulePath.resolveSibling(objectName);
 
-            optInvoker.setSource(InputSource.from(modulePath));
-            optInvoker.setDestination(OutputDestination.of(optBitCodePath));
-            int errCnt = context.errors();
             try {
-                optInvoker.invoke();
+                Files.createDirectories(objectPath.getParent());
             } catch (IOException e) {
-                if (errCnt == context.errors()) {
-                    // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt` invocation has failed: %s", e.toString());
-                }
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "Failed to create output directory: %s", e.toString());
                 return;
             }
-
-            llcInvoker.setSource(InputSource.from(optBitCodePath));
-            llcInvoker.setDestination(OutputDestination.of(assemblyPath));
-            errCnt = context.errors();
-            try {
-                llcInvoker.invoke();
-            } catch (IOException e) {
-                if (errCnt == context.errors()) {
-                    // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`llc` invocation has failed: %s", e.toString());
+            String cacheKey = null;
+            if (objectCache != null) {
+                // keep the module text, so that a generated module is only written once for both the key and opt
+                byte[] moduleText = null;
+                try {
+                    moduleText = readModule(moduleSource);
+                } catch (IOException e) {
+                    context.warning(Location.builder().setSourceFilePath(modulePath.toString()).build(), "Failed to compute object cache key: %s", e.toString());
+                }
+                if (moduleText != null) {
+                    cacheKey = objectCache.computeKey(moduleText, cacheKeyParameters);
+                    if (objectCache.restore(cacheKey, objectPath)) {
+                        Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
+                        return;
+                    }
+                    final byte[] bytes = moduleText;
+                    moduleSource = InputSource.from(() -> new ByteArrayInputStream(bytes));
+                }
+            }
+            optInvoker.setSource(moduleSource);
+            if (thinLto) {
+                // code generation happens later, once every module has been summarized
+                optInvoker.setDestination(OutputDestination.of(optBitCodePath));
+                if (invoke(context, optInvoker, "opt", modulePath)) {
+                    context.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new).addThinLtoModulePath(typeDefinition, optBitCodePath);
                 }
                 return;
             }
+            llcInvoker.setDestination(OutputDestination.of(emitObjectFiles ? objectPath : assemblyPath));
+            if (keepIntermediates) {
+                optInvoker.setDestination(OutputDestination.of(optBitCodePath));
+                if (! invoke(context, optInvoker, "opt", modulePath)) {
+                    return;
+                }
+                llcInvoker.setSource(InputSource.from(optBitCodePath));
+                if (! invoke(context, llcInvoker, "llc", modulePath)) {
+                    return;
+                }
+            } else {
+                // fuse the two tools with a pipe so that the optimized bitcode never touches the disk
+                optInvoker.setDestination(llcInvoker.invokerAsDestination());
+                if (! invoke(context, optInvoker, "opt", modulePath)) {
+                    return;
+                }
+            }
 
-            // now compile it
-            ccInvoker.setSource(InputSource.from(assemblyPath));
-            ccInvoker.setOutputPath(objectPath);
-            try {
-                ccInvoker.invoke();
-            } catch (IOException e) {
-                context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
-                return;
+            if (! emitObjectFiles) {
+                // now compile it
+                ccInvoker.setSource(InputSource.from(assemblyPath));
+                ccInvoker.setOutputPath(objectPath);
+                try {
+                    ccInvoker.invoke();
+                } catch (IOException e) {
+                    context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
+                    return;
+                }
+            }
+            if (cacheKey != null) {
+                objectCache.store(cacheKey, objectPath);
             }
             Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
         } else {
@@ -88,6 +184,48 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         }
     }
 
+    private static byte[] readModule(InputSource moduleSource) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        moduleSource.transferTo(OutputDestination.of(() -> os));
+        return os.toByteArray();
+    }
+
+    private static boolean invoke(CompilationContext context, LlvmInvoker invoker, String toolName, Path modulePath) {
+        int errCnt = context.errors();
+        try {
+            invoker.invoke();
+            return true;
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`%s` invocation has failed: %s", toolName, e.toString());
+            }
+            return false;
+        }
+    }
+
+    private static List<String> createCacheKeyParameters(CompilationContext context, boolean isPie, List<String> optOptions, List<String> llcOptions, boolean emitObjectFiles) {
+        // everything besides the module text which affects the content of the object file
+        List<String> parameters = new ArrayList<>();
+        parameters.add(context.getPlatform().toString());
+        parameters.add(Boolean.toString(isPie));
+        parameters.add(emitObjectFiles ? "obj" : "asm");
+        LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
+        if (llvmToolChain != null) {
+            parameters.add(llvmToolChain.getVersion());
+        }
+        CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
+        if (cToolChain != null) {
+            parameters.add(cToolChain.getImplementationName());
+            parameters.add(cToolChain.getVersion());
+        }
+        parameters.add("opt");
+        parameters.addAll(optOptions);
+        parameters.add("llc");
+        parameters.addAll(llcOptions);
+        return List.copyOf(parameters);
+    }
+
     private static CCompilerInvoker createCCompilerInvoker(CompilationContext context) {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
         if (cToolChain == null) {
@@ -115,7 +253,7 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         return optInvoker;
     }
 
-    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie, List<String> llcOptions) {
+    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie, List<String> llcOptions, OutputFormat outputFormat) {
         LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
         if (llvmToolChain == null) {
             context.error("No LLVM tool chain is available");
@@ -123,7 +261,7 @@ public class LLVMCompilerImpl implements LLVMCompiler {
         }
         LlcInvoker llcInvoker = llvmToolChain.newLlcInvoker();
         llcInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
-        llcInvoker.setOutputFormat(OutputFormat.ASM);
+        llcInvoker.setOutputFormat(outputFormat);
         llcInvoker.setRelocationModel(isPie ? RelocationModel.Pic : RelocationModel.Static);
         llcInvoker.setOptions(llcOptions);
         return llcInvoker;
@@ -11,14 +11,20 @@ public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContex
     private final boolean isPie;
     private final boolean compileOutput;
     private final LLVMReferencePointerFactory refFactory;
+    private final boolean coldCalls;
     private LLVMCompiler.Factory llvmCompilerFactory;
     private List<String> optOptions;
     private List<String> llcOptions;
 
     public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput, LLVMReferencePointerFactory refFactory, LLVMCompiler.Factory llvmCompilerFactory, List<String> optOptions, List<String> llcOptions) {
+        this(isPie, compileOutput, refFactory, llvmCompilerFactory, optOptions, llcOptions, true);
+    }
+
+    public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput, LLVMReferencePointerFactory refFactory, LLVMCompiler.Factory llvmCompilerFactory, List<String> optOptions, List<String> llcOptions, boolean coldCalls) {
         this.isPie = isPie;
         this.compileOutput = compileOutput;
         this.refFactory = refFactory;
+        this.coldCalls = coldCalls;
         this.llvmCompilerFactory = llvmCompilerFactory;
         this.optOptions = optOptions;
         this.llcOptions = llcOptions;
@@ -26,7 +32,7 @@ public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContex
 
     @Override
     public void accept(CompilationContext context) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0, refFactory);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(context, isPie ? 2 : 0, isPie ? 2 : 0, refFactory, coldCalls);
         DefinedTypeDefinition defaultTypeDefinition = context.getDefaultTypeDefinition();
         Path modulePath = generator.processProgramModule(context.getOrAddProgramModule(defaultTypeDefinition));
         if (compileOutput) {
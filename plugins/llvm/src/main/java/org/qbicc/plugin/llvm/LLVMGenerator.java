@@ -1,14 +1,22 @@
 package org.qbicc.plugin.llvm;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.ValueVisitor;
 import org.qbicc.machine.llvm.LLValue;
+import org.qbicc.machine.llvm.Module;
+import org.qbicc.machine.tool.process.InputSource;
 import org.qbicc.object.ProgramModule;
+import org.qbicc.type.definition.LoadedTypeDefinition;
 
 /**
  *
@@ -17,30 +25,93 @@ public class LLVMGenerator implements Consumer<CompilationContext>, ValueVisitor
     private final int picLevel;
     private final int pieLevel;
     private final LLVMReferencePointerFactory refFactory;
+    private final LLVMCompileStage compileStage;
+    private final int unitSize;
+    private final boolean coldCalls;
 
     public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory) {
+        this(picLevel, pieLevel, refFactory, null);
+    }
+
+    /**
+     * Construct a new instance which compiles each module as soon as it has been generated.
+     *
+     * @param picLevel the PIC level
+     * @param pieLevel the PIE level
+     * @param refFactory the reference pointer factory
+     * @param compileStage the compile stage to hand generated modules to, or {@code null} to only generate modules
+     */
+    public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final LLVMCompileStage compileStage) {
+        this(picLevel, pieLevel, refFactory, compileStage, 1);
+    }
+
+    /**
+     * Construct a new instance which packs program modules into larger compilation units.
+     *
+     * @param picLevel the PIC level
+     * @param pieLevel the PIE level
+     * @param refFactory the reference pointer factory
+     * @param compileStage the compile stage to hand generated modules to, or {@code null} to only generate modules
+     * @param unitSize the target number of functions and data objects per compilation unit, or 1 to generate one
+     *      module per type
+     */
+    public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final LLVMCompileStage compileStage, final int unitSize) {
+        this(picLevel, pieLevel, refFactory, compileStage, unitSize, true);
+    }
+
+    /**
+     * Construct a new instance which packs program modules into larger compilation units.
+     *
+     * @param picLevel the PIC level
+     * @param pieLevel the PIE level
+     * @param refFactory the reference pointer factory
+     * @param compileStage the compile stage to hand generated modules to, or {@code null} to only generate modules
+     * @param unitSize the target number of functions and data objects per compilation unit, or 1 to generate one
+     *      module per type
+     * @param coldCalls {@code true} to mark calls which do not return as {@code cold}, {@code false} to leave the
+     *      placement of such calls to LLVM
+     */
+    public LLVMGenerator(final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final LLVMCompileStage compileStage, final int unitSize, final boolean coldCalls) {
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
         this.refFactory = refFactory;
+        this.compileStage = compileStage;
+        this.unitSize = unitSize;
+        this.coldCalls = coldCalls;
     }
 
     public void accept(final CompilationContext compilationContext) {
-        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel, refFactory);
-        List<ProgramModule> allProgramModules = compilationContext.getAllProgramModules();
-        Iterator<ProgramModule> iterator = allProgramModules.iterator();
-        compilationContext.runParallelTask(ctxt -> {
-            for (;;) {
-                ProgramModule programModule;
-                synchronized (iterator) {
-                    if (! iterator.hasNext()) {
-                        return;
-                    }
-                    programModule = iterator.next();
-                }
-                Path outputFile = generator.processProgramModule(programModule);
+        LLVMModuleGenerator generator = new LLVMModuleGenerator(compilationContext, picLevel, pieLevel, refFactory, coldCalls);
+        List<List<ProgramModule>> units = new LLVMModulePartitioner(unitSize).partition(compilationContext.getAllProgramModules(), compilationContext.getDefaultTypeDefinition());
+        List<CompletableFuture<Path>> tasks = new ArrayList<>(units.size());
+        for (List<ProgramModule> unit : units) {
+            tasks.add(compilationContext.submitTask(ctxt -> {
+                // each unit is named after its first type
+                LoadedTypeDefinition typeDefinition = unit.get(0).getTypeDefinition().load();
                 LLVMState llvmState = ctxt.computeAttachmentIfAbsent(LLVMState.KEY, LLVMState::new);
-                llvmState.addModulePath(programModule.getTypeDefinition().load(), outputFile);
-            }
-        });
+                if (compileStage != null && compileStage.isStreamModules()) {
+                    // hand the module text straight to the tools without an intermediate file
+                    Module module = generator.generateModule(unit);
+                    Path outputFile = ctxt.getOutputFile(typeDefinition, "ll");
+                    llvmState.addModulePath(typeDefinition, outputFile);
+                    compileStage.compileModule(ctxt, typeDefinition, outputFile, InputSource.from(LLVMGenerator::writeModule, module, StandardCharsets.UTF_8));
+                    return outputFile;
+                }
+                Path outputFile = generator.processProgramModules(unit);
+                llvmState.addModulePath(typeDefinition, outputFile);
+                if (compileStage != null) {
+                    // overlap the tool invocations for this module with the generation of the remaining modules
+                    compileStage.compileModule(ctxt, typeDefinition, outputFile);
+                }
+                return outputFile;
+            }));
+        }
+        compilationContext.joinTasks(tasks);
+    }
+
+    private static void writeModule(Module module, Writer writer) throws IOException {
+        BufferedWriter bufferedWriter = new BufferedWriter(writer);
+        module.writeTo(bufferedWriter);
+        bufferedWriter.flush();
     }
 }
@@ -55,6 +55,7 @@ import org.qbicc.type.definition.element.MethodElement;
 
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -71,7 +72,7 @@ final class LLVMModuleDebugInfo {
     private final LLValue file;
     private final MetadataTuple globals;
 
-    LLVMModuleDebugInfo(ProgramModule programModule, final Module module, final CompilationContext ctxt) {
+    LLVMModuleDebugInfo(List<ProgramModule> programModules, final Module module, final CompilationContext ctxt) {
         this.module = module;
         this.ctxt = ctxt;
 
@@ -79,24 +80,51 @@ final class LLVMModuleDebugInfo {
         module.addFlag(ModuleFlagBehavior.Warning, "Dwarf Version", Types.i32, Values.intConstant(4));
         module.metadataTuple("llvm.ident").elem(null, module.metadataTuple().elem(null, metadataString("qbicc")).asRef());
 
-        final DefinedTypeDefinition typeDefinition = programModule.getTypeDefinition();
-        final String fullPath = typeDefinition.getInternalName() + ".java";
-        final int idx = fullPath.lastIndexOf('/');
-        final String dirName, fileName;
-        if (idx == -1) {
-            dirName = "";
-            fileName = fullPath;
+        final DefinedTypeDefinition typeDefinition = programModules.get(0).getTypeDefinition();
+        final String internalName = typeDefinition.getInternalName();
+        final int idx = internalName.lastIndexOf('/');
+        final String simpleName = idx == -1 ? internalName : internalName.substring(idx + 1);
+        if (programModules.size() == 1) {
+            file = getSourceFile(packageOf(internalName), simpleName + ".java");
         } else {
-            dirName = fullPath.substring(0, idx);
-            fileName = fullPath.substring(idx + 1);
+            // a packed unit has no single source file, so name it after the unit and the packages it covers
+            String dirName = packageOf(internalName);
+            for (ProgramModule programModule : programModules) {
+                dirName = commonPackage(dirName, packageOf(programModule.getTypeDefinition().getInternalName()));
+            }
+            file = getSourceFile(dirName, simpleName + "+" + (programModules.size() - 1));
         }
-
-        file = module.diFile(fileName, dirName).asRef();
         globals = module.metadataTuple();
         // todo: change back to DW_LANG_Java as soon as debugger support is solidified
         diCompileUnit = module.diCompileUnit("DW_LANG_C_plus_plus", file, DebugEmissionKind.FullDebug).producer("qbicc").globals(globals.asRef()).asRef();
     }
 
+    private static String packageOf(final String internalName) {
+        final int idx = internalName.lastIndexOf('/');
+        return idx == -1 ? "" : internalName.substring(0, idx);
+    }
+
+    private static String commonPackage(final String a, final String b) {
+        int end = 0;
+        int len = Math.min(a.length(), b.length());
+        for (int i = 0; i <= len; i ++) {
+            boolean aEnd = i == a.length() || a.charAt(i) == '/';
+            boolean bEnd = i == b.length() || b.charAt(i) == '/';
+            if (aEnd && bEnd) {
+                end = i;
+            }
+            if (i == len || a.charAt(i) != b.charAt(i)) {
+                break;
+            }
+        }
+        return a.substring(0, end);
+    }
+
+    private LLValue getSourceFile(final String directory, final String fileName) {
+        // classes in different packages may share a source file name
+        return files.computeIfAbsent(directory.isEmpty() ? fileName : directory + '/' + fileName, k -> module.diFile(fileName, directory).asRef());
+    }
+
     private String getFriendlyName(final ExecutableElement element) {
         StringBuilder b = new StringBuilder();
 
@@ -119,30 +147,11 @@ final class LLVMModuleDebugInfo {
     }
 
     public LLValue createSourceFile(final Element element) {
-        String sourceFileNameFull = element.getSourceFileName();
-
-        LLValue file = files.get(sourceFileNameFull);
-        if (file != null) {
-            return file;
+        String sourceFileName = element.getSourceFileName();
+        if (sourceFileName == null) {
+            return getSourceFile("", "<unknown>");
         }
-
-        String sourceFileName = sourceFileNameFull;
-        String sourceFileDirectory = "";
-
-        if (sourceFileName != null) {
-            String typeName = element.getEnclosingType().getInternalName();
-            int typeNamePackageEnd = typeName.lastIndexOf('/');
-
-            if (typeNamePackageEnd != -1) {
-                sourceFileDirectory = typeName.substring(0, typeNamePackageEnd);
-            }
-        } else {
-            sourceFileName = "<unknown>";
-        }
-
-        file = module.diFile(sourceFileName, sourceFileDirectory).asRef();
-        files.put(sourceFileNameFull, file);
-        return file;
+        return getSourceFile(packageOf(element.getEnclosingType().getInternalName()), sourceFileName);
     }
 
     private MethodDebugInfo createDebugInfoForFunction(final ExecutableElement element) {
@@ -47,25 +47,78 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 final class LLVMModuleGenerator {
     private final CompilationContext context;
     private final int picLevel;
     private final int pieLevel;
     private final LLVMReferencePointerFactory refFactory;
+    private final boolean coldCalls;
 
-    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory) {
+    LLVMModuleGenerator(final CompilationContext context, final int picLevel, final int pieLevel, final LLVMReferencePointerFactory refFactory, final boolean coldCalls) {
         this.context = context;
         this.picLevel = picLevel;
         this.pieLevel = pieLevel;
         this.refFactory = refFactory;
+        this.coldCalls = coldCalls;
     }
 
     public Path processProgramModule(final ProgramModule programModule) {
-        DefinedTypeDefinition def = programModule.getTypeDefinition();
-        Path outputFile = context.getOutputFile(def, "ll");
+        return processProgramModules(List.of(programModule));
+    }
+
+    /**
+     * Generate and write a single LLVM module for a compilation unit made up of one or more program modules.
+     * The module is written to the output file of the first program module's type.
+     *
+     * @param programModules the program modules of the unit (must not be {@code null} or empty)
+     * @return the path of the written module (not {@code null})
+     */
+    public Path processProgramModules(final List<ProgramModule> programModules) {
+        Path outputFile = context.getOutputFile(programModules.get(0).getTypeDefinition(), "ll");
+        Module module = generateModule(programModules);
+        try {
+            Path parent = outputFile.getParent();
+            if (! Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                module.writeTo(writer);
+            }
+        } catch (IOException e) {
+            context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
+            try {
+                Files.deleteIfExists(outputFile);
+            } catch (IOException e2) {
+                context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
+            }
+        }
+        return outputFile;
+    }
+
+    /**
+     * Generate the LLVM module for a program module without writing it anywhere.
+     *
+     * @param programModule the program module (must not be {@code null})
+     * @return the generated module (not {@code null})
+     */
+    public Module generateModule(final ProgramModule programModule) {
+        return generateModule(List.of(programModule));
+    }
+
+    /**
+     * Generate a single LLVM module for a compilation unit made up of one or more program modules without writing
+     * it anywhere. The program modules must not define the same symbol more than once.
+     *
+     * @param programModules the program modules of the unit (must not be {@code null} or empty)
+     * @return the generated module (not {@code null})
+     */
+    public Module generateModule(final List<ProgramModule> programModules) {
         final Module module = Module.newModule();
         TypeSystem ts = context.getTypeSystem();
         module.dataLayout()
@@ -82,7 +135,7 @@ final class LLVMModuleGenerator {
             .float64Align(ts.getFloat64Type().getAlign() * 8)
             ;
         final LLVMModuleNodeVisitor moduleVisitor = new LLVMModuleNodeVisitor(module, context, refFactory);
-        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(programModule, module, context);
+        final LLVMModuleDebugInfo debugInfo = new LLVMModuleDebugInfo(programModules, module, context);
         final LLVMPseudoIntrinsics pseudoIntrinsics = new LLVMPseudoIntrinsics(module, refFactory);
 
         if (picLevel != 0) {
@@ -99,127 +152,131 @@ final class LLVMModuleGenerator {
         decl.param(Types.metadata).param(Types.metadata).param(Types.metadata);
 
         // declare global ctors and dtors
-        processXtors(programModule.constructors(), "llvm.global_ctors", module, moduleVisitor);
-        processXtors(programModule.destructors(), "llvm.global_dtors", module, moduleVisitor);
-
-        for (Declaration item : programModule.declarations()) {
-            String name = item.getName();
-            Linkage linkage = map(item.getLinkage());
-            if (item instanceof FunctionDeclaration fn) {
-                decl = module.declare(name).linkage(linkage);
-                FunctionType fnType = fn.getValueType();
-                decl.returns(moduleVisitor.map(fnType.getReturnType()));
-                int cnt = fnType.getParameterCount();
-                for (int i = 0; i < cnt; i++) {
-                    ValueType type = fnType.getParameterType(i);
-                    if (type instanceof VariadicType) {
-                        if (i < cnt - 1) {
-                            throw new IllegalStateException("Variadic type as non-final parameter type");
-                        }
-                        decl.variadic();
-                    } else {
-                        decl.param(moduleVisitor.map(type));
-                    }
+        List<GlobalXtor> constructors = new ArrayList<>();
+        List<GlobalXtor> destructors = new ArrayList<>();
+        // a symbol may only be declared once, and may not be declared at all if it is defined in the same module
+        Set<String> symbols = new HashSet<>();
+        for (ProgramModule member : programModules) {
+            constructors.addAll(member.constructors());
+            destructors.addAll(member.destructors());
+            for (ModuleSection section : member.sections()) {
+                for (SectionObject item : section.contents()) {
+                    symbols.add(item.getName());
                 }
-            } else if (item instanceof DataDeclaration) {
-                Global obj = module.global(moduleVisitor.map(item.getValueType())).linkage(Linkage.EXTERNAL);
-                ThreadLocalMode tlm = item.getThreadLocalMode();
-                if (tlm != null) {
-                    obj.threadLocal(map(tlm));
-                }
-                obj.asGlobal(item.getName());
             }
         }
-        for (ModuleSection section : programModule.sections()) {
-            String sectionName = section.getName();
-            for (SectionObject item : section.contents()) {
+        processXtors(constructors, "llvm.global_ctors", module, moduleVisitor);
+        processXtors(destructors, "llvm.global_dtors", module, moduleVisitor);
+
+        for (ProgramModule member : programModules) {
+            for (Declaration item : member.declarations()) {
                 String name = item.getName();
+                if (! symbols.add(name)) {
+                    continue;
+                }
                 Linkage linkage = map(item.getLinkage());
-                if (item instanceof Function fn) {
-                    ExecutableElement element = fn.getOriginalElement();
-                    MethodBody body = fn.getBody();
-                    boolean isExact = item == context.getExactFunction(element);
-                    if (body == null) {
-                        context.error("Function `%s` has no body", name);
-                        continue;
+                if (item instanceof FunctionDeclaration fn) {
+                    decl = module.declare(name).linkage(linkage);
+                    FunctionType fnType = fn.getValueType();
+                    decl.returns(moduleVisitor.map(fnType.getReturnType()));
+                    int cnt = fnType.getParameterCount();
+                    for (int i = 0; i < cnt; i++) {
+                        ValueType type = fnType.getParameterType(i);
+                        if (type instanceof VariadicType) {
+                            if (i < cnt - 1) {
+                                throw new IllegalStateException("Variadic type as non-final parameter type");
+                            }
+                            decl.variadic();
+                        } else {
+                            decl.param(moduleVisitor.map(type));
+                        }
                     }
-                    BasicBlock entryBlock = body.getEntryBlock();
-                    FunctionDefinition functionDefinition = module.define(name).linkage(linkage);
-                    LLValue topSubprogram;
-
-                    if (element instanceof MethodElement me) {
-                        functionDefinition.comment(me.getEnclosingType().getInternalName()+"."+me.getName()+" "+me.getDescriptor());
-                    } else if (element instanceof ConstructorElement ce) {
-                        functionDefinition.comment(ce.getEnclosingType().getInternalName()+".<init> "+ce.getDescriptor());
+                } else if (item instanceof DataDeclaration) {
+                    Global obj = module.global(moduleVisitor.map(item.getValueType())).linkage(Linkage.EXTERNAL);
+                    ThreadLocalMode tlm = item.getThreadLocalMode();
+                    if (tlm != null) {
+                        obj.threadLocal(map(tlm));
                     }
+                    obj.asGlobal(item.getName());
+                }
+            }
+        }
+        for (ProgramModule member : programModules) {
+            for (ModuleSection section : member.sections()) {
+                String sectionName = section.getName();
+                for (SectionObject item : section.contents()) {
+                    String name = item.getName();
+                    Linkage linkage = map(item.getLinkage());
+                    if (item instanceof Function fn) {
+                        ExecutableElement element = fn.getOriginalElement();
+                        MethodBody body = fn.getBody();
+                        boolean isExact = item == context.getExactFunction(element);
+                        if (body == null) {
+                            context.error("Function `%s` has no body", name);
+                            continue;
+                        }
+                        BasicBlock entryBlock = body.getEntryBlock();
+                        FunctionDefinition functionDefinition = module.define(name).linkage(linkage);
+                        LLValue topSubprogram;
 
-                    if (isExact) {
-                        topSubprogram = debugInfo.getDebugInfoForFunction(element).getSubprogram();
-                        functionDefinition.meta("dbg", topSubprogram);
-                    } else {
-                        topSubprogram = debugInfo.createThunkSubprogram(fn).asRef();
-                        functionDefinition.meta("dbg", topSubprogram);
-                    }
-                    functionDefinition.attribute(FunctionAttributes.framePointer("non-leaf"));
-                    functionDefinition.attribute(FunctionAttributes.uwtable);
-                    functionDefinition.gc("statepoint-example");
-                    if (fn.isNoReturn()) {
-                        functionDefinition.attribute(FunctionAttributes.noreturn);
-                    }
+                        if (element instanceof MethodElement me) {
+                            functionDefinition.comment(me.getEnclosingType().getInternalName()+"."+me.getName()+" "+me.getDescriptor());
+                        } else if (element instanceof ConstructorElement ce) {
+                            functionDefinition.comment(ce.getEnclosingType().getInternalName()+".<init> "+ce.getDescriptor());
+                        }
 
-                    LLVMNodeVisitor nodeVisitor = new LLVMNodeVisitor(context, module, debugInfo, pseudoIntrinsics, topSubprogram, moduleVisitor, Schedule.forMethod(entryBlock), fn, functionDefinition);
-                    if (! sectionName.equals(CompilationContext.IMPLICIT_SECTION_NAME)) {
-                        functionDefinition.section(sectionName);
-                    }
+                        if (isExact) {
+                            topSubprogram = debugInfo.getDebugInfoForFunction(element).getSubprogram();
+                            functionDefinition.meta("dbg", topSubprogram);
+                        } else {
+                            topSubprogram = debugInfo.createThunkSubprogram(fn).asRef();
+                            functionDefinition.meta("dbg", topSubprogram);
+                        }
+                        functionDefinition.attribute(FunctionAttributes.framePointer("non-leaf"));
+                        functionDefinition.attribute(FunctionAttributes.uwtable);
+                        functionDefinition.gc("statepoint-example");
+                        if (fn.isNoReturn()) {
+                            functionDefinition.attribute(FunctionAttributes.noreturn);
+                        }
 
-                    nodeVisitor.execute();
-                } else if (item instanceof Data data) {
-                    Literal value = (Literal) data.getValue();
-                    Global obj = module.global(moduleVisitor.map(data.getValueType()));
-                    if (value != null) {
-                        obj.value(moduleVisitor.map(value));
+                        LLVMNodeVisitor nodeVisitor = new LLVMNodeVisitor(context, module, debugInfo, pseudoIntrinsics, topSubprogram, moduleVisitor, Schedule.forMethod(entryBlock), fn, functionDefinition, coldCalls);
+                        if (! sectionName.equals(CompilationContext.IMPLICIT_SECTION_NAME)) {
+                            functionDefinition.section(sectionName);
+                        }
+
+                        nodeVisitor.execute();
+                    } else if (item instanceof Data data) {
+                        Literal value = (Literal) data.getValue();
+                        Global obj = module.global(moduleVisitor.map(data.getValueType()));
+                        if (value != null) {
+                            obj.value(moduleVisitor.map(value));
+                        } else {
+                            obj.value(Values.zeroinitializer);
+                        }
+                        obj.alignment(data.getValueType().getAlign());
+                        obj.linkage(linkage);
+                        ThreadLocalMode tlm = data.getThreadLocalMode();
+                        if (tlm != null) {
+                            obj.threadLocal(map(tlm));
+                        }
+                        if (data.isDsoLocal()) {
+                            obj.preemption(RuntimePreemption.LOCAL);
+                        }
+                        if (! sectionName.equals(CompilationContext.IMPLICIT_SECTION_NAME)) {
+                            obj.section(sectionName);
+                        }
+                        MemberElement element = data.getOriginalElement();
+                        if (element != null) {
+                            obj.meta("dbg", debugInfo.getDebugInfoForGlobal(data, element));
+                        }
+                        obj.asGlobal(data.getName());
                     } else {
-                        obj.value(Values.zeroinitializer);
-                    }
-                    obj.alignment(data.getValueType().getAlign());
-                    obj.linkage(linkage);
-                    ThreadLocalMode tlm = data.getThreadLocalMode();
-                    if (tlm != null) {
-                        obj.threadLocal(map(tlm));
-                    }
-                    if (data.isDsoLocal()) {
-                        obj.preemption(RuntimePreemption.LOCAL);
-                    }
-                    if (! sectionName.equals(CompilationContext.IMPLICIT_SECTION_NAME)) {
-                        obj.section(sectionName);
+                        throw new IllegalStateException();
                     }
-                    MemberElement element = data.getOriginalElement();
-                    if (element != null) {
-                        obj.meta("dbg", debugInfo.getDebugInfoForGlobal(data, element));
-                    }
-                    obj.asGlobal(data.getName());
-                } else {
-                    throw new IllegalStateException();
                 }
             }
         }
-        try {
-            Path parent = outputFile.getParent();
-            if (! Files.exists(parent)) {
-                Files.createDirectories(parent);
-            }
-            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-                module.writeTo(writer);
-            }
-        } catch (IOException e) {
-            context.error("Failed to write \"%s\": %s", outputFile, e.getMessage());
-            try {
-                Files.deleteIfExists(outputFile);
-            } catch (IOException e2) {
-                context.warning("Failed to clean \"%s\": %s", outputFile, e.getMessage());
-            }
-        }
-        return outputFile;
+        return module;
     }
 
     private void processXtors(final List<GlobalXtor> xtors, final String xtorName, Module module, LLVMModuleNodeVisitor moduleVisitor) {
@@ -73,6 +73,7 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue>, Pointe
     final Map<Type, LLValue> types = new HashMap<>();
     final Map<CompoundType, Map<CompoundType.Member, LLValue>> structureOffsets = new HashMap<>();
     final Map<Value, LLValue> globalValues = new HashMap<>();
+    final Map<Long, LLValue> branchWeights = new HashMap<>();
 
     LLVMModuleNodeVisitor(final Module module, final CompilationContext ctxt, LLVMReferencePointerFactory refFactory) {
         this.module = module;
@@ -197,6 +198,14 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue>, Pointe
         return res;
     }
 
+    LLValue mapBranchWeights(final int trueWeight, final int falseWeight) {
+        return branchWeights.computeIfAbsent(Long.valueOf((long) trueWeight << 32 | falseWeight), k -> module.metadataTuple()
+            .elem(null, metadataString("branch_weights"))
+            .elem(i32, intConstant(trueWeight))
+            .elem(i32, intConstant(falseWeight))
+            .asRef());
+    }
+
     LLValue map(final CompoundType compoundType, final CompoundType.Member member) {
         // populate map
         map(compoundType);
@@ -0,0 +1,123 @@
+package org.qbicc.plugin.llvm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.object.Declaration;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.object.SectionObject;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+
+/**
+ * A partitioner which packs program modules into size-balanced LLVM compilation units.
+ * <p>
+ * Program modules are visited in order of type name, so that the types of a package tend to share a unit, and
+ * each unit is filled until it holds the target number of section objects. A program module is never placed into
+ * a unit which already defines one of its symbols (for example, a private symbol which has the same name in both
+ * program modules), or which refers to one of its symbols using a different type; such a program module starts
+ * a new unit instead.
+ */
+final class LLVMModulePartitioner {
+    private final int unitSize;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param unitSize the target number of functions and data objects per unit; values of one or less disable
+     *      grouping so that each program module is its own unit
+     */
+    LLVMModulePartitioner(final int unitSize) {
+        this.unitSize = unitSize;
+    }
+
+    /**
+     * Partition the given program modules into units. The first program module of each unit is the unit's leader,
+     * which is used to name the unit and its output files.
+     *
+     * @param programModules the program modules to partition (must not be {@code null})
+     * @param separate a type whose program module must always be a unit of its own, or {@code null} for none
+     * @return the list of units (not {@code null})
+     */
+    List<List<ProgramModule>> partition(List<ProgramModule> programModules, DefinedTypeDefinition separate) {
+        List<List<ProgramModule>> units = new ArrayList<>();
+        if (unitSize <= 1) {
+            for (ProgramModule programModule : programModules) {
+                units.add(List.of(programModule));
+            }
+            return units;
+        }
+        List<ProgramModule> sorted = new ArrayList<>(programModules);
+        sorted.sort(Comparator.comparing(pm -> pm.getTypeDefinition().getInternalName()));
+        Unit current = null;
+        for (ProgramModule programModule : sorted) {
+            if (programModule.getTypeDefinition() == separate) {
+                units.add(List.of(programModule));
+                continue;
+            }
+            int size = sizeOf(programModule);
+            if (current == null || current.size + size > unitSize && current.size > 0 || ! current.tryAdd(programModule)) {
+                current = new Unit();
+                units.add(current.members);
+                current.tryAdd(programModule);
+            }
+            current.size += size;
+        }
+        return units;
+    }
+
+    private static int sizeOf(ProgramModule programModule) {
+        int size = 0;
+        for (ModuleSection section : programModule.sections()) {
+            for (SectionObject ignored : section.contents()) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    static final class Unit {
+        final List<ProgramModule> members = new ArrayList<>();
+        final Set<String> defined = new HashSet<>();
+        final Map<String, ValueType> symbolTypes = new HashMap<>();
+        int size;
+
+        boolean tryAdd(ProgramModule programModule) {
+            // check first so that a rejected program module leaves no trace
+            for (ModuleSection section : programModule.sections()) {
+                for (SectionObject item : section.contents()) {
+                    if (defined.contains(item.getName()) || ! isCompatible(item.getName(), item.getValueType())) {
+                        return false;
+                    }
+                }
+            }
+            for (Declaration item : programModule.declarations()) {
+                if (! isCompatible(item.getName(), item.getValueType())) {
+                    return false;
+                }
+            }
+            for (ModuleSection section : programModule.sections()) {
+                for (SectionObject item : section.contents()) {
+                    defined.add(item.getName());
+                    symbolTypes.put(item.getName(), item.getValueType());
+                }
+            }
+            for (Declaration item : programModule.declarations()) {
+                symbolTypes.putIfAbsent(item.getName(), item.getValueType());
+            }
+            members.add(programModule);
+            return true;
+        }
+
+        private boolean isCompatible(String name, ValueType type) {
+            ValueType existing = symbolTypes.get(name);
+            return existing == null || existing.equals(type);
+        }
+    }
+}
@@ -143,6 +143,11 @@ import org.qbicc.type.definition.element.MethodElement;
 import org.qbicc.type.definition.element.ParameterElement;
 
 final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, Instruction, Void> {
+    /**
+     * The total weight which is divided between the two targets of a conditional branch of known probability.
+     */
+    private static final int BRANCH_WEIGHT_SCALE = 2000;
+
     final CompilationContext ctxt;
     final Module module;
     final LLVMModuleDebugInfo debugInfo;
@@ -161,10 +166,11 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
     final LLBuilder builder;
     final Map<Node, LLValue> inlineLocations = new HashMap<>();
     final Map<LocalVariableElement, DILocalVariable> localVariables = new HashMap<>();
+    final boolean coldCalls;
 
     private boolean personalityAdded;
 
-    LLVMNodeVisitor(final CompilationContext ctxt, final Module module, final LLVMModuleDebugInfo debugInfo, final LLVMPseudoIntrinsics pseudoIntrinsics, final LLValue topSubprogram, final LLVMModuleNodeVisitor moduleVisitor, final Schedule schedule, final Function functionObj, final FunctionDefinition func) {
+    LLVMNodeVisitor(final CompilationContext ctxt, final Module module, final LLVMModuleDebugInfo debugInfo, final LLVMPseudoIntrinsics pseudoIntrinsics, final LLValue topSubprogram, final LLVMModuleNodeVisitor moduleVisitor, final Schedule schedule, final Function functionObj, final FunctionDefinition func, final boolean coldCalls) {
         this.ctxt = ctxt;
         this.module = module;
         this.debugInfo = debugInfo;
@@ -174,6 +180,7 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
         this.schedule = schedule;
         this.functionObj = functionObj;
         this.func = func;
+        this.coldCalls = coldCalls;
         this.methodBody = functionObj.getBody();
         entryBlock = methodBody.getEntryBlock();
         builder = LLBuilder.newBuilder(func.getRootBlock());
@@ -324,7 +331,15 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
 
     public Instruction visit(final Void param, final If node) {
         map(node.getDependency());
-        return builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        Instruction br = builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        if (node.hasProbability()) {
+            // scale to the same weights as `__builtin_expect`, so that an unlikely branch is never given zero weight
+            float p = node.getTrueProbability();
+            int trueWeight = Math.max(1, Math.round(p * BRANCH_WEIGHT_SCALE));
+            int falseWeight = Math.max(1, Math.round((1 - p) * BRANCH_WEIGHT_SCALE));
+            br.meta("prof", moduleVisitor.mapBranchWeights(trueWeight, falseWeight));
+        }
+        return br;
     }
 
     public Instruction visit(final Void param, final Return node) {
@@ -1000,6 +1015,9 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
         // two scans - once to populate the maps, and then once to emit the call in the right order
         preMapArgumentList(arguments);
         Call call = builder.call(llType, llTarget).noTail().attribute(FunctionAttributes.noreturn);
+        if (coldCalls) {
+            call.attribute(FunctionAttributes.cold);
+        }
         setCallArguments(call, arguments);
         setCallReturnValue(call, functionType);
         if (functionType.isVariadic() || valueHandle instanceof AsmHandle) {
@@ -1099,6 +1117,9 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
             catch_ = preMap(node.getCatchBlock());
         }
         Call call = builder.invoke(llType, llTarget, unreachableTarget, mapCatch(node.getCatchBlock())).attribute(FunctionAttributes.noreturn);
+        if (coldCalls) {
+            call.attribute(FunctionAttributes.cold);
+        }
         if (postMapCatch) {
             postMap(node.getCatchBlock(), catch_);
         }
@@ -0,0 +1,105 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A persistent, content-addressed cache of compiled object files. Each entry is keyed by a hash of the module
+ * text along with everything else which can influence the produced object file, such as the tool options, tool
+ * versions, and target platform.
+ */
+public final class LLVMObjectCache {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.llvm.cache");
+
+    private final Path cacheDirectory;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param cacheDirectory the directory in which cached object files are stored (must not be {@code null})
+     */
+    public LLVMObjectCache(Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Compute the cache key of a module.
+     *
+     * @param moduleText the module text to hash (must not be {@code null})
+     * @param parameters the other parameters which affect compilation of the module (must not be {@code null})
+     * @return the cache key (not {@code null})
+     */
+    String computeKey(byte[] moduleText, List<String> parameters) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String parameter : parameters) {
+            digest.update(parameter.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(moduleText);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copy a cached object file to the given path, if it exists.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the destination object file path (must not be {@code null})
+     * @return {@code true} if the cached object file was copied, or {@code false} if there is no such entry or it
+     *      could not be copied
+     */
+    boolean restore(String key, Path objectPath) {
+        try {
+            Files.copy(getEntryPath(key), objectPath, StandardCopyOption.REPLACE_EXISTING);
+            log.debugf("Reused cached object file for %s", objectPath);
+            return true;
+        } catch (NoSuchFileException ignored) {
+            return false;
+        } catch (IOException e) {
+            log.debugf(e, "Failed to reuse cached object file for %s", objectPath);
+            return false;
+        }
+    }
+
+    /**
+     * Store an object file into the cache. Failures are ignored because the cache is only an optimization.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the object file to store (must not be {@code null})
+     */
+    void store(String key, Path objectPath) {
+        Path entryPath = getEntryPath(key);
+        // copy to a unique temporary file first so that concurrent builds never see a partial entry
+        Path tmpPath = entryPath.resolveSibling(key + "." + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ".tmp");
+        try {
+            Files.createDirectories(entryPath.getParent());
+            Files.copy(objectPath, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpPath, entryPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debugf(e, "Failed to store object file %s in the cache", objectPath);
+            try {
+                Files.deleteIfExists(tmpPath);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Path getEntryPath(String key) {
+        return cacheDirectory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".o");
+    }
+}
@@ -3,6 +3,7 @@ package org.qbicc.plugin.llvm;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.qbicc.context.AttachmentKey;
@@ -15,6 +16,8 @@ final class LLVMState {
     static final AttachmentKey<LLVMState> KEY = new AttachmentKey<>();
 
     private final Map<LoadedTypeDefinition, Path> pathsByType = new ConcurrentHashMap<>();
+    private final Set<LoadedTypeDefinition> compiledTypes = ConcurrentHashMap.newKeySet();
+    private final Map<LoadedTypeDefinition, Path> thinLtoPathsByType = new ConcurrentHashMap<>();
 
     LLVMState() {}
 
@@ -25,4 +28,20 @@ final class LLVMState {
     Map<LoadedTypeDefinition, Path> getModulePaths() {
         return new HashMap<>(pathsByType);
     }
+
+    boolean markCompiled(LoadedTypeDefinition typeDefinition) {
+        return compiledTypes.add(typeDefinition);
+    }
+
+    boolean isCompiled(LoadedTypeDefinition typeDefinition) {
+        return compiledTypes.contains(typeDefinition);
+    }
+
+    void addThinLtoModulePath(LoadedTypeDefinition typeDefinition, Path path) {
+        thinLtoPathsByType.putIfAbsent(typeDefinition, path);
+    }
+
+    Map<LoadedTypeDefinition, Path> getThinLtoModulePaths() {
+        return new HashMap<>(thinLtoPathsByType);
+    }
 }
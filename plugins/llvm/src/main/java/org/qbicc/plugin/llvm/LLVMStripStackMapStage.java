@@ -3,7 +3,8 @@ package org.qbicc.plugin.llvm;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
@@ -20,42 +21,31 @@ import org.qbicc.tool.llvm.LlvmToolChain;
 public final class LLVMStripStackMapStage implements Consumer<CompilationContext> {
     @Override
     public void accept(CompilationContext context) {
-        ArrayList<Path> list = new ArrayList<>(Linker.get(context).getObjectFilePathsInLinkOrder());
-        Iterator<Path> iterator = list.iterator();
-        context.runParallelTask(ctxt -> {
-            LlvmObjCopyInvoker smrInvoker = createStackMapRemovingInvoker(ctxt);
-            if (smrInvoker == null) {
-                return;
-            }
-
-            // strip the stack map of every object file
-            for (;;) {
-                Path item;
-                synchronized (iterator) {
-                    if (! iterator.hasNext()) {
-                        return;
-                    }
-                    item = iterator.next();
-                }
-
+        if (context.getAttachment(Driver.LLVM_TOOL_KEY) == null) {
+            context.error("No LLVM tool chain is available");
+            return;
+        }
+        List<Path> list = new ArrayList<>(Linker.get(context).getObjectFilePathsInLinkOrder());
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(list.size());
+        // strip the stack map of every object file
+        for (Path item : list) {
+            tasks.add(context.submitTask(ctxt -> {
+                LlvmObjCopyInvoker smrInvoker = createStackMapRemovingInvoker(ctxt);
                 smrInvoker.setObjectFilePath(item);
                 try {
                     smrInvoker.invoke();
                 } catch (IOException e) {
                     // just always report it because it's weird
-                    context.error(Location.builder().setSourceFilePath(item.toString()).build(), "`llvm-objcopy` invocation has failed: %s", e.toString());
+                    ctxt.error(Location.builder().setSourceFilePath(item.toString()).build(), "`llvm-objcopy` invocation has failed: %s", e.toString());
                 }
-            }
-        });
+                return null;
+            }));
+        }
+        context.joinTasks(tasks);
     }
 
-
     private static LlvmObjCopyInvoker createStackMapRemovingInvoker(CompilationContext context) {
         LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
-        if (llvmToolChain == null) {
-            context.error("No LLVM tool chain is available");
-            return null;
-        }
         LlvmObjCopyInvoker objCopyInvoker = llvmToolChain.newLlvmObjCopyInvoker();
         objCopyInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
         objCopyInvoker.removeSection(context.getPlatform().getObjectType().formatSectionName("data", "llvm_stackmaps"));
@@ -0,0 +1,118 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Driver;
+import org.qbicc.machine.tool.ToolMessageHandler;
+import org.qbicc.object.Linkage;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.object.SectionObject;
+import org.qbicc.plugin.linker.Linker;
+import org.qbicc.tool.llvm.LlvmLtoInvoker;
+import org.qbicc.tool.llvm.LlvmToolChain;
+import org.qbicc.tool.llvm.RelocationModel;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+
+/**
+ * Run a ThinLTO link over the summarized bitcode of every module, producing one object file per module. The modules are
+ * compiled in parallel by the link, and unchanged modules are taken from its cache.
+ * <p>
+ * This does not inline across module boundaries: {@code opt} rewrites the statepoints before the bitcode is summarized,
+ * so every call which could be imported is already wrapped in a {@code gc.statepoint} intrinsic, and {@code llvm-lto}
+ * cannot run the rewrite after import.
+ * <p>
+ * Code generation happens here rather than in the final link so that the object files, along with their stack
+ * maps, exist before the method data is emitted. Consequently, every symbol which is visible outside of its module is
+ * exported, because the default module and the runtime libraries are not part of the link.
+ */
+public final class LLVMThinLtoStage implements Consumer<CompilationContext> {
+    private final boolean isPie;
+    private final List<String> llcOptions;
+    private final Path cacheDirectory;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param isPie {@code true} to generate position-independent code
+     * @param llcOptions the extra code generation options, as would be passed to {@code llc}
+     * @param cacheDirectory the directory in which to cache ThinLTO results between builds, or {@code null} for none
+     */
+    public LLVMThinLtoStage(final boolean isPie, final List<String> llcOptions, final Path cacheDirectory) {
+        this.isPie = isPie;
+        this.llcOptions = llcOptions;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    @Override
+    public void accept(CompilationContext context) {
+        LLVMState llvmState = context.getAttachment(LLVMState.KEY);
+        if (llvmState == null) {
+            return;
+        }
+        Map<LoadedTypeDefinition, Path> modulePaths = llvmState.getThinLtoModulePaths();
+        if (modulePaths.isEmpty()) {
+            return;
+        }
+        LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
+        if (llvmToolChain == null) {
+            context.error("No LLVM tool chain is available");
+            return;
+        }
+        LlvmLtoInvoker ltoInvoker = llvmToolChain.newLlvmLtoInvoker();
+        if (ltoInvoker == null) {
+            context.error("The LLVM tool chain has no `llvm-lto` executable, which is required for ThinLTO");
+            return;
+        }
+        ltoInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
+        ltoInvoker.setRelocationModel(isPie ? RelocationModel.Pic : RelocationModel.Static);
+        ltoInvoker.setOptions(llcOptions);
+        // the compiler threads are otherwise idle during this stage, so let the tool use every CPU
+        ltoInvoker.setThreadCount(Runtime.getRuntime().availableProcessors());
+        if (cacheDirectory != null) {
+            try {
+                Files.createDirectories(cacheDirectory);
+                ltoInvoker.setCacheDirectory(cacheDirectory);
+            } catch (IOException e) {
+                context.warning("Failed to create ThinLTO cache directory \"%s\": %s", cacheDirectory, e.toString());
+            }
+        }
+        for (ProgramModule programModule : context.getAllProgramModules()) {
+            for (ModuleSection section : programModule.sections()) {
+                for (SectionObject item : section.contents()) {
+                    Linkage linkage = item.getLinkage();
+                    if (linkage != Linkage.PRIVATE && linkage != Linkage.INTERNAL) {
+                        ltoInvoker.addExportedSymbol(item.getName());
+                    }
+                }
+            }
+        }
+        List<LoadedTypeDefinition> types = new ArrayList<>(modulePaths.keySet());
+        types.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
+        for (LoadedTypeDefinition type : types) {
+            ltoInvoker.addModuleFilePath(modulePaths.get(type));
+        }
+        ltoInvoker.setResponseFilePath(context.getOutputDirectory().resolve("thinlto.rsp"));
+        int errCnt = context.errors();
+        try {
+            ltoInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                context.error("`llvm-lto` invocation has failed: %s", e.toString());
+            }
+            return;
+        }
+        Linker linker = Linker.get(context);
+        for (LoadedTypeDefinition type : types) {
+            linker.addObjectFilePath(type, ltoInvoker.getObjectFilePath(modulePaths.get(type)));
+        }
+    }
+}
@@ -70,6 +70,8 @@ public final class FunctionLoweringElementHandler implements Consumer<Executable
             builder.finish();
             function.replaceBody(MethodBody.of(copyBlock, Schedule.forMethod(copyBlock), thisValue, paramValues));
             element.replaceMethodBody(function.getBody());
+            // the analyzed body is only needed for inlining, which is done by now
+            element.releasePreviousMethodBody();
         }
     }
 }
@@ -0,0 +1,153 @@
+package org.qbicc.plugin.opt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CastValue;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.FloatLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A block builder which estimates the probability of each conditional branch of the program, from the observed
+ * branch counts of the {@linkplain ExecutionProfile execution profile} if there are any, or otherwise from the hints
+ * given by calls to {@code org.qbicc.runtime.Tuning}.
+ * <p>
+ * The tuning methods are identity functions, so calls to them are replaced by their first argument; the hint is
+ * remembered for that value and applied to any branch which tests whether it is true or {@code null}.
+ */
+public class BranchProbabilityBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final String TUNING = "org/qbicc/runtime/Tuning";
+
+    private final ExecutionProfile profile;
+    private final boolean hasBranchCounts;
+    /**
+     * The hinted probability of each value being nonzero, or non-{@code null} for references.
+     */
+    private final Map<Value, Float> hints = new HashMap<>();
+    /**
+     * The number of branches seen so far at each site, which identifies the counters of each branch of a site.
+     */
+    private final Map<String, Integer> branchOrdinals = new HashMap<>();
+
+    public BranchProbabilityBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        profile = ExecutionProfile.get(ctxt);
+        hasBranchCounts = profile.hasCounts(ExecutionProfile.Kind.BRANCH_TAKEN) || profile.hasCounts(ExecutionProfile.Kind.BRANCH_NOT_TAKEN);
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        if (isTuningMethod(target)) {
+            return hint((StaticMethodElementHandle) target, arguments);
+        }
+        return super.call(target, arguments);
+    }
+
+    @Override
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        if (isTuningMethod(target)) {
+            Value result = hint((StaticMethodElementHandle) target, arguments);
+            goto_(resumeLabel);
+            return result;
+        }
+        return super.invoke(target, arguments, catchLabel, resumeLabel);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        float probability = getProfiledProbability();
+        if (Float.isNaN(probability)) {
+            probability = getHintedProbability(condition);
+        }
+        BasicBlock block = super.if_(condition, trueTarget, falseTarget);
+        if (! Float.isNaN(probability) && block.getTerminator() instanceof If if_) {
+            if_.setProbability(trueTarget, probability);
+        }
+        return block;
+    }
+
+    private static boolean isTuningMethod(ValueHandle target) {
+        return target instanceof StaticMethodElementHandle handle
+            && handle.getExecutable().getEnclosingType().internalNameEquals(TUNING)
+            && handle.getExecutable().getParameters().size() == 2;
+    }
+
+    private Value hint(StaticMethodElementHandle target, List<Value> arguments) {
+        MethodElement method = target.getExecutable();
+        Value value = arguments.get(0);
+        // the likelihood must be a constant to be of any use
+        if (arguments.get(1) instanceof FloatLiteral lit) {
+            float likelihood = lit.floatValue();
+            switch (method.getName()) {
+                case "mayBeTrue", "mayBeNonNull" -> hints.put(unwrap(value), Float.valueOf(likelihood));
+                case "mayBeFalse", "mayBeNull" -> hints.put(unwrap(value), Float.valueOf(1 - likelihood));
+            }
+        }
+        return value;
+    }
+
+    private float getProfiledProbability() {
+        int bci = getLocation().getByteCodeIndex();
+        if (hasBranchCounts && bci >= 0) {
+            // branches are numbered in the same order as in the instrumented build
+            ExecutableElement element = getCurrentElement();
+            int ordinal = branchOrdinals.merge(ExecutionProfile.keyOf(element, bci), Integer.valueOf(1), Integer::sum).intValue() - 1;
+            String key = ExecutionProfile.branchKeyOf(element, bci, ordinal);
+            long taken = profile.getCount(ExecutionProfile.Kind.BRANCH_TAKEN, key);
+            long notTaken = profile.getCount(ExecutionProfile.Kind.BRANCH_NOT_TAKEN, key);
+            if (taken + notTaken > 0) {
+                return (float) ((double) taken / (taken + notTaken));
+            }
+        }
+        return Float.NaN;
+    }
+
+    private float getHintedProbability(Value condition) {
+        Value value = unwrap(condition);
+        Float hint = hints.get(value);
+        if (hint != null) {
+            return hint.floatValue();
+        }
+        if (value instanceof IsEq eq) {
+            return 1 - getHintedProbability(getTested(eq.getLeftInput(), eq.getRightInput()));
+        } else if (value instanceof IsNe ne) {
+            return getHintedProbability(getTested(ne.getLeftInput(), ne.getRightInput()));
+        } else {
+            return Float.NaN;
+        }
+    }
+
+    /**
+     * Get the value which is compared to zero or {@code null}, if any.
+     */
+    private static Value getTested(Value left, Value right) {
+        if (right instanceof Literal lit && lit.isZero()) {
+            return left;
+        } else if (left instanceof Literal lit && lit.isZero()) {
+            return right;
+        } else {
+            return null;
+        }
+    }
+
+    private static Value unwrap(Value value) {
+        while (value instanceof CastValue cast) {
+            value = cast.getInput();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,68 @@
+package org.qbicc.plugin.opt;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Throw;
+import org.qbicc.graph.Unreachable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+
+/**
+ * A copying visitor which estimates that a conditional branch is never taken if it leads only to a path which cannot
+ * complete normally, such as the failure path of a run time check which calls a {@code raise*} helper, or a path which
+ * throws an exception. Branches whose probability was already estimated are left as they are.
+ */
+public class ColdPathVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    /**
+     * The number of blocks to follow along a path before giving up.
+     */
+    private static final int MAX_PATH_LENGTH = 8;
+
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+
+    public ColdPathVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        BasicBlock block = getDelegateTerminatorVisitor().visit(param, node);
+        if (block.getTerminator() instanceof If copy && ! copy.hasProbability()) {
+            boolean trueCold = isCold(node.getTrueBranch());
+            boolean falseCold = isCold(node.getFalseBranch());
+            if (trueCold != falseCold) {
+                // the labels of the original successors are already allocated
+                copy.setProbability(param.copyBlock(node.getTrueBranch()), trueCold ? 0 : 1);
+            }
+        }
+        return block;
+    }
+
+    private static boolean isCold(BasicBlock block) {
+        for (int i = 0; i < MAX_PATH_LENGTH; i ++) {
+            Terminator t = block.getTerminator();
+            if (t instanceof Throw || t instanceof CallNoReturn || t instanceof InvokeNoReturn || t instanceof Unreachable) {
+                return true;
+            } else if (t instanceof Goto goto_) {
+                block = goto_.getResumeTarget();
+            } else if (t instanceof Invoke invoke) {
+                // exceptions thrown by calls along the path lead away from it anyway
+                block = invoke.getResumeTarget();
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,243 @@
+package org.qbicc.plugin.opt;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InitializerElement;
+import org.qbicc.type.definition.element.NamedElement;
+
+/**
+ * The observed execution counts of a program, used to weigh optimization decisions. The profile is empty unless
+ * counts were recorded or {@linkplain #load(Path) loaded} before the {@code ANALYZE} phase. An instrumented program
+ * writes every counter, including those which stay at zero, so a site which has no count in a loaded profile was not
+ * instrumented rather than never executed; optimizations treat such sites as they would without a profile.
+ * <p>
+ * Sites are identified by a key of the form {@code owner.nameDescriptor@bci}, where the owner is the internal name
+ * of the enclosing type of the element containing the site, and the bytecode index is that of the site within it.
+ * A single bytecode may produce several conditional branches, such as the checks that the compiler inserts, so the
+ * key of a branch site also has the ordinal of the branch among those of its bytecode, as {@code owner.nameDescriptor@bci#ordinal}.
+ * A profile file has one line per counter, consisting of the count, the {@linkplain Kind#getLabel() label} of the
+ * kind of counter, and the site key, separated by spaces.
+ */
+public final class ExecutionProfile {
+    private static final AttachmentKey<ExecutionProfile> KEY = new AttachmentKey<>();
+
+    private final Map<Kind, Map<String, Long>> counts = new EnumMap<>(Kind.class);
+    private final Map<Kind, Long> maxCounts = new EnumMap<>(Kind.class);
+
+    private ExecutionProfile() {
+        for (Kind kind : Kind.values()) {
+            counts.put(kind, new ConcurrentHashMap<>());
+            maxCounts.put(kind, Long.valueOf(0));
+        }
+    }
+
+    public static ExecutionProfile get(CompilationContext ctxt) {
+        ExecutionProfile profile = ctxt.getAttachment(KEY);
+        if (profile == null) {
+            profile = new ExecutionProfile();
+            ExecutionProfile appearing = ctxt.putAttachmentIfAbsent(KEY, profile);
+            if (appearing != null) {
+                profile = appearing;
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Get the key which identifies the site at the given bytecode index of the given element.
+     *
+     * @param element the element containing the site (must not be {@code null})
+     * @param bci the bytecode index of the site
+     * @return the site key (not {@code null})
+     */
+    public static String keyOf(ExecutableElement element, int bci) {
+        String name;
+        if (element instanceof NamedElement named) {
+            name = named.getName();
+        } else if (element instanceof ConstructorElement) {
+            name = "<init>";
+        } else if (element instanceof InitializerElement) {
+            name = "<clinit>";
+        } else {
+            name = "";
+        }
+        return element.getEnclosingType().getInternalName() + "." + name + element.getDescriptor() + "@" + bci;
+    }
+
+    /**
+     * Get the key which identifies the conditional branch with the given ordinal among those at the given bytecode
+     * index of the given element.
+     *
+     * @param element the element containing the branch (must not be {@code null})
+     * @param bci the bytecode index of the branch
+     * @param ordinal the number of branches which precede this one at the same bytecode index
+     * @return the site key (not {@code null})
+     */
+    public static String branchKeyOf(ExecutableElement element, int bci, int ordinal) {
+        return keyOf(element, bci) + "#" + ordinal;
+    }
+
+    /**
+     * Load the counts of a profile file which was written by an instrumented program, adding them to this profile.
+     *
+     * @param path the path of the profile file (must not be {@code null})
+     * @throws IOException if the file could not be read or is malformed
+     */
+    public void load(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber ++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] fields = line.trim().split(" ", 3);
+                Kind kind = fields.length == 3 ? Kind.forLabel(fields[1]) : null;
+                if (kind == null) {
+                    throw new IOException(path + ":" + lineNumber + ": malformed profile entry");
+                }
+                long count;
+                try {
+                    count = Long.parseLong(fields[0]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNumber + ": malformed count", e);
+                }
+                addCount(kind, fields[2], count);
+            }
+        }
+    }
+
+    /**
+     * Add an observed count for the site with the given key.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @param key the site key (must not be {@code null})
+     * @param count the number of times that the site was executed
+     */
+    public void addCount(Kind kind, String key, long count) {
+        long total = counts.get(kind).merge(key, Long.valueOf(count), Long::sum).longValue();
+        synchronized (maxCounts) {
+            if (total > maxCounts.get(kind).longValue()) {
+                maxCounts.put(kind, Long.valueOf(total));
+            }
+        }
+    }
+
+    /**
+     * Determine whether any counts of the given kind were recorded.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @return {@code true} if there are counts, or {@code false} if there are none
+     */
+    public boolean hasCounts(Kind kind) {
+        return ! counts.get(kind).isEmpty();
+    }
+
+    /**
+     * Determine whether there is a count of the given kind for the site at the given bytecode index of the given
+     * element, even if that count is zero.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @param element the element containing the site (must not be {@code null})
+     * @param bci the bytecode index of the site
+     * @return {@code true} if the site has a count, or {@code false} if it was not instrumented
+     */
+    public boolean hasCount(Kind kind, ExecutableElement element, int bci) {
+        return counts.get(kind).containsKey(keyOf(element, bci));
+    }
+
+    /**
+     * Get the count of the given kind for the site at the given bytecode index of the given element.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @param element the element containing the site (must not be {@code null})
+     * @param bci the bytecode index of the site
+     * @return the count, or 0 if the site was never observed
+     */
+    public long getCount(Kind kind, ExecutableElement element, int bci) {
+        return getCount(kind, keyOf(element, bci));
+    }
+
+    /**
+     * Get the count of the given kind for the site with the given key.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @param key the site key (must not be {@code null})
+     * @return the count, or 0 if the site was never observed
+     */
+    public long getCount(Kind kind, String key) {
+        Long count = counts.get(kind).get(key);
+        return count == null ? 0 : count.longValue();
+    }
+
+    /**
+     * Get the greatest count of the given kind for any site.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @return the greatest count
+     */
+    public long getMaxCount(Kind kind) {
+        synchronized (maxCounts) {
+            return maxCounts.get(kind).longValue();
+        }
+    }
+
+    /**
+     * The kinds of execution counter.
+     */
+    public enum Kind {
+        /**
+         * The number of times that a call site was executed.
+         */
+        CALL("call"),
+        /**
+         * The number of times that an allocation site was executed.
+         */
+        ALLOCATION("alloc"),
+        /**
+         * The number of times that a conditional branch was taken.
+         */
+        BRANCH_TAKEN("branch-taken"),
+        /**
+         * The number of times that a conditional branch was not taken.
+         */
+        BRANCH_NOT_TAKEN("branch-not-taken"),
+        ;
+
+        private final String label;
+
+        Kind(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * Get the label of this kind in a profile file.
+         *
+         * @return the label (not {@code null})
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        static Kind forLabel(String label) {
+            for (Kind kind : values()) {
+                if (kind.label.equals(label)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.qbicc.plugin.opt;
+
+import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.CheckCast;
+import org.qbicc.graph.DebugAddressDeclaration;
+import org.qbicc.graph.DebugValueDeclaration;
+import org.qbicc.graph.ElementOf;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.InstanceOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.MultiNewArray;
+import org.qbicc.graph.New;
+import org.qbicc.graph.NewArray;
+import org.qbicc.graph.NewReferenceArray;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.StackAllocation;
+import org.qbicc.graph.StaticField;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Throw;
+import org.qbicc.graph.Unreachable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.ValueType;
+
+/**
+ * A copying visitor which eliminates redundant loads and stores across blocks, using the dominator tree of the
+ * original program.
+ * <p>
+ * The memory state that is known at the start of a block is the state known at the end of its immediate dominator,
+ * less everything which may be written on any path from the dominator to the block. Within a block, the state is
+ * updated by each memory operation in program order. A plain load of a location whose value is known is replaced by
+ * that value, and a plain store of the value that a location is known to hold is removed.
+ * <p>
+ * Locations are tracked by handle identity: instance fields, static fields, and Java array elements. Two such locations
+ * may only alias if they are the same field, or if they are elements of arrays with the same kind of element type.
+ * Any other write, any access that is stronger than {@linkplain org.qbicc.graph.atomic.AccessModes#SinglePlain plain},
+ * and any operation which may have arbitrary side effects (such as a call) forgets everything that is known.
+ */
+public class GlobalMemoryTrackingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private static final Object REFERENCE_ELEMENTS = new Object();
+    private static final Set<Object> ALL = Set.of();
+
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final Map<BasicBlock, Map<ValueHandle, Value>> knownAtEnd = new HashMap<>();
+    private final Map<BasicBlock, Set<Object>> writtenClasses = new HashMap<>();
+    private final Map<Load, Value> redundantLoads = new HashMap<>();
+    private final Set<Store> redundantStores = new HashSet<>();
+
+    public GlobalMemoryTrackingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this.delegate = delegate;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Value visit(final Node.Copier param, final Load node) {
+        analyze(param.getSchedule(), param.getSchedule().getBlockForNode(node));
+        Value known = redundantLoads.get(node);
+        if (known == null) {
+            return NodeVisitor.Delegating.super.visit(param, node);
+        }
+        param.copyNode(node.getDependency());
+        return param.copyValue(known);
+    }
+
+    public Node visit(final Node.Copier param, final Store node) {
+        analyze(param.getSchedule(), param.getSchedule().getBlockForNode(node));
+        if (! redundantStores.contains(node)) {
+            return NodeVisitor.Delegating.super.visit(param, node);
+        }
+        return param.copyNode(node.getDependency());
+    }
+
+    private void analyze(Schedule schedule, BasicBlock block) {
+        if (block == null || knownAtEnd.containsKey(block)) {
+            return;
+        }
+        // analyze the dominators first, outermost first
+        List<BasicBlock> pending = new ArrayList<>();
+        for (BasicBlock current = block; current != null && ! knownAtEnd.containsKey(current); current = schedule.getImmediateDominator(current)) {
+            pending.add(current);
+        }
+        for (int i = pending.size() - 1; i >= 0; i --) {
+            BasicBlock current = pending.get(i);
+            BasicBlock dominator = schedule.getImmediateDominator(current);
+            Map<ValueHandle, Value> known;
+            if (dominator == null) {
+                known = new HashMap<>();
+            } else {
+                known = new HashMap<>(knownAtEnd.get(dominator));
+                if (! known.isEmpty()) {
+                    forgetWrittenBetween(schedule, dominator, current, known);
+                }
+            }
+            for (Node node : schedule.getNodesForBlock(current)) {
+                if (node instanceof OrderedNode && ! (node instanceof Terminator)) {
+                    transfer(node, known);
+                }
+            }
+            transfer(current.getTerminator(), known);
+            knownAtEnd.put(current, known);
+        }
+    }
+
+    /**
+     * Forget everything which may be written on a path from the end of the dominator to the start of the block, which
+     * is every block that reaches the block without passing through the dominator.
+     */
+    private void forgetWrittenBetween(Schedule schedule, BasicBlock dominator, BasicBlock block, Map<ValueHandle, Value> known) {
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        addPredecessors(block, dominator, visited, work);
+        BasicBlock current;
+        while ((current = work.poll()) != null) {
+            Set<Object> written = getWrittenClasses(schedule, current);
+            if (written == ALL) {
+                known.clear();
+                return;
+            }
+            if (! written.isEmpty()) {
+                known.keySet().removeIf(handle -> written.contains(aliasClassOf(handle)));
+            }
+            addPredecessors(current, dominator, visited, work);
+        }
+    }
+
+    private static void addPredecessors(BasicBlock block, BasicBlock dominator, Set<BasicBlock> visited, ArrayDeque<BasicBlock> work) {
+        for (BasicBlock predecessor : block.getIncoming()) {
+            if (predecessor != dominator && predecessor.isReachable() && visited.add(predecessor)) {
+                work.add(predecessor);
+            }
+        }
+    }
+
+    private Set<Object> getWrittenClasses(Schedule schedule, BasicBlock block) {
+        Set<Object> written = writtenClasses.get(block);
+        if (written == null) {
+            written = new HashSet<>();
+            for (Node node : schedule.getNodesForBlock(block)) {
+                if (node instanceof OrderedNode && ! (node instanceof Terminator) && ! addWrittenClass(node, written)) {
+                    written = ALL;
+                    break;
+                }
+            }
+            if (written != ALL && ! addWrittenClass(block.getTerminator(), written)) {
+                written = ALL;
+            }
+            writtenClasses.put(block, written);
+        }
+        return written;
+    }
+
+    /**
+     * Add the alias class that the given node writes to the set.
+     *
+     * @return {@code true} if the write was recorded, or {@code false} if the node may write anything
+     */
+    private static boolean addWrittenClass(Node node, Set<Object> written) {
+        if (node instanceof Load load) {
+            return SinglePlain.includes(load.getAccessMode());
+        } else if (node instanceof Store store) {
+            Object aliasClass = aliasClassOf(store.getValueHandle());
+            if (aliasClass == null || ! SinglePlain.includes(store.getAccessMode())) {
+                return false;
+            }
+            written.add(aliasClass);
+            return true;
+        } else {
+            return hasNoMemoryEffect(node);
+        }
+    }
+
+    private void transfer(Node node, Map<ValueHandle, Value> known) {
+        if (node instanceof Load load) {
+            if (! SinglePlain.includes(load.getAccessMode())) {
+                known.clear();
+                return;
+            }
+            ValueHandle handle = load.getValueHandle();
+            if (aliasClassOf(handle) != null) {
+                Value value = known.get(handle);
+                if (value != null && value.getType().equals(load.getType())) {
+                    redundantLoads.put(load, value);
+                } else {
+                    known.put(handle, load);
+                }
+            }
+        } else if (node instanceof Store store) {
+            ValueHandle handle = store.getValueHandle();
+            Object aliasClass = aliasClassOf(handle);
+            if (aliasClass == null || ! SinglePlain.includes(store.getAccessMode())) {
+                known.clear();
+                return;
+            }
+            Value value = store.getValue();
+            if (value.equals(known.get(handle))) {
+                // the location already holds this value
+                redundantStores.add(store);
+            } else {
+                known.keySet().removeIf(other -> aliasClass.equals(aliasClassOf(other)));
+                known.put(handle, value);
+            }
+        } else if (! hasNoMemoryEffect(node)) {
+            known.clear();
+        }
+    }
+
+    private static boolean hasNoMemoryEffect(Node node) {
+        return node instanceof BlockEntry
+            || node instanceof New
+            || node instanceof NewArray
+            || node instanceof NewReferenceArray
+            || node instanceof MultiNewArray
+            || node instanceof StackAllocation
+            || node instanceof CheckCast
+            || node instanceof InstanceOf
+            || node instanceof DebugValueDeclaration
+            || node instanceof DebugAddressDeclaration
+            || node instanceof Goto
+            || node instanceof If
+            || node instanceof Switch
+            || node instanceof Return
+            || node instanceof ValueReturn
+            || node instanceof Throw
+            || node instanceof Unreachable;
+    }
+
+    /**
+     * Get the class of locations which the given handle may alias, or {@code null} if the handle is not tracked.
+     */
+    private static Object aliasClassOf(ValueHandle handle) {
+        if (handle instanceof InstanceFieldOf fieldOf) {
+            return fieldOf.getVariableElement();
+        } else if (handle instanceof StaticField staticField) {
+            return staticField.getVariableElement();
+        } else if (handle instanceof ElementOf elementOf && elementOf.getValueHandle() instanceof ReferenceHandle) {
+            // Java arrays are covariant, so any two reference arrays may be the same array
+            ValueType elementType = elementOf.getValueType();
+            return elementType instanceof ReferenceType ? REFERENCE_ELEMENTS : elementType;
+        } else {
+            return null;
+        }
+    }
+}
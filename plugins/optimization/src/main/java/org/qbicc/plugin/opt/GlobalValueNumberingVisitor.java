@@ -0,0 +1,93 @@
+package org.qbicc.plugin.opt;
+
+import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A copying visitor which numbers loads of invariant object header fields, so that each such load is replaced by
+ * an equivalent load in a dominating block, if there is one.
+ * <p>
+ * Pure values and value handles are already numbered by their structural equality: the copier, the scheduler, and the
+ * back end all map equal nodes to a single copy, which is scheduled in a block that dominates all of its uses. Loads
+ * are not pure because each one depends on its predecessor in program order, so two loads of the same location are
+ * never equal. However the type ID of an object and the length and element type of an array never change once the
+ * object is allocated, so any earlier plain load of such a field in a dominating block yields the same value.
+ */
+public class GlobalValueNumberingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final FieldElement[] invariantFields;
+    private final Map<ValueHandle, Map<BasicBlock, Value>> numberedLoads = new HashMap<>();
+
+    public GlobalValueNumberingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this(delegate, invariantFieldsOf(CoreClasses.get(context)));
+    }
+
+    GlobalValueNumberingVisitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final FieldElement... invariantFields) {
+        this.delegate = delegate;
+        this.invariantFields = invariantFields;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    public Value visit(final Node.Copier param, final Load node) {
+        if (! (node.getValueHandle() instanceof InstanceFieldOf fieldOf && isInvariant(fieldOf.getVariableElement()) && SinglePlain.includes(node.getAccessMode()))) {
+            return NodeVisitor.Delegating.super.visit(param, node);
+        }
+        Schedule schedule = param.getSchedule();
+        BasicBlock block = schedule.getBlockForNode(node);
+        ValueHandle handle = param.copyValueHandle(fieldOf);
+        Map<BasicBlock, Value> loads = numberedLoads.computeIfAbsent(handle, GlobalValueNumberingVisitor::newMap);
+        // blocks are copied in an order where every block follows its dominators
+        for (BasicBlock dominator = block; dominator != null; dominator = schedule.getImmediateDominator(dominator)) {
+            Value value = loads.get(dominator);
+            if (value != null) {
+                // the load is dropped, but its predecessor in program order must still be copied
+                param.copyNode(node.getDependency());
+                return value;
+            }
+        }
+        Value copy = NodeVisitor.Delegating.super.visit(param, node);
+        if (block != null) {
+            loads.put(block, copy);
+        }
+        return copy;
+    }
+
+    private boolean isInvariant(FieldElement field) {
+        for (FieldElement invariantField : invariantFields) {
+            if (field == invariantField) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FieldElement[] invariantFieldsOf(CoreClasses coreClasses) {
+        return new FieldElement[] {
+            coreClasses.getObjectTypeIdField(),
+            coreClasses.getArrayLengthField(),
+            coreClasses.getRefArrayElementTypeIdField(),
+            coreClasses.getRefArrayDimensionsField(),
+        };
+    }
+
+    private static Map<BasicBlock, Value> newMap(final ValueHandle ignored) {
+        return new HashMap<>();
+    }
+}
@@ -67,17 +67,42 @@ import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.FunctionElement;
 
 /**
- * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise.
+ * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise, or unless
+ * the callee is too costly to inline at the call site.
+ * <p>
+ * Each call site has a cost limit which is derived from a base limit, raised for call sites within loops and for call
+ * sites which the {@linkplain ExecutionProfile profile} shows to be hot, and lowered for call sites which the profile
+ * shows were never executed.  Call sites which were not instrumented are weighed as if there were no profile.  A
+ * callee whose estimated size exceeds the limit is not inlined; otherwise it is inlined speculatively, and the inlining
+ * is abandoned once the cost of what was actually copied reaches the limit.  In addition, the total cost of everything
+ * inlined into a caller may not exceed a growth budget which is proportional to the size of the caller.  Call sites
+ * within inlined code are considered in turn, and are nested within the loops of their enclosing call site.
  */
 public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder implements ValueHandleVisitor<Void, ExecutableElement> {
+    private static final float BASE_SITE_LIMIT = 80.0f;
+    private static final int MAX_LOOP_DEPTH_WEIGHT = 3;
+    private static final float MAX_HOTNESS = 4.0f;
+    private static final float COLD_HOTNESS = 0.25f;
+    private static final float MIN_GROWTH_BUDGET = 400.0f;
+    private static final float GROWTH_FACTOR = 2.0f;
+
     private final CompilationContext ctxt;
-    // todo: this is arbitrary
-    private final float costThreshold = 80.0f;
+    private final InliningCostModel costModel;
+    private final ExecutionProfile profile;
+    private float growthBudget = -1;
+    // the total cost of everything inlined into the root element
     private float cost;
+    // the cost and limit of the innermost call site being inlined
+    private float siteCost;
+    private float siteLimit;
+    // the loop depth of the innermost call site being inlined
+    private int loopDepth;
 
     public InliningBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
         super(delegate);
         this.ctxt = ctxt;
+        costModel = InliningCostModel.get(ctxt);
+        profile = ExecutionProfile.get(ctxt);
     }
 
     @Override
@@ -227,8 +252,26 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
     private BasicBlock doInline(ValueHandle target, ExecutableElement element, List<Value> arguments, BlockLabel catchLabel, Function<Value, BasicBlock> onReturn, Runnable andThen) {
         MethodBody body = element.getPreviousMethodBody();
         if (body != null) {
-            float savedCost = this.cost;
             boolean alwaysInline = element.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE);
+            ExecutableElement caller = getCurrentElement();
+            int bci = getLocation().getByteCodeIndex();
+            MethodBody callerBody = getOriginalBody(caller);
+            int siteLoopDepth = loopDepth + (callerBody == null ? 0 : costModel.getLoopDepth(caller, callerBody, bci));
+            float limit = getSiteLimit(caller, bci, siteLoopDepth);
+            if (! alwaysInline) {
+                float size = costModel.getSize(element, body);
+                if (size >= limit || cost + size >= getGrowthBudget()) {
+                    // not worth trying
+                    return null;
+                }
+            }
+            float savedCost = this.cost;
+            float savedSiteCost = this.siteCost;
+            float savedSiteLimit = this.siteLimit;
+            int savedLoopDepth = this.loopDepth;
+            this.siteCost = 0;
+            this.siteLimit = limit;
+            this.loopDepth = siteLoopDepth;
             BlockLabel inlined = new BlockLabel();
             BasicBlock fromBlock = goto_(inlined);
             Terminator callSite = fromBlock.getTerminator();
@@ -243,6 +286,10 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
                 }
                 // inline successful, now copy all declarations known at this point
                 copyDeclarations(element);
+                // the inlined code is part of the enclosing call site
+                this.siteCost = savedSiteCost + this.siteCost;
+                this.siteLimit = savedSiteLimit;
+                this.loopDepth = savedLoopDepth;
                 // jump to the inlined code
                 inlined.setTarget(copied);
                 setCallSite(oldCallSite);
@@ -252,6 +299,9 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
             } catch (Cancel ignored) {
                 // call site was not inlined; restore original inlining cost
                 this.cost = savedCost;
+                this.siteCost = savedSiteCost;
+                this.siteLimit = savedSiteLimit;
+                this.loopDepth = savedLoopDepth;
                 setCallSite(oldCallSite);
                 begin(inlined);
                 return null;
@@ -261,6 +311,44 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
         }
     }
 
+    /**
+     * Get the body that the nodes of the given element are being copied from, which is the body from the previous
+     * phase.  The body of the root element has not yet been replaced while it is being built.
+     */
+    private MethodBody getOriginalBody(ExecutableElement element) {
+        MethodBody body = element.getPreviousMethodBody();
+        if (body == null && element == getRootElement() && element.hasMethodBody()) {
+            body = element.getMethodBody();
+        }
+        return body;
+    }
+
+    private float getSiteLimit(ExecutableElement caller, int bci, int siteLoopDepth) {
+        float limit = BASE_SITE_LIMIT * (1 << Math.min(siteLoopDepth, MAX_LOOP_DEPTH_WEIGHT));
+        if (profile.hasCounts(ExecutionProfile.Kind.CALL) && profile.hasCount(ExecutionProfile.Kind.CALL, caller, bci)) {
+            long count = profile.getCount(ExecutionProfile.Kind.CALL, caller, bci);
+            if (count == 0) {
+                limit *= COLD_HOTNESS;
+            } else {
+                // scale logarithmically between 1 and the maximum hotness
+                double relative = Math.log1p(count) / Math.log1p(profile.getMaxCount(ExecutionProfile.Kind.CALL));
+                limit *= (float) (1.0 + (MAX_HOTNESS - 1.0) * relative);
+            }
+        }
+        return limit;
+    }
+
+    private float getGrowthBudget() {
+        float growthBudget = this.growthBudget;
+        if (growthBudget < 0) {
+            ExecutableElement root = getRootElement();
+            MethodBody rootBody = getOriginalBody(root);
+            float rootSize = rootBody == null ? 0 : costModel.getSize(root, rootBody);
+            growthBudget = this.growthBudget = Math.max(MIN_GROWTH_BUDGET, GROWTH_FACTOR * rootSize);
+        }
+        return growthBudget;
+    }
+
     private void copyDeclarations(final ExecutableElement target) {
         ProgramModule ourModule = ctxt.getOrAddProgramModule(getRootElement().getEnclosingType());
         ProgramModule module = ctxt.getOrAddProgramModule(target.getEnclosingType());
@@ -553,7 +641,8 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
         void addCost(final Node.Copier copier, int amount) {
             if (! alwaysInline) {
                 float cost = InliningBasicBlockBuilder.this.cost + amount;
-                if (cost >= costThreshold) {
+                float siteCost = InliningBasicBlockBuilder.this.siteCost + amount;
+                if (siteCost >= siteLimit || cost >= getGrowthBudget()) {
                     // force termination
                     try {
                         copier.getBlockBuilder().unreachable();
@@ -561,6 +650,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
                     throw new Cancel();
                 }
                 InliningBasicBlockBuilder.this.cost = cost;
+                InliningBasicBlockBuilder.this.siteCost = siteCost;
             }
         }
     }
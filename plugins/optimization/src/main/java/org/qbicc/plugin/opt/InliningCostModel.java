@@ -0,0 +1,218 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.PhaseAttachmentKey;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.And;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BitCast;
+import org.qbicc.graph.BlockEntry;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.Convert;
+import org.qbicc.graph.Div;
+import org.qbicc.graph.Extend;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Mod;
+import org.qbicc.graph.Multiply;
+import org.qbicc.graph.Neg;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Or;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.Rol;
+import org.qbicc.graph.Ror;
+import org.qbicc.graph.Shl;
+import org.qbicc.graph.Shr;
+import org.qbicc.graph.Sub;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Truncate;
+import org.qbicc.graph.Xor;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * Static size estimates and call site loop depths of method bodies, for the inliner.
+ * <p>
+ * The size of a body is the sum of the inlining costs of its nodes, where each node is counted once no matter how
+ * many times it is used. The loop depth of a call site is the number of loops that contain the block of the call.
+ */
+final class InliningCostModel {
+    private static final PhaseAttachmentKey<InliningCostModel> KEY = new PhaseAttachmentKey<>();
+
+    private final Map<ExecutableElement, Info> infos = new ConcurrentHashMap<>();
+
+    private InliningCostModel() {
+    }
+
+    static InliningCostModel get(CompilationContext ctxt) {
+        InliningCostModel model = ctxt.getAttachment(KEY);
+        if (model == null) {
+            model = new InliningCostModel();
+            InliningCostModel appearing = ctxt.putAttachmentIfAbsent(KEY, model);
+            if (appearing != null) {
+                model = appearing;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Get the estimated inlining cost of the given body.
+     *
+     * @param element the element of the body (must not be {@code null})
+     * @param body the body (must not be {@code null})
+     * @return the estimated cost of inlining the whole body
+     */
+    float getSize(ExecutableElement element, MethodBody body) {
+        return getInfo(element, body).size;
+    }
+
+    /**
+     * Get the loop depth of the call at the given bytecode index of the given body.
+     *
+     * @param element the element of the body (must not be {@code null})
+     * @param body the body (must not be {@code null})
+     * @param bci the bytecode index of the call
+     * @return the number of loops which contain the call, or 0 if the call is not found
+     */
+    int getLoopDepth(ExecutableElement element, MethodBody body, int bci) {
+        Integer depth = getInfo(element, body).callLoopDepths.get(Integer.valueOf(bci));
+        return depth == null ? 0 : depth.intValue();
+    }
+
+    private Info getInfo(ExecutableElement element, MethodBody body) {
+        Info info = infos.get(element);
+        if (info == null) {
+            info = computeInfo(body);
+            Info appearing = infos.putIfAbsent(element, info);
+            if (appearing != null) {
+                info = appearing;
+            }
+        }
+        return info;
+    }
+
+    private static Info computeInfo(MethodBody body) {
+        Map<Integer, Integer> callLoopDepths = new HashMap<>();
+        Set<BasicBlock> visitedBlocks = new HashSet<>();
+        ArrayDeque<BasicBlock> blocks = new ArrayDeque<>();
+        Set<Node> visitedNodes = new HashSet<>();
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        BasicBlock entryBlock = body.getEntryBlock();
+        visitedBlocks.add(entryBlock);
+        blocks.add(entryBlock);
+        BasicBlock block;
+        Node node;
+        while ((block = blocks.poll()) != null) {
+            Terminator terminator = block.getTerminator();
+            Integer depth = Integer.valueOf(block.getLoops().size());
+            // the calls of the block are on the dependency chain of its terminator
+            node = terminator;
+            while (node instanceof OrderedNode ordered && ! (node instanceof BlockEntry)) {
+                if (isCall(node)) {
+                    callLoopDepths.merge(Integer.valueOf(node.getBytecodeIndex()), depth, Math::max);
+                }
+                node = ordered.getDependency();
+            }
+            visitedNodes.add(terminator);
+            nodes.add(terminator);
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visitedBlocks.add(successor)) {
+                    blocks.add(successor);
+                }
+            }
+        }
+        float size = 0;
+        while ((node = nodes.poll()) != null) {
+            size += costOf(node);
+            if (node.hasValueHandleDependency()) {
+                addNode(node.getValueHandle(), visitedNodes, nodes);
+            }
+            int cnt = node.getValueDependencyCount();
+            for (int i = 0; i < cnt; i ++) {
+                addNode(node.getValueDependency(i), visitedNodes, nodes);
+            }
+            if (node instanceof OrderedNode ordered) {
+                addNode(ordered.getDependency(), visitedNodes, nodes);
+            }
+            if (node instanceof Terminator terminator) {
+                for (Node outbound : terminator.getOutboundValues().values()) {
+                    addNode(outbound, visitedNodes, nodes);
+                }
+            }
+        }
+        return new Info(size, callLoopDepths);
+    }
+
+    private static void addNode(Node node, Set<Node> visitedNodes, ArrayDeque<Node> nodes) {
+        if (visitedNodes.add(node)) {
+            nodes.add(node);
+        }
+    }
+
+    private static boolean isCall(Node node) {
+        return node instanceof Call
+            || node instanceof CallNoSideEffects
+            || node instanceof CallNoReturn
+            || node instanceof TailCall
+            || node instanceof Invoke
+            || node instanceof InvokeNoReturn
+            || node instanceof TailInvoke;
+    }
+
+    /**
+     * Get the cost of copying the given node into a caller, which matches the cost that the inliner charges for it.
+     *
+     * @param node the node (must not be {@code null})
+     * @return the cost
+     */
+    static int costOf(Node node) {
+        if (isCall(node)) {
+            return 10;
+        } else if (node instanceof If) {
+            return 4;
+        } else if (node instanceof Switch switch_) {
+            return 2 * (switch_.getNumberOfValues() + 1);
+        } else if (node instanceof Add || node instanceof And || node instanceof Div || node instanceof Mod
+            || node instanceof Multiply || node instanceof Neg || node instanceof Or || node instanceof Sub
+            || node instanceof Xor || node instanceof IsEq || node instanceof IsGe || node instanceof IsGt
+            || node instanceof IsLe || node instanceof IsLt || node instanceof IsNe || node instanceof BitCast
+            || node instanceof Convert || node instanceof Extend || node instanceof Truncate || node instanceof Rol
+            || node instanceof Ror || node instanceof Shl || node instanceof Shr) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    private static final class Info {
+        final float size;
+        final Map<Integer, Integer> callLoopDepths;
+
+        Info(final float size, final Map<Integer, Integer> callLoopDepths) {
+            this.size = size;
+            this.callLoopDepths = callLoopDepths;
+        }
+    }
+}
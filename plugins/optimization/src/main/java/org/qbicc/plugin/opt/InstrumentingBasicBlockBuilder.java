@@ -0,0 +1,142 @@
+package org.qbicc.plugin.opt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Executable;
+import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A block builder which counts the executions of call sites, allocation sites, and conditional branches of Java
+ * methods, by calling into {@code ProfileCounters} before each one.
+ * <p>
+ * The run time library itself is not instrumented, because parts of it run before the program is fully initialized.
+ */
+public class InstrumentingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final String PROFILE_COUNTERS = "org/qbicc/runtime/main/ProfileCounters";
+
+    private final CompilationContext ctxt;
+    private final ProfileInstrumentation instrumentation;
+    private final boolean enabled;
+    private MethodElement countMethod;
+    private MethodElement countBranchMethod;
+    /**
+     * The number of branches seen so far at each site, so that each branch of a site has its own counters.
+     */
+    private final Map<String, Integer> branchOrdinals = new HashMap<>();
+
+    public InstrumentingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        instrumentation = ProfileInstrumentation.get(ctxt);
+        ExecutableElement rootElement = getRootElement();
+        enabled = ! (rootElement instanceof FunctionElement) && ! rootElement.getEnclosingType().getInternalName().startsWith("org/qbicc/runtime/");
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.call(target, arguments);
+    }
+
+    @Override
+    public BasicBlock callNoReturn(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.callNoReturn(target, arguments);
+    }
+
+    @Override
+    public BasicBlock tailCall(ValueHandle target, List<Value> arguments) {
+        countCall(target);
+        return super.tailCall(target, arguments);
+    }
+
+    @Override
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        countCall(target);
+        return super.invoke(target, arguments, catchLabel, resumeLabel);
+    }
+
+    @Override
+    public BasicBlock invokeNoReturn(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        countCall(target);
+        return super.invokeNoReturn(target, arguments, catchLabel);
+    }
+
+    @Override
+    public BasicBlock tailInvoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        countCall(target);
+        return super.tailInvoke(target, arguments, catchLabel);
+    }
+
+    @Override
+    public Value new_(ClassObjectType type, Value typeId, Value size, Value align) {
+        count(ExecutionProfile.Kind.ALLOCATION);
+        return super.new_(type, typeId, size, align);
+    }
+
+    @Override
+    public Value newArray(PrimitiveArrayObjectType arrayType, Value size) {
+        count(ExecutionProfile.Kind.ALLOCATION);
+        return super.newArray(arrayType, size);
+    }
+
+    @Override
+    public Value newReferenceArray(ReferenceArrayObjectType arrayType, Value elemTypeId, Value dimensions, Value size) {
+        count(ExecutionProfile.Kind.ALLOCATION);
+        return super.newReferenceArray(arrayType, elemTypeId, dimensions, size);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        int bci = getLocation().getByteCodeIndex();
+        if (enabled && bci >= 0) {
+            int index = instrumentation.getBranchCounters(nextBranchKey(bci));
+            if (countBranchMethod == null) {
+                countBranchMethod = RuntimeMethodFinder.get(ctxt).getMethod(PROFILE_COUNTERS, "countBranch");
+            }
+            super.call(staticMethod(countBranchMethod), List.of(ctxt.getLiteralFactory().literalOf(index), condition));
+        }
+        return super.if_(condition, trueTarget, falseTarget);
+    }
+
+    private String nextBranchKey(int bci) {
+        ExecutableElement element = getCurrentElement();
+        int ordinal = branchOrdinals.merge(ExecutionProfile.keyOf(element, bci), Integer.valueOf(1), Integer::sum).intValue() - 1;
+        return ExecutionProfile.branchKeyOf(element, bci, ordinal);
+    }
+
+    private void countCall(ValueHandle target) {
+        // only calls to Java methods are counted, and never those to the counters themselves
+        if (target instanceof Executable executable && ! (target instanceof FunctionElementHandle)
+            && ! executable.getExecutable().getEnclosingType().internalNameEquals(PROFILE_COUNTERS)) {
+            count(ExecutionProfile.Kind.CALL);
+        }
+    }
+
+    private void count(ExecutionProfile.Kind kind) {
+        int bci = getLocation().getByteCodeIndex();
+        if (enabled && bci >= 0) {
+            int index = instrumentation.getCounter(kind, ExecutionProfile.keyOf(getCurrentElement(), bci));
+            if (countMethod == null) {
+                countMethod = RuntimeMethodFinder.get(ctxt).getMethod(PROFILE_COUNTERS, "count");
+            }
+            super.call(staticMethod(countMethod), List.of(ctxt.getLiteralFactory().literalOf(index)));
+        }
+    }
+}
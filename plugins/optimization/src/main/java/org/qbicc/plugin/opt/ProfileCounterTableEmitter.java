@@ -0,0 +1,57 @@
+package org.qbicc.plugin.opt;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.interpreter.VmArray;
+import org.qbicc.object.Data;
+import org.qbicc.object.Linkage;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Emit the execution counter array of an instrumented build, along with the profile file line of each counter, and
+ * initialize the {@code InitialHeap} fields which refer to them. Both fields are {@code null} if no site was
+ * instrumented.
+ */
+public class ProfileCounterTableEmitter implements Consumer<CompilationContext> {
+    @Override
+    public void accept(CompilationContext ctxt) {
+        List<String> lines = ProfileInstrumentation.get(ctxt).getCounterLines();
+        LoadedTypeDefinition ih = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/InitialHeap").load();
+        ModuleSection section = ctxt.getImplicitSection(ih);
+        VmArray counters = null;
+        VmArray keys = null;
+        if (! lines.isEmpty()) {
+            StringBuilder b = new StringBuilder();
+            for (String line : lines) {
+                b.append(line).append('\n');
+            }
+            counters = ctxt.getVm().newLongArray(new long[lines.size()]);
+            keys = ctxt.getVm().newByteArray(b.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        emitField(ctxt, ih, section, "profileCounters", counters);
+        emitField(ctxt, ih, section, "profileCounterKeys", keys);
+    }
+
+    private static void emitField(CompilationContext ctxt, LoadedTypeDefinition ih, ModuleSection section, String fieldName, VmArray array) {
+        FieldElement field = ih.findField(fieldName);
+        Literal value;
+        if (array == null) {
+            value = ctxt.getLiteralFactory().zeroInitializerLiteralOfType(field.getType());
+        } else {
+            BuildtimeHeap bth = BuildtimeHeap.get(ctxt);
+            bth.serializeVmObject(array, false);
+            value = bth.referToSerializedVmObject(array, array.getObjectType().getReference(), section.getProgramModule());
+        }
+        String name = ih.getInternalName().replace('/', '.') + "." + field.getName();
+        Data d = section.addData(null, name, value);
+        d.setLinkage(Linkage.EXTERNAL);
+        d.setDsoLocal();
+    }
+}
@@ -0,0 +1,76 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+
+/**
+ * The execution counters of an instrumented build. Each counter is identified by its kind and site key, and has a
+ * fixed index into the run time counter array.
+ */
+public final class ProfileInstrumentation {
+    private static final AttachmentKey<ProfileInstrumentation> KEY = new AttachmentKey<>();
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> lines = new ArrayList<>();
+
+    private ProfileInstrumentation() {
+    }
+
+    public static ProfileInstrumentation get(CompilationContext ctxt) {
+        ProfileInstrumentation instrumentation = ctxt.getAttachment(KEY);
+        if (instrumentation == null) {
+            instrumentation = new ProfileInstrumentation();
+            ProfileInstrumentation appearing = ctxt.putAttachmentIfAbsent(KEY, instrumentation);
+            if (appearing != null) {
+                instrumentation = appearing;
+            }
+        }
+        return instrumentation;
+    }
+
+    /**
+     * Get the index of the counter of the given kind for the given site, allocating it if needed.
+     *
+     * @param kind the kind of counter (must not be {@code null})
+     * @param key the site key (must not be {@code null})
+     * @return the counter index
+     */
+    public synchronized int getCounter(ExecutionProfile.Kind kind, String key) {
+        String line = kind.getLabel() + " " + key;
+        Integer index = indexes.get(line);
+        if (index == null) {
+            index = Integer.valueOf(lines.size());
+            lines.add(line);
+            indexes.put(line, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Get the index of the first of the pair of counters for the given conditional branch site, allocating them if
+     * needed. The first counter counts the branch being taken, and the second counts it not being taken.
+     *
+     * @param key the site key (must not be {@code null})
+     * @return the index of the first counter
+     */
+    public synchronized int getBranchCounters(String key) {
+        int index = getCounter(ExecutionProfile.Kind.BRANCH_TAKEN, key);
+        int notTakenIndex = getCounter(ExecutionProfile.Kind.BRANCH_NOT_TAKEN, key);
+        assert notTakenIndex == index + 1;
+        return index;
+    }
+
+    /**
+     * Get the profile file line of each counter, without the count, in counter index order.
+     *
+     * @return the list of lines (not {@code null})
+     */
+    public synchronized List<String> getCounterLines() {
+        return List.copyOf(lines);
+    }
+}
@@ -1,6 +1,15 @@
 package org.qbicc.plugin.opt.ea;
 
+import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
@@ -8,15 +17,38 @@ import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.BlockEntry;
 import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Jsr;
+import org.qbicc.graph.Load;
 import org.qbicc.graph.New;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.NodeVisitor;
 import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Ret;
+import org.qbicc.graph.Return;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Throw;
+import org.qbicc.graph.Unreachable;
+import org.qbicc.graph.Unschedulable;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
 import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.schedule.Schedule;
 import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ClassObjectType;
@@ -24,19 +56,65 @@ import org.qbicc.type.CompoundType;
 import org.qbicc.type.StaticMethodType;
 import org.qbicc.type.definition.DefinedTypeDefinition;
 import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.InstanceFieldElement;
 import org.qbicc.type.definition.element.MethodElement;
 
+/**
+ * A copying visitor which removes the heap allocations of objects which do not escape their method.
+ * <p>
+ * If every use of a non-escaping object is a plain load or store of one of its fields, the object is replaced by
+ * scalars: each field becomes a value which is tracked through the program as it is copied, with phis wherever
+ * different values of a field meet, and the allocation is removed. This works wherever the allocation is, including
+ * inside loops, because every execution of the allocation starts over with zeroed fields. Otherwise, objects which are
+ * not allocated inside a loop are allocated on the stack.
+ */
 public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    /**
+     * The number of empty blocks to look through to find the field values on entry to a block.
+     */
+    private static final int MAX_EMPTY_BLOCKS = 8;
+
     private final CompilationContext ctxt;
     private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
     private final EscapeAnalysisState escapeAnalysisState;
     private final MethodElement zeroMethod;
+    private final InstanceFieldElement typeIdField;
+    /**
+     * The objects which are replaced by scalars, and the fields of each one which are stored, or {@code null} if the
+     * program was not analyzed yet.
+     */
+    private Map<New, Set<InstanceFieldElement>> scalarReplaced;
+    /**
+     * The field values at the end of each block of the original program, as copied so far.
+     */
+    private final Map<BasicBlock, Map<FieldKey, Value>> fieldValues = new HashMap<>();
+    /**
+     * The copy of each block of the original program whose terminator was copied.
+     */
+    private final Map<BasicBlock, BasicBlock> copiedExits = new HashMap<>();
+    /**
+     * The field phis which are waiting for a value from each block of the original program.
+     */
+    private final Map<BasicBlock, List<PhiInput>> pendingInputs = new HashMap<>();
+    /**
+     * The field phi inputs whose copied predecessor is known, waiting for the block of the phi to be terminated.
+     */
+    private final List<PhiIncoming> unresolvedInputs = new ArrayList<>();
 
     public EscapeAnalysisOptimizeVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this(ctxt, delegate, EscapeAnalysisState.getPrevious(ctxt), findZeroMethod(ctxt), (InstanceFieldElement) CoreClasses.get(ctxt).getObjectTypeIdField());
+    }
+
+    EscapeAnalysisOptimizeVisitor(final CompilationContext ctxt, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final EscapeAnalysisState escapeAnalysisState, final MethodElement zeroMethod, final InstanceFieldElement typeIdField) {
         this.ctxt = ctxt;
         this.delegate = delegate;
-        this.escapeAnalysisState = EscapeAnalysisState.getPrevious(ctxt);
+        this.escapeAnalysisState = escapeAnalysisState;
+        this.zeroMethod = zeroMethod;
+        this.typeIdField = typeIdField;
+    }
 
+    private static MethodElement findZeroMethod(CompilationContext ctxt) {
         ClassContext classContext = ctxt.getBootstrapClassContext();
         DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
         if (defined == null) {
@@ -47,7 +125,7 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
         if (index == -1) {
             throw methodMissing();
         }
-        zeroMethod = loaded.getMethod(index);
+        return loaded.getMethod(index);
     }
 
     private static IllegalStateException runtimeMissing() {
@@ -65,6 +143,15 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
     @Override
     public Value visit(Node.Copier param, New original) {
         final BasicBlockBuilder bbb = param.getBlockBuilder();
+        BasicBlock block = param.getSchedule().getBlockForNode(original);
+        analyze(param, block);
+        if (scalarReplaced.containsKey(original)) {
+            // only the place of the allocation in the program order remains
+            param.copyNode(original.getDependency());
+            // every execution of the allocation starts over with zeroed fields
+            getFieldValues(param, block).keySet().removeIf(key -> key.object() == original);
+            return ctxt.getLiteralFactory().undefinedLiteralOfType(original.getType());
+        }
         if (isStackAllocate(original, bbb)) {
             // Copy dependency so that stack allocation can be scheduled in the right place
             param.copyNode(original.getDependency());
@@ -74,8 +161,374 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
         return NodeVisitor.Delegating.super.visit(param, original);
     }
 
+    @Override
+    public Value visit(Node.Copier param, Load node) {
+        if (node.getValueHandle() instanceof InstanceFieldOf fieldOf) {
+            BasicBlock block = param.getSchedule().getBlockForNode(node);
+            analyze(param, block);
+            New object = getReplacedObject(fieldOf);
+            if (object != null) {
+                param.copyNode(node.getDependency());
+                FieldKey key = new FieldKey(object, fieldOf.getVariableElement());
+                Value value = getFieldValues(param, block).get(key);
+                return value == null ? getInitialValue(key) : value;
+            }
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    @Override
+    public Node visit(Node.Copier param, Store node) {
+        if (node.getValueHandle() instanceof InstanceFieldOf fieldOf) {
+            BasicBlock block = param.getSchedule().getBlockForNode(node);
+            analyze(param, block);
+            New object = getReplacedObject(fieldOf);
+            if (object != null) {
+                Node dependency = param.copyNode(node.getDependency());
+                Value value = param.copyValue(node.getValue());
+                getFieldValues(param, block).put(new FieldKey(object, fieldOf.getVariableElement()), value);
+                return dependency;
+            }
+        }
+        return NodeVisitor.Delegating.super.visit(param, node);
+    }
+
+    @Override
+    public Node visit(Node.Copier param, BlockEntry node) {
+        Node copy = NodeVisitor.Delegating.super.visit(param, node);
+        // establish the field values on entry while the predecessors are known
+        BasicBlock block = node.getPinnedBlock();
+        analyze(param, block);
+        // the previous block may have been terminated early, without a terminator being copied
+        resolveInputs(param);
+        getFieldValues(param, block);
+        return copy;
+    }
+
+    // the terminators which have successors supply the inputs of field phis, and every terminator may finish a block
+    // which holds field phis
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Goto node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, If node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Invoke node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, InvokeNoReturn node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Jsr node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Ret node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Switch node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, TailInvoke node) {
+        return copiedExit(param, node, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, CallNoReturn node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Return node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, TailCall node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Throw node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, Unreachable node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    @Override
+    public BasicBlock visit(Node.Copier param, ValueReturn node) {
+        return terminated(param, NodeVisitor.Delegating.super.visit(param, node));
+    }
+
+    private BasicBlock copiedExit(Node.Copier param, Terminator original, BasicBlock copy) {
+        BasicBlock block = original.getTerminatedBlock();
+        if (scalarReplaced != null && ! scalarReplaced.isEmpty()) {
+            copiedExits.put(block, copy);
+            List<PhiInput> inputs = pendingInputs.remove(block);
+            if (inputs != null) {
+                Map<FieldKey, Value> values = getFieldValues(param, block);
+                for (PhiInput input : inputs) {
+                    setPhiInput(input, copy, values);
+                }
+            }
+        }
+        return terminated(param, copy);
+    }
+
+    private BasicBlock terminated(Node.Copier param, BasicBlock copy) {
+        resolveInputs(param);
+        return copy;
+    }
+
+    /**
+     * Find the objects to replace by scalars. An object qualifies if it does not escape the method, and it is only
+     * used by plain loads and stores of its fields, other than its object header.
+     */
+    private void analyze(Node.Copier param, BasicBlock block) {
+        if (scalarReplaced != null) {
+            return;
+        }
+        scalarReplaced = new HashMap<>();
+        Schedule schedule = param.getSchedule();
+        BasicBlock entryBlock = block;
+        for (BasicBlock dominator = block; dominator != null; dominator = schedule.getImmediateDominator(dominator)) {
+            entryBlock = dominator;
+        }
+        List<New> allocations = new ArrayList<>();
+        Set<New> rejected = new HashSet<>();
+        Map<New, Set<InstanceFieldElement>> storedFields = new HashMap<>();
+        Set<Node> visited = new HashSet<>();
+        Set<BasicBlock> visitedBlocks = new HashSet<>();
+        ArrayDeque<BasicBlock> blockQueue = new ArrayDeque<>();
+        visitedBlocks.add(entryBlock);
+        blockQueue.add(entryBlock);
+        BasicBlock current;
+        while ((current = blockQueue.poll()) != null) {
+            for (Node node : schedule.getNodesForBlock(current)) {
+                findUses(node, visited, allocations, rejected, storedFields);
+            }
+            Terminator terminator = current.getTerminator();
+            findUses(terminator, visited, allocations, rejected, storedFields);
+            int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visitedBlocks.add(successor)) {
+                    blockQueue.add(successor);
+                }
+            }
+        }
+        ExecutableElement rootElement = param.getBlockBuilder().getRootElement();
+        for (New allocation : allocations) {
+            if (! rejected.contains(allocation) && escapeAnalysisState.isNotEscapingMethod(allocation, rootElement)) {
+                scalarReplaced.put(allocation, storedFields.getOrDefault(allocation, Set.of()));
+            }
+        }
+    }
+
+    private void findUses(Node node, Set<Node> visited, List<New> allocations, Set<New> rejected, Map<New, Set<InstanceFieldElement>> storedFields) {
+        if (! visited.add(node)) {
+            return;
+        }
+        if (node instanceof New new_) {
+            allocations.add(new_);
+        }
+        if (node.hasValueHandleDependency()) {
+            ValueHandle handle = node.getValueHandle();
+            if (handle instanceof ReferenceHandle ref && ref.getReferenceValue() instanceof New new_) {
+                if (! (node instanceof InstanceFieldOf)) {
+                    rejected.add(new_);
+                }
+            } else if (handle instanceof InstanceFieldOf fieldOf && getAllocation(fieldOf) instanceof New new_) {
+                if (fieldOf.getVariableElement() == typeIdField) {
+                    rejected.add(new_);
+                } else if (node instanceof Store store && SinglePlain.includes(store.getAccessMode())
+                    && store.getValue().getType().equals(fieldOf.getValueType())) {
+                    storedFields.computeIfAbsent(new_, k -> new HashSet<>()).add(fieldOf.getVariableElement());
+                } else if (! (node instanceof Load load && SinglePlain.includes(load.getAccessMode()))) {
+                    rejected.add(new_);
+                }
+            }
+            findUses(handle, visited, allocations, rejected, storedFields);
+        }
+        int cnt = node.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            Value value = node.getValueDependency(i);
+            if (value instanceof New new_ && ! (node instanceof ReferenceHandle)) {
+                rejected.add(new_);
+            } else if (value instanceof Unschedulable) {
+                findUses(value, visited, allocations, rejected, storedFields);
+            }
+        }
+        if (node instanceof Terminator terminator) {
+            // values flowing into phis
+            for (Value value : terminator.getOutboundValues().values()) {
+                if (value instanceof New new_) {
+                    rejected.add(new_);
+                }
+            }
+        }
+    }
+
+    private static Value getAllocation(InstanceFieldOf fieldOf) {
+        return fieldOf.getValueHandle() instanceof ReferenceHandle ref ? ref.getReferenceValue() : null;
+    }
+
+    private New getReplacedObject(InstanceFieldOf fieldOf) {
+        return getAllocation(fieldOf) instanceof New new_ && scalarReplaced.containsKey(new_) ? new_ : null;
+    }
+
+    private Value getInitialValue(FieldKey key) {
+        return ctxt.getLiteralFactory().zeroInitializerLiteralOfType(key.field().getType());
+    }
+
+    /**
+     * Get the field values of the given block of the original program as copied so far, starting with the values on
+     * entry to the block.
+     */
+    private Map<FieldKey, Value> getFieldValues(Node.Copier param, BasicBlock block) {
+        Map<FieldKey, Value> values = fieldValues.get(block);
+        if (values == null) {
+            values = getEntryValues(param, block);
+            fieldValues.put(block, values);
+        }
+        return values;
+    }
+
+    private Map<FieldKey, Value> getEntryValues(Node.Copier param, BasicBlock block) {
+        Map<FieldKey, Value> values = new HashMap<>();
+        if (scalarReplaced.isEmpty()) {
+            return values;
+        }
+        List<BasicBlock> predecessors = new ArrayList<>();
+        for (BasicBlock incoming : block.getIncoming()) {
+            if (incoming.isReachable()) {
+                predecessors.add(incoming);
+            }
+        }
+        Map<BasicBlock, Map<FieldKey, Value>> exitValues = new HashMap<>();
+        boolean allKnown = true;
+        for (BasicBlock predecessor : predecessors) {
+            Map<FieldKey, Value> predecessorValues = getKnownExitValues(predecessor, block, 0);
+            if (predecessorValues == null) {
+                allKnown = false;
+            } else {
+                exitValues.put(predecessor, predecessorValues);
+            }
+        }
+        if (predecessors.size() == 1 && allKnown) {
+            values.putAll(exitValues.get(predecessors.get(0)));
+            return values;
+        }
+        // a field is only live here if its object is allocated on every path to this block
+        Schedule schedule = param.getSchedule();
+        for (Map.Entry<New, Set<InstanceFieldElement>> entry : scalarReplaced.entrySet()) {
+            New object = entry.getKey();
+            if (entry.getValue().isEmpty() || ! isStrictlyDominatedBy(schedule, block, schedule.getBlockForNode(object))) {
+                continue;
+            }
+            for (InstanceFieldElement field : entry.getValue()) {
+                FieldKey key = new FieldKey(object, field);
+                Value common = null;
+                boolean same = allKnown;
+                for (Map<FieldKey, Value> predecessorValues : exitValues.values()) {
+                    Value value = predecessorValues.getOrDefault(key, getInitialValue(key));
+                    if (common == null) {
+                        common = value;
+                    } else if (! common.equals(value)) {
+                        same = false;
+                    }
+                }
+                if (same && common != null) {
+                    values.put(key, common);
+                    continue;
+                }
+                PhiValue phi = param.getBlockBuilder().phi(field.getType(), param.copyBlock(block));
+                values.put(key, phi);
+                PhiInput input = new PhiInput(phi, key);
+                for (BasicBlock predecessor : predecessors) {
+                    BasicBlock copy = copiedExits.get(predecessor);
+                    if (copy != null) {
+                        setPhiInput(input, copy, fieldValues.get(predecessor));
+                    } else {
+                        pendingInputs.computeIfAbsent(predecessor, k -> new ArrayList<>()).add(input);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Get the field values at the end of the given predecessor block, if they are already known. They are known if
+     * the predecessor was copied, or if it is empty and the values at the end of its own predecessor are known.
+     */
+    private Map<FieldKey, Value> getKnownExitValues(BasicBlock predecessor, BasicBlock block, int depth) {
+        if (predecessor == block) {
+            return null;
+        }
+        Map<FieldKey, Value> values = fieldValues.get(predecessor);
+        if (values != null) {
+            return values;
+        }
+        if (depth < MAX_EMPTY_BLOCKS && predecessor.getTerminator() instanceof Goto goto_ && goto_.getDependency() instanceof BlockEntry
+            && predecessor.getIncoming().size() == 1) {
+            return getKnownExitValues(predecessor.getIncoming().iterator().next(), block, depth + 1);
+        }
+        return null;
+    }
+
+    private void setPhiInput(PhiInput input, BasicBlock copiedPredecessor, Map<FieldKey, Value> predecessorValues) {
+        Value value = predecessorValues.get(input.key());
+        unresolvedInputs.add(new PhiIncoming(input.phi(), copiedPredecessor, value == null ? getInitialValue(input.key()) : value));
+    }
+
+    /**
+     * Set the inputs of the field phis whose blocks are terminated. As with the phis of the copier, an input is only
+     * set if the copied predecessor still flows into the block of the phi.
+     */
+    private void resolveInputs(Node.Copier param) {
+        Iterator<PhiIncoming> iterator = unresolvedInputs.iterator();
+        while (iterator.hasNext()) {
+            PhiIncoming incoming = iterator.next();
+            BasicBlock phiBlock = BlockLabel.getTargetOf(incoming.phi().getPinnedBlockLabel());
+            if (phiBlock != null) {
+                iterator.remove();
+                if (incoming.copiedPredecessor().isSucceededBy(phiBlock)) {
+                    incoming.phi().setValueForBlock(ctxt, param.getBlockBuilder().getCurrentElement(), incoming.copiedPredecessor(), incoming.value());
+                }
+            }
+        }
+    }
+
+    private static boolean isStrictlyDominatedBy(Schedule schedule, BasicBlock block, BasicBlock dominator) {
+        for (BasicBlock current = schedule.getImmediateDominator(block); current != null; current = schedule.getImmediateDominator(current)) {
+            if (current == dominator) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isStackAllocate(New new_, BasicBlockBuilder bbb) {
-        return escapeAnalysisState.isNotEscapingMethod(new_, bbb.getCurrentElement())
+        return escapeAnalysisState.isNotEscapingMethod(new_, bbb.getRootElement())
             && notInLoop(new_);
     }
 
@@ -114,4 +567,19 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
     private void initializeObjectFieldsToZero(final LayoutInfo info, final LiteralFactory lf, final Value oop, final BasicBlockBuilder bbb) {
         bbb.call(bbb.staticMethod(zeroMethod, zeroMethod.getDescriptor(), (StaticMethodType) zeroMethod.getType()), List.of(oop, lf.literalOf(info.getCompoundType().getSize())));
     }
+
+    /**
+     * A field of an object which is replaced by scalars.
+     */
+    record FieldKey(New object, InstanceFieldElement field) {}
+
+    /**
+     * A field phi, waiting for its value from a predecessor block.
+     */
+    record PhiInput(PhiValue phi, FieldKey key) {}
+
+    /**
+     * The value of a field phi for a copied predecessor block.
+     */
+    record PhiIncoming(PhiValue phi, BasicBlock copiedPredecessor, Value value) {}
 }
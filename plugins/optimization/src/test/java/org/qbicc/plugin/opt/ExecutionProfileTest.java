@@ -0,0 +1,67 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests for loading and looking up execution counts.
+ */
+public class ExecutionProfileTest {
+    private final TestMethodContext mc = new TestMethodContext();
+    private final MethodElement element = mc.getElement();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testZeroCountIsDistinctFromNoCount() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.get(mc.getCompilationContext());
+        profile.load(profileFile(
+            "0 call TestClass.testMethod()V@3",
+            "12 call TestClass.testMethod()V@7",
+            "5 alloc TestClass.testMethod()V@9"
+        ));
+
+        assertTrue(profile.hasCounts(ExecutionProfile.Kind.CALL));
+        // a site which was instrumented but never executed
+        assertTrue(profile.hasCount(ExecutionProfile.Kind.CALL, element, 3));
+        assertEquals(0, profile.getCount(ExecutionProfile.Kind.CALL, element, 3));
+        // a site which was not instrumented
+        assertFalse(profile.hasCount(ExecutionProfile.Kind.CALL, element, 5));
+        assertEquals(0, profile.getCount(ExecutionProfile.Kind.CALL, element, 5));
+        // counts of other kinds are kept apart
+        assertFalse(profile.hasCount(ExecutionProfile.Kind.CALL, element, 9));
+        assertTrue(profile.hasCount(ExecutionProfile.Kind.ALLOCATION, element, 9));
+        assertEquals(12, profile.getMaxCount(ExecutionProfile.Kind.CALL));
+    }
+
+    @Test
+    public void testCountsAreSummed() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.get(mc.getCompilationContext());
+        profile.load(profileFile("4 call TestClass.testMethod()V@7"));
+        profile.load(profileFile("6 call TestClass.testMethod()V@7"));
+
+        assertEquals(10, profile.getCount(ExecutionProfile.Kind.CALL, element, 7));
+        assertEquals(10, profile.getMaxCount(ExecutionProfile.Kind.CALL));
+    }
+
+    @Test
+    public void testMalformedProfile() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.get(mc.getCompilationContext());
+        assertThrows(IOException.class, () -> profile.load(profileFile("4 bogus TestClass.testMethod()V@7")));
+        assertThrows(IOException.class, () -> profile.load(profileFile("many call TestClass.testMethod()V@7")));
+    }
+
+    private Path profileFile(String... lines) throws IOException {
+        return Files.write(Files.createTempFile(tempDir, "test", ".profile"), List.of(lines), StandardCharsets.UTF_8);
+    }
+}
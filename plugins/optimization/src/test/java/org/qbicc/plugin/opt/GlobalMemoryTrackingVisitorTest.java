@@ -0,0 +1,138 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.plugin.opt.TestMethodContext.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Tests for the elimination of redundant loads and stores across blocks. The objects are primitive arrays, so that no
+ * class definitions are needed.
+ */
+public class GlobalMemoryTrackingVisitorTest {
+    private final TestMethodContext mc = new TestMethodContext();
+    private final TypeSystem ts = mc.getTypeSystem();
+    private final LiteralFactory lf = mc.getLiteralFactory();
+    private final SignedIntegerType s32 = ts.getSignedInteger32Type();
+    private final FieldElement field = mc.createField("field", 0);
+
+    @Test
+    public void testStoreIsForwardedAcrossDominatingBlock() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        ParameterValue x = bbb.parameter(s32, "x", 1);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        // entry: p.field = x; if (x < 0) goto true else goto false
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), x);
+        BasicBlock entry = bbb.if_(bbb.isLt(x, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        // neither branch writes to the field
+        bbb.begin(trueLabel);
+        bbb.goto_(merge);
+        bbb.begin(falseLabel);
+        bbb.goto_(merge);
+        // merge: return p.field
+        bbb.begin(merge);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), field)));
+        bbb.finish();
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertEquals(0, nodes.stream().filter(Load.class::isInstance).count());
+        assertEquals(1, nodes.stream().filter(Store.class::isInstance).count());
+        ValueReturn ret = returnOf(nodes);
+        assertInstanceOf(ParameterValue.class, ret.getReturnValue());
+        assertEquals(1, ((ParameterValue) ret.getReturnValue()).getIndex());
+    }
+
+    @Test
+    public void testLoadIsKeptAfterStoreOnOnePath() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        ParameterValue x = bbb.parameter(s32, "x", 1);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), x);
+        BasicBlock entry = bbb.if_(bbb.isLt(x, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        // true: p.field = 5
+        bbb.begin(trueLabel);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), lf.literalOf(s32, 5));
+        bbb.goto_(merge);
+        bbb.begin(falseLabel);
+        bbb.goto_(merge);
+        // merge: the field holds either x or 5
+        bbb.begin(merge);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), field)));
+        bbb.finish();
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertEquals(1, nodes.stream().filter(Load.class::isInstance).count());
+        assertEquals(2, nodes.stream().filter(Store.class::isInstance).count());
+        assertInstanceOf(Load.class, returnOf(nodes).getReturnValue());
+    }
+
+    @Test
+    public void testLoadIsKeptAfterCallOnOnePath() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        ParameterValue x = bbb.parameter(s32, "x", 1);
+        ParameterValue fn = bbb.parameter(ts.getFunctionType(ts.getVoidType(), List.of()).getPointer(), "fn", 2);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), x);
+        BasicBlock entry = bbb.if_(bbb.isLt(x, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        // true: fn(), which may write anything
+        bbb.begin(trueLabel);
+        bbb.call(bbb.pointerHandle(fn, lf.literalOf(0)), List.of());
+        bbb.goto_(merge);
+        bbb.begin(falseLabel);
+        bbb.goto_(merge);
+        bbb.begin(merge);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), field)));
+        bbb.finish();
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertEquals(1, nodes.stream().filter(Load.class::isInstance).count());
+        assertInstanceOf(Load.class, returnOf(nodes).getReturnValue());
+    }
+
+    @Test
+    public void testRedundantStoreIsRemoved() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        ParameterValue x = bbb.parameter(s32, "x", 1);
+        BlockLabel next = new BlockLabel();
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), x);
+        BasicBlock entry = bbb.goto_(next);
+        // next: the field already holds x
+        bbb.begin(next);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), field), x);
+        bbb.return_();
+        bbb.finish();
+
+        assertEquals(1, allNodes(copy(entry)).stream().filter(Store.class::isInstance).count());
+    }
+
+    private BasicBlock copy(BasicBlock entry) {
+        return mc.copy(entry, (c, v) -> new GlobalMemoryTrackingVisitor(c, v));
+    }
+}
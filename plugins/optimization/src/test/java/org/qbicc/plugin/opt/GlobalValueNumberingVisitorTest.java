@@ -0,0 +1,103 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.plugin.opt.TestMethodContext.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Tests for the numbering of invariant header loads. The objects are primitive arrays, so that no class definitions
+ * are needed.
+ */
+public class GlobalValueNumberingVisitorTest {
+    private final TestMethodContext mc = new TestMethodContext();
+    private final TypeSystem ts = mc.getTypeSystem();
+    private final LiteralFactory lf = mc.getLiteralFactory();
+    private final SignedIntegerType s32 = ts.getSignedInteger32Type();
+    private final FieldElement typeIdField = mc.createField("typeId", 0);
+    private final FieldElement otherField = mc.createField("other", 1);
+
+    @Test
+    public void testDominatingLoadIsReused() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        BlockLabel next = new BlockLabel();
+        // entry: t1 = p.typeId; goto next
+        Value t1 = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), typeIdField));
+        BasicBlock entry = bbb.goto_(next);
+        // next: p.other = 7; t2 = p.typeId; return t1 + t2
+        bbb.begin(next);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(p), otherField), lf.literalOf(s32, 7));
+        Value t2 = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), typeIdField));
+        bbb.return_(bbb.add(t1, t2));
+        bbb.finish();
+
+        BasicBlock copy = copy(entry);
+
+        List<Node> nodes = allNodes(copy);
+        List<Load> loads = nodes.stream().filter(Load.class::isInstance).map(Load.class::cast).toList();
+        assertEquals(1, loads.size());
+        // the load in the second block is gone, but the store that it depended on is kept in program order
+        ValueReturn ret = returnOf(nodes);
+        assertInstanceOf(Store.class, ret.getDependency());
+        Add sum = (Add) ret.getReturnValue();
+        assertSame(loads.get(0), sum.getLeftInput());
+        assertSame(loads.get(0), sum.getRightInput());
+    }
+
+    @Test
+    public void testOtherFieldLoadIsKept() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        BlockLabel next = new BlockLabel();
+        Value t1 = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), otherField));
+        BasicBlock entry = bbb.goto_(next);
+        bbb.begin(next);
+        Value t2 = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), otherField));
+        bbb.return_(bbb.add(t1, t2));
+        bbb.finish();
+
+        BasicBlock copy = copy(entry);
+
+        assertEquals(2, allNodes(copy).stream().filter(Load.class::isInstance).count());
+    }
+
+    @Test
+    public void testLoadInSiblingBlockIsKept() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32.getPrimitiveArrayObjectType().getReference(), "p", 0);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BasicBlock entry = bbb.if_(bbb.isEq(p, lf.zeroInitializerLiteralOfType(p.getType())), trueLabel, falseLabel);
+        // neither block dominates the other, so both loads are needed
+        bbb.begin(trueLabel);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), typeIdField)));
+        bbb.begin(falseLabel);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(p), typeIdField)));
+        bbb.finish();
+
+        BasicBlock copy = copy(entry);
+
+        assertEquals(2, allNodes(copy).stream().filter(Load.class::isInstance).count());
+    }
+
+    private BasicBlock copy(BasicBlock entry) {
+        return mc.copy(entry, (c, v) -> new GlobalValueNumberingVisitor(v, typeIdField));
+    }
+}
@@ -0,0 +1,184 @@
+package org.qbicc.plugin.opt;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.ValueReturn;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+/**
+ * A static test method in a class of its own, along with the minimal compilation and class contexts which are needed
+ * to build its graph and to copy it through a node visitor. Only attachments, the literal factory and string
+ * deduplication are supported by the contexts.
+ */
+public final class TestMethodContext {
+    private final TypeSystem ts = TypeSystem.builder().build();
+    private final LiteralFactory lf = LiteralFactory.create(ts);
+    private final CompilationContext ctxt = newCompilationContext(lf);
+    private final ClassContext classContext = newClassContext(ctxt);
+    private final DefinedTypeDefinition enclosingType;
+    private final MethodElement element;
+
+    public TestMethodContext() {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(classContext);
+        typeBuilder.setName("TestClass");
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(classContext, "TestClass"));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(classContext, null, List.of()));
+        typeBuilder.setSimpleName("TestClass");
+        typeBuilder.setInitializer((index, enclosing, builder) -> builder.build(), 0);
+        enclosingType = typeBuilder.build();
+        final MethodElement.Builder builder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        element = builder.build();
+    }
+
+    public TypeSystem getTypeSystem() {
+        return ts;
+    }
+
+    public LiteralFactory getLiteralFactory() {
+        return lf;
+    }
+
+    public CompilationContext getCompilationContext() {
+        return ctxt;
+    }
+
+    public DefinedTypeDefinition getEnclosingType() {
+        return enclosingType;
+    }
+
+    public MethodElement getElement() {
+        return element;
+    }
+
+    /**
+     * Create an {@code int} instance field of the test class.
+     *
+     * @param name the field name
+     * @param index the field index
+     * @return the field
+     */
+    public InstanceFieldElement createField(String name, int index) {
+        final FieldElement.Builder builder = FieldElement.builder(name, BaseTypeDescriptor.I, index);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setType(ts.getSignedInteger32Type());
+        return (InstanceFieldElement) builder.build();
+    }
+
+    /**
+     * Create a block builder for the test method, positioned at the start of its entry block.
+     *
+     * @return the block builder
+     */
+    public BasicBlockBuilder newBlockBuilder() {
+        BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+
+    /**
+     * Copy the graph of the test method through the node visitor under test.
+     *
+     * @param entry the entry block of the graph
+     * @param nodeVisitorFactory the factory for the node visitor under test
+     * @return the entry block of the copy
+     */
+    public BasicBlock copy(BasicBlock entry, BiFunction<CompilationContext, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>, NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle>> nodeVisitorFactory) {
+        BasicBlockBuilder builder = BasicBlockBuilder.simpleBuilder(ts, element);
+        builder.startMethod(List.of());
+        BasicBlock copy = Node.Copier.execute(entry, builder, ctxt, nodeVisitorFactory);
+        builder.finish();
+        return copy;
+    }
+
+    /**
+     * Get the scheduled nodes of every block which is reachable from the given block, in breadth-first order.
+     *
+     * @param entry the entry block
+     * @return the nodes
+     */
+    public static List<Node> allNodes(BasicBlock entry) {
+        Schedule schedule = Schedule.forMethod(entry);
+        List<Node> nodes = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(entry);
+        visited.add(entry);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            nodes.addAll(schedule.getNodesForBlock(block));
+            Terminator terminator = block.getTerminator();
+            for (int i = 0; i < terminator.getSuccessorCount(); i ++) {
+                BasicBlock successor = terminator.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    public static ValueReturn returnOf(List<Node> nodes) {
+        return nodes.stream().filter(ValueReturn.class::isInstance).map(ValueReturn.class::cast).findFirst().orElseThrow();
+    }
+
+    private static CompilationContext newCompilationContext(LiteralFactory lf) {
+        Map<AttachmentKey<?>, Object> attachments = new HashMap<>();
+        return (CompilationContext) Proxy.newProxyInstance(CompilationContext.class.getClassLoader(), new Class<?>[] { CompilationContext.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "getLiteralFactory" -> lf;
+            case "getAttachment" -> attachments.get(args[0]);
+            case "putAttachmentIfAbsent" -> attachments.putIfAbsent((AttachmentKey<?>) args[0], args[1]);
+            case "computeAttachmentIfAbsent" -> attachments.computeIfAbsent((AttachmentKey<?>) args[0], k -> ((Supplier<?>) args[1]).get());
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static ClassContext newClassContext(CompilationContext ctxt) {
+        return (ClassContext) Proxy.newProxyInstance(ClassContext.class.getClassLoader(), new Class<?>[] { ClassContext.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "getCompilationContext" -> ctxt;
+            case "getLiteralFactory" -> ctxt.getLiteralFactory();
+            case "deduplicate" -> args[0] instanceof String str ? str : null;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
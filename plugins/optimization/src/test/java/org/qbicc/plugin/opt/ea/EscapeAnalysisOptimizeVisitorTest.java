@@ -0,0 +1,189 @@
+package org.qbicc.plugin.opt.ea;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.qbicc.plugin.opt.TestMethodContext.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.opt.TestMethodContext;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.element.InstanceFieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests for the replacement of non-escaping objects by their fields.
+ */
+public class EscapeAnalysisOptimizeVisitorTest {
+    private final TestMethodContext mc = new TestMethodContext();
+    private final TypeSystem ts = mc.getTypeSystem();
+    private final LiteralFactory lf = mc.getLiteralFactory();
+    private final SignedIntegerType s32 = ts.getSignedInteger32Type();
+    private final CompilationContext ctxt = mc.getCompilationContext();
+    private final MethodElement element = mc.getElement();
+    private final ClassObjectType classType = ts.generateClassObjectType(mc.getEnclosingType(), null, List.of());
+    private final InstanceFieldElement typeIdField = mc.createField("typeId", 0);
+    private final InstanceFieldElement field = mc.createField("field", 1);
+    private final EscapeAnalysisState state = new EscapeAnalysisState();
+    private final ConnectionGraph connectionGraph = new ConnectionGraph(element);
+
+    @BeforeEach
+    public void setUpEach() {
+        state.addMethod(element, connectionGraph);
+    }
+
+    @Test
+    public void testAllocationInLoop() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue n = bbb.parameter(s32, "n", 0);
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        BasicBlock entry = bbb.goto_(header);
+        // header: i = phi(0, next); if (i < n) goto body else goto exit
+        bbb.begin(header);
+        PhiValue i = bbb.phi(s32, header);
+        bbb.if_(bbb.isLt(i, n), body, exit);
+        // body: o = new TestClass; o.field = i; next = o.field + 1
+        bbb.begin(body);
+        Value o = newObject(bbb);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(o), field), i);
+        Value next = bbb.add(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(o), field)), lf.literalOf(s32, 1));
+        BasicBlock bodyBlock = bbb.goto_(header);
+        bbb.begin(exit);
+        bbb.return_(i);
+        bbb.finish();
+        i.setValueForBlock(ctxt, element, entry, lf.literalOf(s32, 0));
+        i.setValueForBlock(ctxt, element, bodyBlock, next);
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertNoObject(nodes);
+    }
+
+    @Test
+    public void testFieldUpdatedInLoop() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue n = bbb.parameter(s32, "n", 0);
+        BlockLabel header = new BlockLabel();
+        BlockLabel body = new BlockLabel();
+        BlockLabel exit = new BlockLabel();
+        // entry: o = new TestClass; goto header
+        Value o = newObject(bbb);
+        BasicBlock entry = bbb.goto_(header);
+        // header: if (o.field < n) goto body else goto exit
+        bbb.begin(header);
+        bbb.if_(bbb.isLt(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(o), field)), n), body, exit);
+        // body: o.field = o.field + 1
+        bbb.begin(body);
+        Value next = bbb.add(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(o), field)), lf.literalOf(s32, 1));
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(o), field), next);
+        bbb.goto_(header);
+        bbb.begin(exit);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(o), field)));
+        bbb.finish();
+
+        BasicBlock copy = copy(entry);
+        List<Node> nodes = allNodes(copy);
+
+        assertNoObject(nodes);
+        // the field is a phi in the loop header, which starts at zero and is incremented by the body
+        PhiValue phi = (PhiValue) returnOf(nodes).getReturnValue();
+        BasicBlock copiedHeader = phi.getPinnedBlock();
+        assertEquals(2, copiedHeader.getIncoming().size());
+        for (BasicBlock incoming : copiedHeader.getIncoming()) {
+            Value value = phi.getValueForInput(incoming.getTerminator());
+            if (incoming == copy) {
+                assertTrue(value instanceof IntegerLiteral lit && lit.isZero());
+            } else {
+                assertSame(phi, ((Add) value).getLeftInput());
+            }
+        }
+    }
+
+    @Test
+    public void testDiamondMerge() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        ParameterValue p = bbb.parameter(s32, "p", 0);
+        BlockLabel trueLabel = new BlockLabel();
+        BlockLabel falseLabel = new BlockLabel();
+        BlockLabel merge = new BlockLabel();
+        // entry: o = new TestClass; if (p < 0) goto true else goto false
+        Value o = newObject(bbb);
+        BasicBlock entry = bbb.if_(bbb.isLt(p, lf.literalOf(s32, 0)), trueLabel, falseLabel);
+        // true: o.field = 1
+        bbb.begin(trueLabel);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(o), field), lf.literalOf(s32, 1));
+        bbb.goto_(merge);
+        // false: o.field = 2
+        bbb.begin(falseLabel);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(o), field), lf.literalOf(s32, 2));
+        bbb.goto_(merge);
+        // merge: return o.field
+        bbb.begin(merge);
+        bbb.return_(bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(o), field)));
+        bbb.finish();
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertNoObject(nodes);
+        PhiValue phi = (PhiValue) returnOf(nodes).getReturnValue();
+        Set<Value> values = new HashSet<>();
+        for (BasicBlock incoming : phi.getPinnedBlock().getIncoming()) {
+            values.add(phi.getValueForInput(incoming.getTerminator()));
+        }
+        assertEquals(Set.of(lf.literalOf(s32, 1), lf.literalOf(s32, 2)), values);
+    }
+
+    @Test
+    public void testEscapingAllocationIsKept() {
+        BasicBlockBuilder bbb = mc.newBlockBuilder();
+        // o = new TestClass; o.field = 1; return o
+        Value o = bbb.new_(classType, lf.literalOf(s32, 1), lf.literalOf(8L), lf.literalOf(8L));
+        connectionGraph.setGlobalEscape(o);
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(o), field), lf.literalOf(s32, 1));
+        BasicBlock entry = bbb.return_(o);
+        bbb.finish();
+
+        List<Node> nodes = allNodes(copy(entry));
+
+        assertEquals(1, nodes.stream().filter(New.class::isInstance).count());
+        assertEquals(1, nodes.stream().filter(Store.class::isInstance).count());
+        assertInstanceOf(New.class, returnOf(nodes).getReturnValue());
+    }
+
+    private Value newObject(BasicBlockBuilder bbb) {
+        Value o = bbb.new_(classType, lf.literalOf(s32, 1), lf.literalOf(8L), lf.literalOf(8L));
+        connectionGraph.setNoEscape(o);
+        return o;
+    }
+
+    private static void assertNoObject(List<Node> nodes) {
+        assertEquals(0, nodes.stream().filter(New.class::isInstance).count());
+        assertEquals(0, nodes.stream().filter(Load.class::isInstance).count());
+        assertEquals(0, nodes.stream().filter(Store.class::isInstance).count());
+    }
+
+    private BasicBlock copy(BasicBlock entry) {
+        return mc.copy(entry, (c, v) -> new EscapeAnalysisOptimizeVisitor(c, v, state, null, typeIdField));
+    }
+}
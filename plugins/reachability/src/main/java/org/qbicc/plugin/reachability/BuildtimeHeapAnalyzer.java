@@ -3,9 +3,9 @@ package org.qbicc.plugin.reachability;
 import static org.qbicc.graph.atomic.AccessModes.SinglePlain;
 
 import java.util.ArrayDeque;
-import java.util.Collections;
-import java.util.IdentityHashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.Value;
@@ -20,6 +20,7 @@ import org.qbicc.pointer.Pointer;
 import org.qbicc.pointer.StaticMethodPointer;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
+import org.qbicc.type.ObjectType;
 import org.qbicc.type.PhysicalObjectType;
 import org.qbicc.type.PointerType;
 import org.qbicc.type.ReferenceArrayObjectType;
@@ -27,6 +28,7 @@ import org.qbicc.type.ReferenceType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.StaticFieldElement;
+import org.qbicc.type.definition.element.StaticMethodElement;
 
 /**
  * This class supports reachability analysis by providing the capability of
@@ -36,9 +38,16 @@ import org.qbicc.type.definition.element.StaticFieldElement;
  * them, since revisiting an object cannot make additional types reachable.
  * It also does skips over instance fields that cannot add reachable types (primitives,
  * java.lang.Class instances, and java.lang.String instances).
+ *
+ * Objects are claimed in a concurrent set, so any number of threads may trace at once
+ * without taking a lock; the analysis itself only uses concurrent sets and the short
+ * synchronized sections of {@link ReachabilityInfo}. The walk from a single root is not
+ * split up, and runs entirely on the calling thread. The types found by a trace are
+ * collected locally and reported to the analysis in one batch, rather than once per object.
  */
 class BuildtimeHeapAnalyzer {
-    private final Map<VmObject, Boolean> visited = Collections.synchronizedMap(new IdentityHashMap<>());
+    // VmObject uses identity equality, so this is a concurrent identity set
+    private final Set<VmObject> visited = ConcurrentHashMap.newKeySet();
 
     void clear() {
         visited.clear();
@@ -65,12 +74,14 @@ class BuildtimeHeapAnalyzer {
      * @param root The VmObject which is the starting point for this trace.
      */
     void traceHeap(CompilationContext ctxt, ReachabilityAnalysis analysis, VmObject root, ExecutableElement rootElement) {
-        if (visited.containsKey(root)) {
+        if (!visited.add(root)) {
             return;
         }
-        visited.put(root, Boolean.TRUE);
         ArrayDeque<VmObject> worklist = new ArrayDeque<>();
         worklist.add(root);
+        Set<LoadedTypeDefinition> instantiatedTypes = new HashSet<>();
+        Set<ObjectType> arrayElementTypes = new HashSet<>();
+        Set<StaticMethodElement> invokedMethods = new HashSet<>();
 
         Layout interpreterLayout = Layout.get(ctxt);
         while (!worklist.isEmpty()) {
@@ -84,33 +95,42 @@ class BuildtimeHeapAnalyzer {
             PhysicalObjectType ot = cur.getObjectType();
             if (ot instanceof ClassObjectType && !(cur instanceof VmString)) {
                 LoadedTypeDefinition concreteType = cur.getObjectType().getDefinition().load();
-                analysis.processBuildtimeInstantiatedObjectType(concreteType, rootElement);
+                instantiatedTypes.add(concreteType);
 
                 LayoutInfo memLayout = interpreterLayout.getInstanceLayoutInfo(concreteType);
                 for (CompoundType.Member im : memLayout.getCompoundType().getMembers()) {
                     if (im.getType() instanceof ReferenceType) {
                         VmObject child = cur.getMemory().loadRef(im.getOffset(), SinglePlain);
-                        if (child != null && !visited.containsKey(child)) {
+                        if (child != null && visited.add(child)) {
                             worklist.add(child);
-                            visited.put(child, Boolean.TRUE);
                         }
                     } else if (im.getType() instanceof PointerType) {
                         Pointer pointer = cur.getMemory().loadPointer(im.getOffset(), SinglePlain);
                         if (pointer instanceof StaticMethodPointer smp) {
-                            analysis.processReachableExactInvocation(smp.getStaticMethod(), rootElement);
+                            invokedMethods.add(smp.getStaticMethod());
                         }
                     }
                 }
             } else if (ot instanceof ReferenceArrayObjectType) {
-                analysis.processArrayElementType(((ReferenceArrayObjectType) ot).getLeafElementType());
+                arrayElementTypes.add(((ReferenceArrayObjectType) ot).getLeafElementType());
 
                 for (VmObject e : ((VmReferenceArray) cur).getArray()) {
-                    if (e != null && !visited.containsKey(e)) {
+                    if (e != null && visited.add(e)) {
                         worklist.add(e);
-                        visited.put(e, Boolean.TRUE);
                     }
                 }
             }
         }
+
+        // report everything found by this trace at once
+        for (LoadedTypeDefinition type : instantiatedTypes) {
+            analysis.processBuildtimeInstantiatedObjectType(type, rootElement);
+        }
+        for (ObjectType elemType : arrayElementTypes) {
+            analysis.processArrayElementType(elemType);
+        }
+        for (StaticMethodElement method : invokedMethods) {
+            analysis.processReachableExactInvocation(method, rootElement);
+        }
     }
 }
@@ -1,6 +1,5 @@
 package org.qbicc.plugin.reachability;
 
-import java.util.ArrayList;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -39,6 +38,14 @@ import org.qbicc.type.definition.element.StaticFieldElement;
  *
  *  When a new dispatchable method is discovered, the algorithm inspects all instantiated
  *  classes and either makes the method invokable or deferred.
+ *
+ *  None of the operations take a lock, so many compiler threads can process invocations and
+ *  instantiations at once. The race between deferring a method and instantiating one of its
+ *  receivers is closed by always publishing before checking: an instantiated class is added to the
+ *  instantiated set before the deferred sets are scanned, and a method is added to a deferred set
+ *  before the instantiated classes are checked again. At least one of the two threads therefore sees
+ *  the other, and the thread which succeeds in removing the method from the deferred set is the one
+ *  which makes it invokable.
  */
 public final class RapidTypeAnalysis implements ReachabilityAnalysis {
     private final ReachabilityInfo info;
@@ -64,7 +71,7 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
      * Implementation of the ReachabilityAnalysis interface
      */
 
-    public synchronized void processArrayElementType(ObjectType elemType) {
+    public void processArrayElementType(ObjectType elemType) {
         if (elemType instanceof ClassObjectType) {
             info.addReachableClass(elemType.getDefinition().load());
         } else if (elemType instanceof InterfaceObjectType) {
@@ -72,22 +79,22 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
         }
     }
 
-    public synchronized void processBuildtimeInstantiatedObjectType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+    public void processBuildtimeInstantiatedObjectType(LoadedTypeDefinition ltd, ExecutableElement currentElement) {
         processInstantiatedClass(ltd, true, currentElement);
     }
 
-    public synchronized void processReachableObject(VmObject object, ExecutableElement currentElement) {
+    public void processReachableObject(VmObject object, ExecutableElement currentElement) {
         heapAnalyzer.traceHeap(ctxt, this, object, currentElement);
     }
 
-    public synchronized void processReachableRuntimeInitializer(final InitializerElement target, ExecutableElement currentElement) {
+    public void processReachableRuntimeInitializer(final InitializerElement target, ExecutableElement currentElement) {
         if (!ctxt.wasEnqueued(target)) {
             ReachabilityInfo.LOGGER.debugf("Adding <rtinit> %s (potentially invoked from %s)", target, currentElement);
             ctxt.enqueue(target);
         }
     }
 
-    public synchronized void processReachableExactInvocation(final InvokableElement target, ExecutableElement currentElement) {
+    public void processReachableExactInvocation(final InvokableElement target, ExecutableElement currentElement) {
         if (!ctxt.wasEnqueued(target)) {
             processReachableType(target.getEnclosingType().load(), currentElement);
 
@@ -95,12 +102,14 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
                 if (deferredExactMethods.contains(me)) return;
                 LoadedTypeDefinition definingClass = me.getEnclosingType().load();
                 if (!definingClass.isInterface() && !hasInstantiatedSubclass(definingClass)) {
-                    deferredExactMethods.add(me);
-                    ReachabilityInfo.LOGGER.debugf("Deferring method %s (invoked exactly in %s, but no instantiated receiver)", target, currentElement);
-                    return;
-                } else {
-                    info.addInvokableInstanceMethod(me);
+                    if (!deferredExactMethods.add(me)) return;
+                    // check again now that the deferral is visible to processInstantiatedClass
+                    if (!hasInstantiatedSubclass(definingClass) || !deferredExactMethods.remove(me)) {
+                        ReachabilityInfo.LOGGER.debugf("Deferring method %s (invoked exactly in %s, but no instantiated receiver)", target, currentElement);
+                        return;
+                    }
                 }
+                info.addInvokableInstanceMethod(me);
             }
 
             ReachabilityInfo.LOGGER.debugf("Adding %s %s (invoked exactly in %s)", target instanceof ConstructorElement ? "<init>" : "method", target, currentElement);
@@ -108,68 +117,67 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
         }
     }
 
-    public synchronized void processReachableDispatchedInvocation(final MethodElement target, ExecutableElement currentElement) {
+    public void processReachableDispatchedInvocation(final MethodElement target, ExecutableElement currentElement) {
         info.addDispatchableMethod(target);
         if (!info.isInvokableInstanceMethod(target) && !deferredDispatchableMethods.contains(target)) {
-            if (hasInstantiatedReceiver(target)) {
-                ReachabilityInfo.LOGGER.debugf("Adding dispatched method %s (invoked in %s)", target, currentElement);
-                info.addInvokableInstanceMethod(target);
-                ctxt.enqueue(target);
-            } else {
-                ReachabilityInfo.LOGGER.debugf("Deferring method %s (dispatched to in %s, but no instantiated receiver)", target, currentElement);
-                deferredDispatchableMethods.add(target);
+            if (!hasInstantiatedReceiver(target)) {
+                if (!deferredDispatchableMethods.add(target)) return;
+                // check again now that the deferral is visible to processInstantiatedClass
+                if (!hasInstantiatedReceiver(target) || !deferredDispatchableMethods.remove(target)) {
+                    ReachabilityInfo.LOGGER.debugf("Deferring method %s (dispatched to in %s, but no instantiated receiver)", target, currentElement);
+                    return;
+                }
             }
+            ReachabilityInfo.LOGGER.debugf("Adding dispatched method %s (invoked in %s)", target, currentElement);
+            info.addInvokableInstanceMethod(target);
+            ctxt.enqueue(target);
         }
     }
 
-    public synchronized void processReachableStaticFieldAccess(final StaticFieldElement field, ExecutableElement currentElement) {
+    public void processReachableStaticFieldAccess(final StaticFieldElement field, ExecutableElement currentElement) {
         if (!info.isAccessedStaticField(field)) {
             processReachableType(field.getEnclosingType().load(), null);
-            info.addAccessedStaticField(field);
-            heapAnalyzer.traceHeap(ctxt, this, field, currentElement);
+            if (info.addAccessedStaticField(field)) {
+                heapAnalyzer.traceHeap(ctxt, this, field, currentElement);
+            }
         }
     }
 
-    public synchronized void processReachableType(final LoadedTypeDefinition ltd, ExecutableElement currentElement) {
+    public void processReachableType(final LoadedTypeDefinition ltd, ExecutableElement currentElement) {
         info.addReachableType(ltd);
     }
 
-    public synchronized void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement) {
+    public void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement) {
         if (instantiatedClasses.contains(type)) return;
 
+        // the class hierarchy must be complete before the class is published as instantiated
+        info.addReachableClass(type);
+        if (!instantiatedClasses.add(type)) return;
+
         if (onHeapType) {
             ReachabilityInfo.LOGGER.debugf("Adding class %s (heap reachable from %s)", type.getDescriptor(), currentElement);
         } else {
             ReachabilityInfo.LOGGER.debugf("Adding class %s (instantiated in %s)", type.getDescriptor(), currentElement);
         }
 
-        info.addReachableClass(type);
-        instantiatedClasses.add(type);
-
-        ArrayList<MethodElement> toRemove = new ArrayList<>();
-        for (MethodElement dm : deferredExactMethods ) {
-            if (type.isSubtypeOf(dm.getEnclosingType().load())) {
+        for (MethodElement dm : deferredExactMethods) {
+            if (type.isSubtypeOf(dm.getEnclosingType().load()) && deferredExactMethods.remove(dm)) {
                 ReachabilityInfo.LOGGER.debugf("\tDeferred exact method %s is now invokable)", dm);
-                toRemove.add(dm);
                 info.addInvokableInstanceMethod(dm);
                 ctxt.enqueue(dm);
             }
         }
-        toRemove.forEach(deferredExactMethods::remove);
-        toRemove.clear();
 
-        for (MethodElement dm : deferredDispatchableMethods ) {
+        for (MethodElement dm : deferredDispatchableMethods) {
             if (type.isSubtypeOf(dm.getEnclosingType().load())) {
                 MethodElement cand = type.resolveMethodElementVirtual(dm.getName(), dm.getDescriptor());
-                if (cand != null && cand.equals(dm)) {
+                if (cand != null && cand.equals(dm) && deferredDispatchableMethods.remove(dm)) {
                     ReachabilityInfo.LOGGER.debugf("\tDeferred dispatchable method %s is now invokable)", dm);
-                    toRemove.add(dm);
                     info.addInvokableInstanceMethod(dm);
                     ctxt.enqueue(dm);
                 }
             }
         }
-        toRemove.forEach(deferredDispatchableMethods::remove);
     }
 
     public void clear() {
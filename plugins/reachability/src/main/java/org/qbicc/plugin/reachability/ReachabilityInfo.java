@@ -68,6 +68,9 @@ public class ReachabilityInfo {
     // Tracks reachable interfaces and their (direct) reachable implementors
     private final Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> interfaceHierarchy = new ConcurrentHashMap<>();
 
+    // Tracks reachable types whose hierarchy edges have been completely recorded, so that they can be skipped without locking
+    private final Set<LoadedTypeDefinition> addedTypes = ConcurrentHashMap.newKeySet();
+
     // Set of instance methods of reachable types that are dispatched to (need slots allocated in vtable/itable dispatching tables)
     private final Set<MethodElement> dispatchableMethods = ConcurrentHashMap.newKeySet();
     // Set of instance methods that are both dispatchable and have an instantiated receiver class
@@ -101,6 +104,7 @@ public class ReachabilityInfo {
         ReachabilityInfo info = get(ctxt);
         info.classHierarchy.clear();
         info.interfaceHierarchy.clear();
+        info.addedTypes.clear();
         info.dispatchableMethods.clear();
         info.invokableInstanceMethods.clear();
         info.accessedStaticField.clear();
@@ -257,9 +261,14 @@ public class ReachabilityInfo {
         return analysis;
     }
 
+    // Changes to the type hierarchy are rare, so they are serialized; a type is only published to the lock-free
+    // fast path once its edges have been recorded, so that the hierarchy is complete when the fast path skips it.
+
     void addReachableInterface(LoadedTypeDefinition type) {
-        if (isReachableInterface(type)) return;
+        if (addedTypes.contains(type)) return;
         synchronized (this) {
+            // the type may have been added by another thread, or may be in the process of being added by this one
+            if (isReachableInterface(type)) return;
             interfaceHierarchy.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet());
             for (LoadedTypeDefinition i : type.getInterfaces()) {
                 addReachableInterface(i);
@@ -282,9 +291,10 @@ public class ReachabilityInfo {
                 }
             }
 
-            // The Class object of a reachable type is a heap root.
-            analysis.processReachableObject(type.getVmClass(), null);
+            addedTypes.add(type);
         }
+        // The Class object of a reachable type is a heap root; trace it outside of the lock.
+        analysis.processReachableObject(type.getVmClass(), null);
     }
 
     private void addInterfaceEdge(LoadedTypeDefinition child, LoadedTypeDefinition parent) {
@@ -292,8 +302,9 @@ public class ReachabilityInfo {
     }
 
     void addReachableClass(LoadedTypeDefinition type) {
-        if (isReachableClass(type)) return;
+        if (addedTypes.contains(type)) return;
         synchronized (this) {
+            if (isReachableClass(type)) return;
             classHierarchy.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet());
             LoadedTypeDefinition superClass = type.getSuperClass();
             if (superClass != null) {
@@ -330,9 +341,10 @@ public class ReachabilityInfo {
                 }
             }
 
-            // The Class object of a reachable type is a heap root.
-            analysis.processReachableObject(type.getVmClass(), null);
+            addedTypes.add(type);
         }
+        // The Class object of a reachable type is a heap root; trace it outside of the lock.
+        analysis.processReachableObject(type.getVmClass(), null);
     }
 
     void addReachableType(LoadedTypeDefinition type) {
@@ -346,6 +358,7 @@ public class ReachabilityInfo {
     void addDispatchableMethod(MethodElement meth) {
         if (dispatchableMethods.contains(meth)) return;
         synchronized (this) {
+            if (dispatchableMethods.contains(meth)) return;
             addReachableType(meth.getEnclosingType().load());
             dispatchableMethods.add(meth);
 
@@ -397,7 +410,7 @@ public class ReachabilityInfo {
         this.invokableInstanceMethods.add(meth);
     }
 
-    void addAccessedStaticField(FieldElement field) {
-        this.accessedStaticField.add(field);
+    boolean addAccessedStaticField(FieldElement field) {
+        return this.accessedStaticField.add(field);
     }
 }
@@ -0,0 +1,96 @@
+package org.qbicc.plugin.reachability;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.interpreter.VmObject;
+import org.qbicc.interpreter.VmReferenceArray;
+import org.qbicc.type.ObjectType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.TypeSystem;
+
+/**
+ * Tests for tracing the build-time heap. The heap is made of reference arrays only, so that no class definitions are
+ * needed.
+ */
+public class BuildtimeHeapAnalyzerTest {
+    private final TypeSystem ts = TypeSystem.builder().build();
+    private final AtomicInteger traced = new AtomicInteger();
+
+    @Test
+    public void testTraceLargeGraph() {
+        ReferenceArrayObjectType intArrayArray = ts.getSignedInteger32Type().getPrimitiveArrayObjectType().getReferenceArrayObject();
+        ReferenceArrayObjectType longArrayArray = ts.getSignedInteger64Type().getPrimitiveArrayObjectType().getReferenceArrayObject();
+        // a wide tree, where every leaf refers back to the root, and a long chain hanging off of the last leaf
+        int width = 500;
+        VmObject[] rootElements = new VmObject[width];
+        VmObject root = newArray(intArrayArray, rootElements);
+        VmObject lastLeaf = null;
+        for (int i = 0; i < width; i ++) {
+            VmObject[] children = new VmObject[width];
+            for (int j = 0; j < width; j ++) {
+                lastLeaf = newArray(intArrayArray, new VmObject[] { root });
+                children[j] = lastLeaf;
+            }
+            rootElements[i] = newArray(intArrayArray, children);
+        }
+        int chainLength = 100_000;
+        VmObject chain = newArray(longArrayArray, new VmObject[0]);
+        for (int i = 1; i < chainLength; i ++) {
+            chain = newArray(intArrayArray, new VmObject[] { chain, root });
+        }
+        ((VmObject[]) ((VmReferenceArray) lastLeaf).getArray())[0] = chain;
+        traced.set(0);
+
+        Set<ObjectType> elementTypes = ConcurrentHashMap.newKeySet();
+        ReachabilityAnalysis analysis = (ReachabilityAnalysis) Proxy.newProxyInstance(ReachabilityAnalysis.class.getClassLoader(), new Class<?>[] { ReachabilityAnalysis.class }, (proxy, method, args) -> {
+            if (method.getName().equals("processArrayElementType")) {
+                elementTypes.add((ObjectType) args[0]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        BuildtimeHeapAnalyzer analyzer = new BuildtimeHeapAnalyzer();
+        analyzer.traceHeap(newContext(), analysis, root, null);
+
+        assertEquals(1 + width + width * width + chainLength, traced.get());
+        assertEquals(Set.of(intArrayArray.getLeafElementType(), longArrayArray.getLeafElementType()), elementTypes);
+
+        // everything was visited already
+        analyzer.traceHeap(newContext(), analysis, chain, null);
+        assertEquals(1 + width + width * width + chainLength, traced.get());
+    }
+
+    private VmObject newArray(ReferenceArrayObjectType type, VmObject[] elements) {
+        return (VmObject) Proxy.newProxyInstance(VmReferenceArray.class.getClassLoader(), new Class<?>[] { VmReferenceArray.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "getObjectType" -> type;
+            case "getArray" -> {
+                traced.incrementAndGet();
+                yield elements;
+            }
+            case "getLength" -> Integer.valueOf(elements.length);
+            case "hashCode" -> Integer.valueOf(System.identityHashCode(proxy));
+            case "equals" -> Boolean.valueOf(proxy == args[0]);
+            case "toString" -> "array@" + Integer.toHexString(System.identityHashCode(proxy));
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static CompilationContext newContext() {
+        Map<AttachmentKey<?>, Object> attachments = new HashMap<>();
+        return (CompilationContext) Proxy.newProxyInstance(CompilationContext.class.getClassLoader(), new Class<?>[] { CompilationContext.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "getAttachment" -> attachments.get(args[0]);
+            case "putAttachmentIfAbsent" -> attachments.putIfAbsent((AttachmentKey<?>) args[0], args[1]);
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
@@ -27,8 +27,12 @@ public final class Stdio {
     @define("_POSIX_C_SOURCE")
     public static native FILE_ptr fdopen(c_int fd, const_char_ptr mode);
 
+    public static native FILE_ptr fopen(@restrict const_char_ptr pathname, @restrict const_char_ptr mode);
+
     public static native c_int fclose(FILE_ptr stream);
 
+    public static native c_int fputc(c_int c, FILE_ptr stream);
+
     @extern
     @name(value = "__stdinp", when = Build.Target.IsMacOs.class)
     public static FILE_ptr stdin;
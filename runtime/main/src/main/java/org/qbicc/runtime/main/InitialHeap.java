@@ -12,6 +12,11 @@ public class InitialHeap {
     static String[] bootstrapClassNames;  // sorted in natural order for Arrays.binarySearch
     static Class<?>[] bootstrapClasses;   // bootstrapClasses[i].name == bootstrapClassNames[i]
 
+    // The execution counters of an instrumented build, and the profile file line of each counter (without the count).
+    // Both are null unless the build is instrumented.
+    static long[] profileCounters;
+    static byte[] profileCounterKeys;
+
     static class ClassSection {}
     static class InternedStringSection {}
     static class ObjectSection {}
@@ -0,0 +1,77 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdio.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+
+import org.qbicc.runtime.Hidden;
+
+/**
+ * The execution counters of an instrumented build.
+ * <p>
+ * Calls to the counting methods are inserted by the compiler at each instrumented site. When the program exits, the
+ * counters are written to the profile file named by the {@code QBICC_PROFILE_FILE} environment variable, or to
+ * {@code qbicc.profile} in the current directory, which can then be given back to the compiler to optimize a later
+ * build. The counters are not updated atomically, so the counts of a multithreaded program are approximate.
+ */
+public final class ProfileCounters {
+    private ProfileCounters() {}
+
+    /**
+     * Count one execution of the site with the given counter.
+     *
+     * @param index the index of the counter
+     */
+    @Hidden
+    public static void count(int index) {
+        long[] counters = InitialHeap.profileCounters;
+        // the counters are not present at build time
+        if (counters != null) {
+            counters[index] ++;
+        }
+    }
+
+    /**
+     * Count one execution of the conditional branch with the given pair of counters.
+     *
+     * @param index the index of the first counter, which counts the branch being taken; the next counter counts
+     *      the branch not being taken
+     * @param condition the branch condition
+     */
+    @Hidden
+    public static void countBranch(int index, boolean condition) {
+        count(condition ? index : index + 1);
+    }
+
+    @destructor(priority = 2000)
+    @export
+    static void writeProfile() {
+        // this runs after the program has exited, so it must not allocate
+        long[] counters = InitialHeap.profileCounters;
+        byte[] keys = InitialHeap.profileCounterKeys;
+        if (counters == null || keys == null) {
+            return;
+        }
+        char_ptr name = getenv(utf8z("QBICC_PROFILE_FILE"));
+        const_char_ptr fileName;
+        if (name.isNull()) {
+            fileName = utf8z("qbicc.profile");
+        } else {
+            fileName = name.cast();
+        }
+        FILE_ptr file = fopen(fileName, utf8z("w"));
+        if (file.isNull()) {
+            return;
+        }
+        int pos = 0;
+        for (int i = 0; i < counters.length; i ++) {
+            fprintf(file, utf8z("%lld "), word(counters[i]));
+            byte b;
+            do {
+                b = keys[pos ++];
+                fputc(word(b), file);
+            } while (b != '\n');
+        }
+        fclose(file);
+    }
+}